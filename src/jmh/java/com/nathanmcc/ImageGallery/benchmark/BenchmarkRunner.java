@@ -0,0 +1,28 @@
+package com.nathanmcc.ImageGallery.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation rates are reported alongside throughput.
+ * Takes the usual JMH command line options, for example
+ * java -jar target/benchmarks.jar ImageProcessorBenchmark -p megapixels=2 -p type=INT_RGB
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions command_line = new CommandLineOptions(args);
+        if (command_line.shouldHelp() || command_line.shouldList() || command_line.shouldListProfilers()) {
+            Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(command_line).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,117 @@
+package com.nathanmcc.ImageGallery.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the paths through ImageHolder's caches, with a gaussian blur as the filter.
+ *
+ * cached measures requests the caches already hold: a filter result, a filter on the preview and a
+ * display sized copy from the pyramid. uncached measures the same requests on a new holder each time,
+ * which adds the cost of storing the result, making the preview or building the pyramid to the filter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Djava.awt.headless=true"})
+public class ImageHolderBenchmark {
+
+    // Size of the application's display area
+    private static final int DISPLAY_WIDTH = 900;
+    private static final int DISPLAY_HEIGHT = 630;
+
+    @State(Scope.Thread)
+    public static class Cached {
+        @Param({"filter", "preview", "display"})
+        public String cached_path;
+
+        Reflection.Call call;
+        double pixels;
+
+        @Setup
+        public void warm(SyntheticImage synthetic) throws Throwable {
+            Object holder = Reflection.create("ImageHolder", synthetic.image, Reflection.create("ImageProcessor"));
+            call = bind(holder, synthetic.image, cached_path);
+            call.invoke();
+            pixels = synthetic.getPixels();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Uncached {
+        @Param({"filter", "preview", "display"})
+        public String uncached_path;
+
+        Reflection.Call call;
+        double pixels;
+        private BufferedImage image;
+        private Object processor;
+
+        @Setup
+        public void create(SyntheticImage synthetic) {
+            image = synthetic.image;
+            processor = Reflection.create("ImageProcessor");
+            pixels = synthetic.getPixels();
+        }
+
+        @Setup(Level.Invocation)
+        public void reset() {
+            call = bind(Reflection.create("ImageHolder", image, processor), image, uncached_path);
+        }
+    }
+
+    private static Reflection.Call bind(Object holder, BufferedImage image, String path) {
+        switch (path) {
+            case "filter":
+                return Reflection.bind(holder, "applyGaussianBlur");
+            case "preview": {
+                Reflection.Call preview = Reflection.bind(holder, "getPreview", DISPLAY_WIDTH, DISPLAY_HEIGHT);
+                return new Reflection.Call() {
+                    // The blur is bound again only when getPreview makes a new preview
+                    private Object bound_preview;
+                    private Reflection.Call blur;
+
+                    @Override
+                    public Object invoke() throws Throwable {
+                        Object preview_holder = preview.invoke();
+                        if (preview_holder != bound_preview) {
+                            blur = Reflection.bind(preview_holder, "applyGaussianBlur");
+                            bound_preview = preview_holder;
+                        }
+                        return blur.invoke();
+                    }
+                };
+            }
+            case "display":
+                return Reflection.bind(holder, "getDisplayImage", image, DISPLAY_WIDTH, DISPLAY_HEIGHT);
+            default:
+                throw new IllegalArgumentException("Unknown path " + path);
+        }
+    }
+
+    @Benchmark
+    public Object cached(Cached state, PixelCounter counter) throws Throwable {
+        counter.megapixels += state.pixels;
+        return state.call.invoke();
+    }
+
+    @Benchmark
+    public Object uncached(Uncached state, PixelCounter counter) throws Throwable {
+        counter.megapixels += state.pixels;
+        return state.call.invoke();
+    }
+}
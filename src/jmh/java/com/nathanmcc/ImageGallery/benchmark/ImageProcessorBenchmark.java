@@ -0,0 +1,105 @@
+package com.nathanmcc.ImageGallery.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each public ImageProcessor operation. Overloads that only pass parameters on to the
+ * same implementation are measured through their default form, and applyConvolution with a 5x5 float
+ * kernel. Operations that take a luminance map, corner response or greyscale image are given one
+ * calculated during setup, so only the operation itself is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Djava.awt.headless=true"})
+public class ImageProcessorBenchmark {
+
+    @Param({"applyGreyscaleFilter", "applyNegativeFilter", "applySepiaFilter", "applyCartoonFilter",
+            "applyContrastEnhancement", "thresholdImage", "applyLookupTable", "applyColourMap", "applyBoxBlur",
+            "applyGaussianBlur", "applyPrewittOperator", "applySobelOperator", "calculateLuminance",
+            "extractLuminance", "pixelate", "downscale", "sharpen", "applyConvolution", "applyPipeline",
+            "calculateCornerResponse", "drawCorners", "detectHarrisCorners", "detectShiTomasiCorners",
+            "convertFalseColour"})
+    public String operation;
+
+    private Reflection.Call call;
+    private double pixels;
+
+    @Setup
+    public void bind(SyntheticImage synthetic) {
+        BufferedImage image = synthetic.image;
+        Object processor = Reflection.create("ImageProcessor");
+        pixels = synthetic.getPixels();
+        call = bind(processor, image, operation);
+    }
+
+    private static Reflection.Call bind(Object processor, BufferedImage image, String operation) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        switch (operation) {
+            case "applyLookupTable":
+                return Reflection.bind(processor, operation, image, Reflection.constant("LookupTable", "NEGATIVE"));
+            case "applyColourMap":
+                return Reflection.bind(processor, operation, image, Reflection.constant("ColourMap", "FALSE_COLOUR"));
+            case "extractLuminance":
+                return Reflection.bind(processor, operation, Reflection.call(processor, "applyGreyscaleFilter", image));
+            case "downscale":
+                return Reflection.bind(processor, operation, image, Math.max(1, width / 4), Math.max(1, height / 4));
+            case "applyConvolution": {
+                // A 5x5 float kernel, which runs through the full 5x5 loops rather than as two 1D passes
+                float[] binomial = {1, 4, 6, 4, 1};
+                float[][] kernel = new float[5][5];
+                for (int i = 0; i < 5; i++)
+                    for (int j = 0; j < 5; j++)
+                        kernel[i][j] = binomial[i] * binomial[j] / 256;
+                Object convolution = Reflection.callStatic("Convolution", "fromFloats", kernel,
+                        Reflection.constant("Convolution$Border", "CLAMP"));
+                return Reflection.bind(processor, operation, image, convolution);
+            }
+            case "applyPipeline": {
+                Object pipeline = Reflection.create("FilterPipeline");
+                pipeline = Reflection.call(pipeline, "greyscale");
+                pipeline = Reflection.call(pipeline, "gaussianBlur");
+                pipeline = Reflection.call(pipeline, "sobel");
+                return Reflection.bind(processor, operation, image, pipeline);
+            }
+            case "calculateCornerResponse":
+                return Reflection.bind(processor, operation, Reflection.call(processor, "calculateLuminance", image),
+                        width, height, Reflection.constant("CornerDetector", "HARRIS"));
+            case "drawCorners": {
+                Object detector = Reflection.constant("CornerDetector", "HARRIS");
+                Object response = Reflection.call(processor, "calculateCornerResponse",
+                        Reflection.call(processor, "calculateLuminance", image), width, height, detector);
+                Object threshold = Reflection.call(Reflection.call(detector, "getMeasure"), "getDefaultThreshold");
+                return Reflection.bind(processor, operation, response, threshold, image);
+            }
+            case "detectHarrisCorners":
+            case "detectShiTomasiCorners":
+                return Reflection.bind(processor, operation, Reflection.call(processor, "applyGreyscaleFilter", image),
+                        image);
+            default:
+                return Reflection.bind(processor, operation, image);
+        }
+    }
+
+    @Benchmark
+    public Object process(PixelCounter counter) throws Throwable {
+        counter.megapixels += pixels;
+        return call.invoke();
+    }
+}
@@ -0,0 +1,124 @@
+package com.nathanmcc.ImageGallery.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reaches the application's classes, which are in the unnamed package and so cannot be imported.
+ * JMH needs benchmarks to be in a named package, so they create and call the application's objects
+ * through here. Calls are bound into a MethodHandle up front, so invoking one in a benchmark costs a
+ * few nanoseconds against the milliseconds an image operation takes.
+ */
+final class Reflection {
+
+    /** A call with all of its arguments bound */
+    interface Call {
+        Object invoke() throws Throwable;
+    }
+
+    private Reflection() {}
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException err) {
+            throw new IllegalStateException("Application class " + name + " is not on the class path", err);
+        }
+    }
+
+    static Object create(String name, Object... arguments) {
+        try {
+            for (Constructor<?> constructor : type(name).getConstructors()) {
+                if (matches(constructor.getParameterTypes(), arguments))
+                    return constructor.newInstance(arguments);
+            }
+        } catch (ReflectiveOperationException err) {
+            throw new IllegalStateException("Could not create " + name, err);
+        }
+        throw new IllegalArgumentException("No constructor of " + name + " takes these arguments");
+    }
+
+    static Object constant(String type_name, String field_name) {
+        try {
+            return type(type_name).getField(field_name).get(null);
+        } catch (ReflectiveOperationException err) {
+            throw new IllegalArgumentException("No constant " + type_name + "." + field_name, err);
+        }
+    }
+
+    /**
+     * Binds a public method call, choosing the overload whose parameters accept the arguments
+     * @param target object to call the method on
+     * @param method_name name of the method
+     * @param arguments arguments to pass
+     * @return call that can be made repeatedly
+     */
+    static Call bind(Object target, String method_name, Object... arguments) {
+        for (Method method : target.getClass().getMethods()) {
+            if (!method.getName().equals(method_name) || !matches(method.getParameterTypes(), arguments))
+                continue;
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(method).bindTo(target);
+                MethodHandle bound = MethodHandles.insertArguments(handle, 0, arguments)
+                        .asType(MethodType.methodType(Object.class));
+                return () -> (Object) bound.invokeExact();
+            } catch (IllegalAccessException err) {
+                throw new IllegalStateException("Could not bind " + method_name, err);
+            }
+        }
+        throw new IllegalArgumentException("No method " + method_name + " of " + target.getClass().getName()
+                + " takes these arguments");
+    }
+
+    /**
+     * Calls a public method once
+     * @param target object to call the method on
+     * @param method_name name of the method
+     * @param arguments arguments to pass
+     * @return result of the method
+     */
+    static Object call(Object target, String method_name, Object... arguments) {
+        try {
+            return bind(target, method_name, arguments).invoke();
+        } catch (RuntimeException | Error err) {
+            throw err;
+        } catch (Throwable err) {
+            throw new IllegalStateException(err);
+        }
+    }
+
+    /**
+     * Calls a public static method once, such as a factory
+     * @param type_name class the method belongs to
+     * @param method_name name of the method
+     * @param arguments arguments to pass
+     * @return result of the method
+     */
+    static Object callStatic(String type_name, String method_name, Object... arguments) {
+        try {
+            for (Method method : type(type_name).getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) && method.getName().equals(method_name)
+                        && matches(method.getParameterTypes(), arguments))
+                    return method.invoke(null, arguments);
+            }
+        } catch (ReflectiveOperationException err) {
+            throw new IllegalStateException("Could not call " + type_name + "." + method_name, err);
+        }
+        throw new IllegalArgumentException("No static method " + method_name + " of " + type_name
+                + " takes these arguments");
+    }
+
+    private static boolean matches(Class<?>[] parameters, Object[] arguments) {
+        if (parameters.length != arguments.length)
+            return false;
+        for (int i = 0; i < parameters.length; i++) {
+            if (!MethodType.methodType(parameters[i]).wrap().returnType().isInstance(arguments[i]))
+                return false;
+        }
+        return true;
+    }
+}
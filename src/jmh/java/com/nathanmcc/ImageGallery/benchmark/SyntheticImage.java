@@ -0,0 +1,59 @@
+package com.nathanmcc.ImageGallery.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+/**
+ * A generated 4:3 test image of a given size and BufferedImage type. The image is a colour gradient
+ * with noise and a grid of hard edged squares, so blurs, edge and corner detectors all have work to do.
+ */
+@State(Scope.Benchmark)
+public class SyntheticImage {
+
+    @Param({"0.3", "2", "12", "48"})
+    public double megapixels;
+
+    @Param({"INT_RGB", "3BYTE_BGR", "BYTE_GRAY"})
+    public String type;
+
+    BufferedImage image;
+
+    @Setup
+    public void create() throws ReflectiveOperationException {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+        int height = (int) Math.round(width * 3 / 4.0);
+        int image_type = BufferedImage.class.getField("TYPE_" + type).getInt(null);
+        image = new BufferedImage(width, height, image_type);
+
+        SplittableRandom random = new SplittableRandom(42);
+        int square_size = Math.max(8, width / 32);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = x * 255 / width;
+                int green = y * 255 / height;
+                int blue = ((x / square_size + y / square_size) & 1) == 0 ? 200 : 40;
+                int noise = random.nextInt(32) - 16;
+                row[x] = 0xFF000000 | clamp(red + noise) << 16 | clamp(green + noise) << 8 | clamp(blue + noise);
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Number of pixels in the image, in millions
+     * @return megapixels
+     */
+    double getPixels() {
+        return image.getWidth() * (double) image.getHeight() / 1e6;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Splits an image into horizontal bands of rows and processes the bands in parallel.
+ *
+ * Each band writes only its own output rows and reads whatever input rows it needs (including any
+ * halo rows above and below for kernels), so the result does not depend on how the rows are split
+ * or on the order the bands finish in.
+ */
+public class BandExecutor {
+
+    /** Runs every task on the calling thread as a single band */
+    public static final BandExecutor SEQUENTIAL = new BandExecutor(1, null);
+
+    // Bands are kept at least this tall so the halo rows re-read by each band stay a small overhead
+    private static final int MIN_BAND_HEIGHT = 16;
+    // Number of bands per thread, so a slow band does not leave the other threads idle
+    private static final int BANDS_PER_THREAD = 4;
+
+    /** Work done on a band of rows */
+    public interface Task {
+        /**
+         * Processes a band of rows
+         * @param start_row first row of the band
+         * @param end_row row after the last row of the band
+         */
+        void run(int start_row, int end_row);
+    }
+
+    private final int parallelism;
+    private final Executor executor;
+    // true if the executor is a pool created here rather than one supplied by the caller
+    private final boolean owns_executor;
+
+    /**
+     * Creates a band executor
+     * @param parallelism number of bands to run at once, 1 runs everything on the calling thread
+     * @param executor executor to run the bands on, or null to use a fork/join pool with the given parallelism
+     */
+    public BandExecutor(int parallelism, Executor executor) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+        this.owns_executor = executor == null && parallelism > 1;
+        this.executor = owns_executor ? new ForkJoinPool(parallelism) : executor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Runs the task over every row in the range [0, height), waiting for all the bands to finish.
+     * If the calling thread is running an operation tracked by a Progress, this starts a new pass of it.
+     * If it is running an operation measured by FilterMetrics, the bands' allocations are added to it.
+     * @param height number of rows
+     * @param task work to do for each band
+     */
+    public void run(int height, Task task) {
+        // Band threads report progress and check for cancellation on behalf of the calling thread
+        Progress progress = Progress.current();
+        if (progress != null)
+            progress.startPass(height);
+        FilterMetrics.Measurement measurement = FilterMetrics.current();
+
+        int band_count = Math.min(parallelism * BANDS_PER_THREAD, height / MIN_BAND_HEIGHT);
+        if (parallelism == 1 || band_count <= 1) {
+            task.run(0, height);
+            return;
+        }
+
+        CompletableFuture<?>[] bands = new CompletableFuture<?>[band_count];
+        for (int band = 0; band < band_count; band++) {
+            int start_row = (int) ((long) height * band / band_count);
+            int end_row = (int) ((long) height * (band + 1) / band_count);
+            Runnable part = () -> task.run(start_row, end_row);
+            if (progress != null) {
+                Runnable tracked_part = part;
+                part = () -> progress.runPart(tracked_part);
+            }
+            if (measurement != null) {
+                Runnable measured_part = part;
+                part = () -> measurement.runPart(measured_part);
+            }
+            bands[band] = CompletableFuture.runAsync(part, executor);
+        }
+
+        try {
+            CompletableFuture.allOf(bands).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the fork/join pool created by this executor, if there is one.
+     * Executors supplied by the caller are left running.
+     */
+    public void shutdown() {
+        if (owns_executor)
+            ((ForkJoinPool) executor).shutdown();
+    }
+}
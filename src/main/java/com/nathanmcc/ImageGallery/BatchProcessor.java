@@ -0,0 +1,670 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point that applies a list of filters to every image in a directory.
+ *
+ * Images go through a StagedPipeline of decode, filter and encode stages, each with its own threads, so
+ * decoding and encoding overlap with filtering. The stages are joined by bounded queues, so a slow encoder
+ * holds the decoders back and only a fixed number of images are in memory at once. How busy each stage
+ * was and how deep its queue got is printed at the end, to size the stages by. Neighbouring filters that
+ * can be streamed are run as one FilterPipeline. Images whose output is newer than the input are skipped, so an interrupted run can
+ * simply be started again.
+ *
+ * Converted input images, the images between steps and the filtered images are released to the
+ * ImageProcessor's BufferPool once they are done with, so images of the same size reuse their frames
+ * instead of allocating new ones. Images straight from ImageIO are not, as they can have the file's own
+ * palette or bit depth.
+ *
+ * Images too large to decode in the memory available to their worker are filtered a strip at a time by
+ * StripStreamer instead, as long as every filter can be streamed and the output format can be written
+ * in order.
+ *
+ * java -Djava.awt.headless=true -cp image_processor.jar BatchProcessor -f greyscale,sobel photos/*.jpg edges
+ */
+public class BatchProcessor {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchProcessor [options] <input directory or glob> <output directory>",
+            "  -f, --filters <names>   comma separated filters, applied in order:",
+            "                          " + String.join(", ", filterNames()),
+            "      --format <name>     output image format (default png)",
+            "  -t, --threads <n>       images filtered at once (default: number of processors)",
+            "      --decoders <n>      images decoded at once (default: a quarter of the processors)",
+            "      --encoders <n>      images encoded at once (default: a quarter of the processors)",
+            "      --queue <n>         decoded or filtered images waiting for each stage (default 2)",
+            "      --overwrite         process images even if their output is up to date",
+            "      --stream            filter every image a strip at a time (png or tiff output only)",
+            "      --cache             keep whole image results in the disk cache shared with the application",
+            "      --cache-dir <dir>   directory of the disk cache (default ~/.imagegallery/cache), implies --cache",
+            "      --metrics <file>    write per filter timings, allocations and cache hit ratios as JSON",
+            "                          to the file when done, - for standard output");
+
+    private final List<UnaryOperator<BufferedImage>> steps;
+    private final BufferPool buffer_pool;
+    // Every filter as a single pipeline, or null if some filter needs whole images
+    private final FilterPipeline streaming_pipeline;
+    private final Path output_directory;
+    private final String format;
+    private final int threads;
+    private int decode_threads = 1;
+    private int encode_threads = 1;
+    private int queue_capacity = 2;
+    private final boolean overwrite;
+    private final boolean stream;
+    // Key the result of every filter together is kept in the disk cache under
+    private final Object cache_key;
+    private DiskCache disk_cache;
+    // Stages of the last call to process, for their statistics
+    private volatile StagedPipeline<Job> pipeline;
+
+    private final AtomicInteger processed_count = new AtomicInteger();
+    private final AtomicInteger skipped_count = new AtomicInteger();
+    private final AtomicInteger failed_count = new AtomicInteger();
+    private final AtomicLong processed_pixels = new AtomicLong();
+    // Wall clock time of the last call to process
+    private volatile long elapsed_nanos;
+
+    /**
+     * @param image_processor processor to run the filters with, shared by every worker
+     * @param filter_names filters to apply, in order
+     * @param output_directory directory to write the filtered images to
+     * @param format output image format, as understood by ImageIO
+     * @param threads number of images to filter at once
+     * @param overwrite true to process images even if their output is up to date
+     * @param stream true to filter every image a strip at a time, not just the ones too large to decode
+     */
+    public BatchProcessor(ImageProcessor image_processor, List<String> filter_names, Path output_directory,
+                          String format, int threads, boolean overwrite, boolean stream) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Threads must be at least 1");
+        if (!ImageIO.getImageWritersByFormatName(format).hasNext())
+            throw new IllegalArgumentException("Unknown image format " + format);
+        this.steps = createSteps(image_processor, filter_names);
+        this.buffer_pool = image_processor.getBufferPool();
+        this.streaming_pipeline = createPipeline(filter_names);
+        if (stream && (streaming_pipeline == null || !StripStreamer.canStream(format)))
+            throw new IllegalArgumentException("Streaming needs streamable filters and one of "
+                    + String.join(", ", StripStreamer.STREAMABLE_FORMATS) + " output");
+        this.output_directory = output_directory;
+        this.format = format;
+        this.threads = threads;
+        this.overwrite = overwrite;
+        this.stream = stream;
+        this.cache_key = ResultCache.key("batch", String.join(",", filter_names));
+    }
+
+    /**
+     * Sets the size of the decode and encode stages either side of the filters
+     * @param decode_threads number of images to decode at once
+     * @param encode_threads number of images to encode at once
+     * @param queue_capacity most images waiting for each stage
+     */
+    public void setStageSizes(int decode_threads, int encode_threads, int queue_capacity) {
+        if (decode_threads < 1 || encode_threads < 1 || queue_capacity < 1)
+            throw new IllegalArgumentException("Stages need at least one thread and room for one image");
+        this.decode_threads = decode_threads;
+        this.encode_threads = encode_threads;
+        this.queue_capacity = queue_capacity;
+    }
+
+    /**
+     * Keeps the filtered images in a disk cache, so images filtered before are only decoded and written.
+     * Streamed images are not cached.
+     * @param disk_cache disk cache, or null for none
+     */
+    public void setDiskCache(DiskCache disk_cache) {
+        this.disk_cache = disk_cache;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        List<String> filter_names = new ArrayList<>();
+        String format = "png";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int decode_threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        int encode_threads = decode_threads;
+        int queue_capacity = 2;
+        boolean overwrite = false;
+        boolean stream = false;
+        String metrics_file = null;
+        boolean use_disk_cache = false;
+        String cache_directory = null;
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-f":
+                    case "--filters":
+                        filter_names.addAll(Arrays.asList(argument(args, ++i).split(",")));
+                        break;
+                    case "--format":
+                        format = argument(args, ++i).toLowerCase(Locale.ROOT);
+                        break;
+                    case "-t":
+                    case "--threads":
+                        threads = Integer.parseInt(argument(args, ++i));
+                        break;
+                    case "--decoders":
+                        decode_threads = Integer.parseInt(argument(args, ++i));
+                        break;
+                    case "--encoders":
+                        encode_threads = Integer.parseInt(argument(args, ++i));
+                        break;
+                    case "--queue":
+                        queue_capacity = Integer.parseInt(argument(args, ++i));
+                        break;
+                    case "--overwrite":
+                        overwrite = true;
+                        break;
+                    case "--stream":
+                        stream = true;
+                        break;
+                    case "--cache":
+                        use_disk_cache = true;
+                        break;
+                    case "--cache-dir":
+                        use_disk_cache = true;
+                        cache_directory = argument(args, ++i);
+                        break;
+                    case "--metrics":
+                        metrics_file = argument(args, ++i);
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        if (args[i].startsWith("-"))
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        positional.add(args[i]);
+                }
+            }
+            if (positional.size() != 2)
+                throw new IllegalArgumentException("Expected an input and an output directory");
+
+            FilterMetrics.register();
+            if (metrics_file != null)
+                FilterMetrics.getInstance().setEnabled(true);
+
+            List<Path> inputs = findInputs(positional.get(0));
+            Path output_directory = Paths.get(positional.get(1));
+            // Workers share the cores left over when there are fewer images than threads
+            int workers = Math.max(1, Math.min(threads, inputs.size()));
+            ImageProcessor image_processor = new ImageProcessor(Math.max(1, Runtime.getRuntime().availableProcessors() / workers));
+            BatchProcessor batch = new BatchProcessor(image_processor, filter_names, output_directory, format,
+                    workers, overwrite, stream);
+            batch.setStageSizes(decode_threads, encode_threads, queue_capacity);
+            DiskCache disk_cache = null;
+            if (use_disk_cache) {
+                disk_cache = cache_directory == null ? DiskCache.openDefault()
+                        : new DiskCache(Paths.get(cache_directory), DiskCache.getDefaultByteBudget());
+                batch.setDiskCache(disk_cache);
+            }
+            batch.process(inputs);
+            // Results are written in the background, so wait for them before the JVM exits
+            if (disk_cache != null)
+                disk_cache.flush();
+            System.out.println(batch.getSummary());
+            for (StagedPipeline.StageStats stage : batch.getStageStats())
+                System.out.println("  " + stage);
+            System.out.println("  buffer pool: " + image_processor.getBufferPool());
+            if (metrics_file != null)
+                writeMetrics(metrics_file);
+            if (batch.failed_count.get() > 0)
+                System.exit(1);
+        } catch (IllegalArgumentException err) {
+            System.err.println(err.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException err) {
+            System.err.println("There was a problem reading the input: " + err.getMessage());
+            System.exit(1);
+        } catch (InterruptedException err) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the metrics collected during the run as JSON
+     * @param metrics_file file to write to, or - for standard output
+     */
+    private static void writeMetrics(String metrics_file) {
+        String json = FilterMetrics.getInstance().toJson();
+        if (metrics_file.equals("-")) {
+            System.out.println(json);
+            return;
+        }
+        try {
+            Files.write(Paths.get(metrics_file), (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException err) {
+            System.err.println("Failed to write metrics to " + metrics_file + ": " + err.getMessage());
+        }
+    }
+
+    private static String argument(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    /** An image on its way through the stages */
+    private static class Job {
+        final Path input;
+        final Path output;
+        // Set by the decode stage, replaced by the filtered image and dropped once encoded
+        BufferedImage image;
+        // Whether the decoded image was converted into a leased image, which can go back to the pool once
+        // filtered. Images straight from ImageIO can carry the file's own palette, so are never pooled.
+        boolean source_recyclable;
+        // Whether the filtered image can go back to the pool once encoded, which it cannot while the disk
+        // cache may still be writing it
+        boolean recyclable;
+        // Streamed images are decoded, filtered and encoded together by the filter stage
+        boolean streamed;
+        Path temporary;
+        long pixels;
+
+        Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Filters every image, waiting until they are all written
+     * @param inputs image files to filter
+     * @throws IOException if the output directory could not be created
+     * @throws InterruptedException if interrupted while waiting for the stages
+     */
+    public void process(List<Path> inputs) throws IOException, InterruptedException {
+        Files.createDirectories(output_directory);
+        long start_time = System.nanoTime();
+        List<Job> jobs = new ArrayList<>();
+        for (Path input : inputs) {
+            String file_name = input.getFileName().toString();
+            int dot = file_name.lastIndexOf('.');
+            jobs.add(new Job(input, output_directory.resolve((dot > 0 ? file_name.substring(0, dot) : file_name) + "." + format)));
+        }
+        pipeline = new StagedPipeline<Job>("Batch", this::fail)
+                .addStage("decode", decode_threads, queue_capacity, this::decode)
+                .addStage("filter", threads, queue_capacity, this::filter)
+                .addStage("encode", encode_threads, queue_capacity, this::encode);
+        pipeline.run(jobs);
+        elapsed_nanos = System.nanoTime() - start_time;
+    }
+
+    /**
+     * Decodes an image, unless its output is already up to date or it is to be streamed
+     * @return false if the image is skipped
+     */
+    private boolean decode(Job job) throws IOException {
+        if (!overwrite && Files.exists(job.output)
+                && Files.getLastModifiedTime(job.output).compareTo(Files.getLastModifiedTime(job.input)) >= 0) {
+            skipped_count.incrementAndGet();
+            return false;
+        }
+        if (shouldStream(job.input)) {
+            job.streamed = true;
+            return true;
+        }
+
+        BufferedImage image = ImageIO.read(job.input.toFile());
+        if (image == null)
+            throw new IOException("not a readable image");
+        // The filters create images of the same type as their input, which needs a standard type
+        if (image.getType() == BufferedImage.TYPE_CUSTOM) {
+            image = convert(image, image.getColorModel().hasAlpha()
+                    ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            job.source_recyclable = true;
+        }
+        job.image = image;
+        job.pixels = (long) image.getWidth() * image.getHeight();
+        return true;
+    }
+
+    /**
+     * Runs each step on the image, or streams the image straight to a temporary output
+     */
+    private boolean filter(Job job) throws IOException {
+        if (job.streamed) {
+            job.temporary = createTemporary(job);
+            job.pixels = streamImage(job.input, job.temporary);
+            return true;
+        }
+
+        BufferedImage source_image = job.image;
+        BufferedImage image;
+        if (disk_cache == null) {
+            image = applySteps(source_image);
+        } else {
+            image = disk_cache.get(DiskCache.hash(source_image), cache_key, () -> applySteps(source_image));
+        }
+        job.image = null;
+        if (job.source_recyclable)
+            buffer_pool.release(source_image);
+        job.recyclable = disk_cache == null;
+
+        // Formats such as jpg cannot store alpha
+        if (!ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), format).hasNext()) {
+            BufferedImage converted = convert(image, BufferedImage.TYPE_INT_RGB);
+            if (job.recyclable)
+                buffer_pool.release(image);
+            image = converted;
+            job.recyclable = true;
+        }
+        job.image = image;
+        return true;
+    }
+
+    /**
+     * Encodes the filtered image and moves it into place
+     */
+    private boolean encode(Job job) throws IOException {
+        if (!job.streamed) {
+            job.temporary = createTemporary(job);
+            if (!ImageIO.write(job.image, format, job.temporary.toFile()))
+                throw new IOException("no " + format + " writer for this image");
+            if (job.recyclable)
+                buffer_pool.release(job.image);
+            job.image = null;
+        }
+        Files.move(job.temporary, job.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        job.temporary = null;
+        processed_count.incrementAndGet();
+        processed_pixels.addAndGet(job.pixels);
+        return true;
+    }
+
+    /**
+     * Write to a temporary file first so an interrupted run never leaves an output that looks complete
+     */
+    private Path createTemporary(Job job) throws IOException {
+        return Files.createTempFile(output_directory, job.input.getFileName().toString(), ".tmp");
+    }
+
+    /**
+     * Reports an image that failed in any stage and removes its temporary output
+     */
+    private void fail(Job job, Throwable err) {
+        failed_count.incrementAndGet();
+        job.image = null;
+        System.err.println("Failed to process " + job.input + ": "
+                + (err instanceof OutOfMemoryError ? "not enough memory" : err.getMessage()));
+        try {
+            if (job.temporary != null)
+                Files.deleteIfExists(job.temporary);
+        } catch (IOException delete_err) {
+            System.err.println("Failed to delete " + job.temporary + ": " + delete_err.getMessage());
+        }
+    }
+
+    /**
+     * Runs each step on the image, releasing the images between steps but not the image itself
+     */
+    private BufferedImage applySteps(BufferedImage image) {
+        BufferedImage result = image;
+        for (UnaryOperator<BufferedImage> step : steps) {
+            BufferedImage next = step.apply(result);
+            if (result != image)
+                buffer_pool.release(result);
+            result = next;
+        }
+        return result;
+    }
+
+    /**
+     * Filters the image a strip at a time, without decoding all of it at once
+     * @return number of pixels filtered
+     */
+    private long streamImage(Path input, Path output) throws IOException {
+        Dimension size = readSize(input);
+        long pixels = (long) size.width * size.height;
+        // Streamed images never reach the image processor, so they are measured here, decoding included
+        FilterMetrics.Measurement measurement = FilterMetrics.start("streamPipeline", pixels);
+        try {
+            new StripStreamer(streaming_pipeline).stream(input.toFile(), output.toFile(), format);
+        } finally {
+            if (measurement != null)
+                measurement.stop();
+        }
+        return pixels;
+    }
+
+    /**
+     * Decides whether to stream an image, which is done when asked to or when the input and output
+     * images would not fit in its share of the heap, shared with every image the stages can hold at once
+     */
+    private boolean shouldStream(Path input) throws IOException {
+        if (streaming_pipeline == null || !StripStreamer.canStream(format))
+            return false;
+        if (stream)
+            return true;
+        Dimension size = readSize(input);
+        // Input and output images of 4 bytes per pixel
+        long bytes = (long) size.width * size.height * 8;
+        return bytes > Runtime.getRuntime().maxMemory() / pipeline.getCapacity();
+    }
+
+    /**
+     * Reads the size of an image from its header without decoding it
+     */
+    private static Dimension readSize(Path input) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input.toFile())) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext())
+                throw new IOException("not a readable image");
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Describes how much was done by the last call to process and how fast
+     * @return one line summary
+     */
+    public String getSummary() {
+        double seconds = elapsed_nanos / 1e9;
+        double megapixels = processed_pixels.get() / 1e6;
+        return String.format(Locale.ROOT,
+                "Processed %d images (%.1f MPix) in %.2f s: %.2f images/s, %.1f MPix/s. Skipped %d, failed %d.",
+                processed_count.get(), megapixels, seconds,
+                seconds > 0 ? processed_count.get() / seconds : 0.0,
+                seconds > 0 ? megapixels / seconds : 0.0,
+                skipped_count.get(), failed_count.get());
+    }
+
+    /**
+     * Statistics of each stage of the last call to process, to size the stages by
+     * @return decode, filter and encode statistics, or none before the first call
+     */
+    public List<StagedPipeline.StageStats> getStageStats() {
+        return pipeline == null ? new ArrayList<>() : pipeline.getStats();
+    }
+
+    /**
+     * Finds the images to process. A directory gives every image file directly inside it, anything else
+     * is a glob such as photos/*.jpg or photos/**.png, matched against files below its fixed leading directories.
+     * @param input directory or glob
+     * @return image files, sorted by path
+     * @throws IOException if a directory could not be listed
+     */
+    public static List<Path> findInputs(String input) throws IOException {
+        Path directory = Paths.get(input);
+        if (Files.isDirectory(directory)) {
+            List<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+                    .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toList());
+            try (Stream<Path> files = Files.list(directory)) {
+                return files.filter(Files::isRegularFile)
+                        .filter(file -> {
+                            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                            return suffixes.contains(name.substring(name.lastIndexOf('.') + 1));
+                        })
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
+        // Walk from the leading directories that contain no wildcards
+        Path pattern = directory;
+        Path base = pattern.isAbsolute() ? pattern.getRoot() : Paths.get("");
+        int fixed_count = 0;
+        for (Path part : pattern) {
+            if (fixed_count == pattern.getNameCount() - 1 || part.toString().matches(".*[*?{\\[].*"))
+                break;
+            base = base.resolve(part);
+            fixed_count++;
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+                "glob:" + pattern.subpath(fixed_count, pattern.getNameCount()));
+        Path walk_base = base;
+        if (!Files.isDirectory(walk_base))
+            return new ArrayList<>();
+        try (Stream<Path> files = Files.walk(walk_base)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(walk_base.relativize(file)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Names of the filters that can be passed to the batch processor
+     * @return filter names
+     */
+    public static List<String> filterNames() {
+        return Arrays.asList("greyscale", "negative", "sepia", "cartoon", "contrast", "threshold", "false-colour",
+                "box-blur", "gaussian-blur", "sobel", "prewitt", "sharpen", "pixelate", "harris", "shi-tomasi");
+    }
+
+    /**
+     * Adds a filter to a pipeline
+     * @return the new pipeline, or null if the filter cannot be streamed
+     */
+    private static FilterPipeline addToPipeline(FilterPipeline pipeline, String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "greyscale": return pipeline.greyscale();
+            case "negative": return pipeline.negative();
+            case "sepia": return pipeline.sepia();
+            case "cartoon": return pipeline.cartoon();
+            case "contrast": return pipeline.contrastEnhancement();
+            case "threshold": return pipeline.threshold();
+            case "false-colour": return pipeline.falseColour();
+            case "box-blur": return pipeline.boxBlur();
+            case "gaussian-blur": return pipeline.gaussianBlur();
+            case "sobel": return pipeline.sobel();
+            case "prewitt": return pipeline.prewitt();
+            case "sharpen": return pipeline.sharpen();
+            case "pixelate": return pipeline.pixelate();
+            default: return null;
+        }
+    }
+
+    /**
+     * Turns filter names into a single pipeline
+     * @return pipeline, or null if some filter cannot be streamed
+     */
+    private static FilterPipeline createPipeline(List<String> filter_names) {
+        FilterPipeline pipeline = new FilterPipeline();
+        for (String name : filter_names) {
+            pipeline = addToPipeline(pipeline, name);
+            if (pipeline == null)
+                return null;
+        }
+        return pipeline;
+    }
+
+    /**
+     * Turns filter names into steps, grouping neighbouring streamable filters into a single pipeline
+     */
+    private static List<UnaryOperator<BufferedImage>> createSteps(ImageProcessor image_processor, List<String> filter_names) {
+        List<UnaryOperator<BufferedImage>> steps = new ArrayList<>();
+        FilterPipeline pipeline = new FilterPipeline();
+        for (String name : filter_names) {
+            FilterPipeline extended = addToPipeline(pipeline, name);
+            if (extended != null) {
+                pipeline = extended;
+                continue;
+            }
+
+            UnaryOperator<BufferedImage> corners;
+            switch (name.trim().toLowerCase(Locale.ROOT)) {
+                case "harris":
+                    corners = image -> {
+                        BufferedImage greyscale_image = image_processor.applyGreyscaleFilter(image);
+                        BufferedImage result = image_processor.detectHarrisCorners(greyscale_image, image);
+                        image_processor.getBufferPool().release(greyscale_image);
+                        return result;
+                    };
+                    break;
+                case "shi-tomasi":
+                    corners = image -> {
+                        BufferedImage greyscale_image = image_processor.applyGreyscaleFilter(image);
+                        BufferedImage result = image_processor.detectShiTomasiCorners(greyscale_image, image);
+                        image_processor.getBufferPool().release(greyscale_image);
+                        return result;
+                    };
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown filter " + name);
+            }
+            // Corner detection needs whole images, so it ends the current pipeline
+            addPipeline(image_processor, steps, pipeline);
+            pipeline = new FilterPipeline();
+            steps.add(corners);
+        }
+        addPipeline(image_processor, steps, pipeline);
+        if (steps.isEmpty())
+            throw new IllegalArgumentException("No filters given");
+        return steps;
+    }
+
+    private static void addPipeline(ImageProcessor image_processor, List<UnaryOperator<BufferedImage>> steps,
+                                    FilterPipeline pipeline) {
+        if (pipeline.getStageCount() > 0)
+            steps.add(image -> image_processor.applyPipeline(image, pipeline));
+    }
+
+    /**
+     * Copies an image into a new image of the given type
+     */
+    private BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage converted = buffer_pool.leaseImage(image.getWidth(), image.getHeight(), type, false);
+        int width = image.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            PixelAccess.getRow(image, y, row);
+            PixelAccess.setRow(converted, y, row);
+        }
+        return converted;
+    }
+}
@@ -0,0 +1,227 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Box blur whose cost per pixel does not depend on the kernel size.
+ *
+ * Each pass keeps a running sum along the row as the kernel slides horizontally, and a running sum
+ * of those row sums for every column as the kernel slides down the image. Near the borders the sum
+ * is divided by the number of pixels actually inside the image, so edges are not darkened.
+ * Repeating the blur three times gives a cheap approximation of a gaussian blur. Each pass streams
+ * its rows into the next, so no intermediate images are needed.
+ */
+public class BoxBlur implements RowFilter {
+
+    private final int kernel_size;
+    private final int passes;
+
+    /**
+     * Creates a single pass box blur
+     * @param kernel_size width and height of the kernel, must be odd
+     */
+    public BoxBlur(int kernel_size) {
+        this(kernel_size, 1);
+    }
+
+    /**
+     * Creates a box blur
+     * @param kernel_size width and height of the kernel, must be odd
+     * @param passes number of times to apply the blur, 3 approximates a gaussian blur
+     */
+    public BoxBlur(int kernel_size, int passes) {
+        if (kernel_size < 1 || kernel_size % 2 == 0)
+            throw new IllegalArgumentException("Kernel size must be a positive odd number");
+        if (passes < 1)
+            throw new IllegalArgumentException("Number of passes must be at least 1");
+        this.kernel_size = kernel_size;
+        this.passes = passes;
+    }
+
+    public int getKernelSize() {
+        return kernel_size;
+    }
+
+    public int getPasses() {
+        return passes;
+    }
+
+    /**
+     * Creates the blur that looks the same on a copy of the image scaled by the given factor, with the
+     * kernel scaled to the nearest odd size
+     * @param scale size of the scaled image relative to this one
+     * @return scaled blur, or this blur if the scale is 1
+     */
+    public BoxBlur scaled(double scale) {
+        if (scale == 1.0)
+            return this;
+        return new BoxBlur(Math.max(1, 2 * (int) Math.round((kernel_size * scale - 1) / 2) + 1), passes);
+    }
+
+    /**
+     * Number of input rows needed above and below each output row, over all the passes
+     * @return radius in rows
+     */
+    @Override
+    public int getRadius() {
+        return (kernel_size - 1) / 2 * passes;
+    }
+
+    /**
+     * Blurs the source image into the destination image
+     * @param source image to blur
+     * @param destination image to write to, must be the same size as the source
+     */
+    public void filter(BufferedImage source, BufferedImage destination) {
+        filter(source, destination, BandExecutor.SEQUENTIAL);
+    }
+
+    @Override
+    public RowSource open(RowSource input, int width, int height, int start_row) {
+        int radius = (kernel_size - 1) / 2;
+        RowSource rows = input;
+        // Each pass starts early enough to supply the halo needed by the passes after it
+        for (int pass = 1; pass <= passes; pass++)
+            rows = new BlurredRows(rows, width, height, Math.max(0, start_row - (passes - pass) * radius));
+        return rows;
+    }
+
+    /**
+     * Rows of a single box blur pass
+     */
+    private class BlurredRows implements RowSource {
+        private final RowSource input;
+        private final int width;
+        private final int height;
+        private final int radius = (kernel_size - 1) / 2;
+        private final int start_row;
+
+        private final int[] row;
+        // Row sums for the rows currently under the kernel, indexed by row % kernel_size
+        private final int[][] red_rows;
+        private final int[][] green_rows;
+        private final int[][] blue_rows;
+        // Sum of the row sums under the kernel for each column
+        private final long[] red_columns;
+        private final long[] green_columns;
+        private final long[] blue_columns;
+        // Number of pixels in the kernel that lie inside the image for each column
+        private final int[] column_counts;
+
+        BlurredRows(RowSource input, int width, int height, int start_row) {
+            this.input = input;
+            this.width = width;
+            this.height = height;
+            this.start_row = start_row;
+            this.row = new int[width];
+            this.red_rows = new int[kernel_size][width];
+            this.green_rows = new int[kernel_size][width];
+            this.blue_rows = new int[kernel_size][width];
+            this.red_columns = new long[width];
+            this.green_columns = new long[width];
+            this.blue_columns = new long[width];
+            this.column_counts = new int[width];
+            for (int x = 0; x < width; x++)
+                column_counts[x] = Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1;
+        }
+
+        @Override
+        public void getRow(int y, int[] output) {
+            int slot;
+            int row_count;
+            int count;
+
+            if (y == start_row) {
+                // Fill the kernel with the rows around the first row
+                for (int row_y = Math.max(0, y - radius); row_y <= y + radius && row_y < height; row_y++)
+                    addRow(row_y);
+            } else {
+                // Remove the row leaving the top of the kernel before its slot is reused by the entering row
+                if (y - radius - 1 >= 0) {
+                    slot = (y - radius - 1) % kernel_size;
+                    for (int x = 0; x < width; x++) {
+                        red_columns[x] -= red_rows[slot][x];
+                        green_columns[x] -= green_rows[slot][x];
+                        blue_columns[x] -= blue_rows[slot][x];
+                    }
+                }
+                if (y + radius < height)
+                    addRow(y + radius);
+            }
+
+            row_count = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+            for (int x = 0; x < width; x++) {
+                count = row_count * column_counts[x];
+                output[x] = 0xFF000000
+                        | ((int) (red_columns[x] / count) << 16)
+                        | ((int) (green_columns[x] / count) << 8)
+                        | (int) (blue_columns[x] / count);
+            }
+        }
+
+        /**
+         * Reads the next input row, calculates its horizontal running sums and adds them to the column sums
+         */
+        private void addRow(int y) {
+            int slot = y % kernel_size;
+            int[] red_row = red_rows[slot];
+            int[] green_row = green_rows[slot];
+            int[] blue_row = blue_rows[slot];
+            int sum_red = 0;
+            int sum_green = 0;
+            int sum_blue = 0;
+            int pixel;
+
+            input.getRow(y, row);
+
+            // Sum of the pixels under the kernel when it is centred on the first pixel
+            for (int x = 0; x <= radius && x < width; x++) {
+                pixel = row[x];
+                sum_red += (pixel >> 16) & 0xFF;
+                sum_green += (pixel >> 8) & 0xFF;
+                sum_blue += pixel & 0xFF;
+            }
+
+            for (int x = 0; x < width; x++) {
+                red_row[x] = sum_red;
+                green_row[x] = sum_green;
+                blue_row[x] = sum_blue;
+                red_columns[x] += sum_red;
+                green_columns[x] += sum_green;
+                blue_columns[x] += sum_blue;
+
+                // Slide the kernel one pixel to the right
+                if (x + radius + 1 < width) {
+                    pixel = row[x + radius + 1];
+                    sum_red += (pixel >> 16) & 0xFF;
+                    sum_green += (pixel >> 8) & 0xFF;
+                    sum_blue += pixel & 0xFF;
+                }
+                if (x - radius >= 0) {
+                    pixel = row[x - radius];
+                    sum_red -= (pixel >> 16) & 0xFF;
+                    sum_green -= (pixel >> 8) & 0xFF;
+                    sum_blue -= pixel & 0xFF;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof BoxBlur))
+            return false;
+        BoxBlur other = (BoxBlur) o;
+        return kernel_size == other.kernel_size && passes == other.passes;
+    }
+
+    @Override
+    public int hashCode() {
+        return kernel_size * 31 + passes;
+    }
+
+    @Override
+    public String toString() {
+        return "BoxBlur(" + kernel_size + "x" + kernel_size + ", " + passes + " passes)";
+    }
+}
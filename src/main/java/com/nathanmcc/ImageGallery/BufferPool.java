@@ -0,0 +1,311 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of pixel buffers, arrays and images, kept for reuse within a budget of bytes.
+ *
+ * Buffers are leased by size (the length of an array, or the width, height and type of an image) and
+ * released once they are no longer needed, so the next call for the same size gets the same buffer back
+ * instead of allocating a new one. Frames of several megabytes are allocated straight into the old
+ * generation, where every one that is dropped adds to the next full collection, so recycling them keeps
+ * batch runs from collecting over and over.
+ *
+ * Leased buffers hold whatever was last written to them, unless leased cleared. Buffers that are never
+ * released are simply left to the garbage collector, so leasing is always safe, but a buffer must not be
+ * used after it has been released. Once the pool is over budget the buffers released longest ago are
+ * dropped first.
+ */
+public class BufferPool {
+
+    private static final BufferPool SHARED = new BufferPool(getDefaultByteBudget());
+
+    // A new image of each type, to check released images against
+    private static final ConcurrentHashMap<Integer, BufferedImage> STANDARD_IMAGES = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        final List<Object> key;
+        final Object buffer;
+        final long size;
+
+        Entry(List<Object> key, Object buffer, long size) {
+            this.key = key;
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+
+    private final long byte_budget;
+    // Idle buffers of each size, most recently released first
+    private final HashMap<List<Object>, ArrayDeque<Entry>> idle = new HashMap<>();
+    // Every idle buffer, least recently released first
+    private final LinkedHashSet<Entry> release_order = new LinkedHashSet<>();
+    // Every idle buffer, to catch buffers released twice
+    private final Set<Object> pooled = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long size;
+
+    private long lease_count;
+    private long hit_count;
+    private long release_count;
+    private long eviction_count;
+
+    /**
+     * @param byte_budget most bytes of idle buffers to keep
+     */
+    public BufferPool(long byte_budget) {
+        if (byte_budget < 0)
+            throw new IllegalArgumentException("Byte budget must not be negative");
+        this.byte_budget = byte_budget;
+    }
+
+    /**
+     * Returns the pool shared by every ImageProcessor that has not been given its own
+     * @return shared pool
+     */
+    public static BufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Budget of the shared pool, set in megabytes by the imagegallery.pool.size property, by default an
+     * eighth of the heap
+     * @return budget in bytes
+     */
+    public static long getDefaultByteBudget() {
+        Long megabytes = Long.getLong("imagegallery.pool.size");
+        return megabytes != null ? megabytes * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * Leases an int array
+     * @param length length of the array
+     * @return array of that length, holding whatever was last written to it
+     */
+    public int[] leaseInts(int length) {
+        Object buffer = take(Arrays.asList(int[].class, length));
+        return buffer != null ? (int[]) buffer : new int[length];
+    }
+
+    /**
+     * Leases a byte array
+     * @param length length of the array
+     * @return array of that length, holding whatever was last written to it
+     */
+    public byte[] leaseBytes(int length) {
+        Object buffer = take(Arrays.asList(byte[].class, length));
+        return buffer != null ? (byte[]) buffer : new byte[length];
+    }
+
+    /**
+     * Leases a float array
+     * @param length length of the array
+     * @return array of that length, holding whatever was last written to it
+     */
+    public float[] leaseFloats(int length) {
+        Object buffer = take(Arrays.asList(float[].class, length));
+        return buffer != null ? (float[]) buffer : new float[length];
+    }
+
+    /**
+     * Leases an image
+     * @param width image width
+     * @param height image height
+     * @param type BufferedImage type, other than TYPE_CUSTOM
+     * @param clear true to set every pixel to zero, for callers that only write some of them
+     * @return image of that size and type
+     */
+    public BufferedImage leaseImage(int width, int height, int type, boolean clear) {
+        BufferedImage image = (BufferedImage) take(Arrays.asList(BufferedImage.class, width, height, type));
+        if (image == null)
+            return new BufferedImage(width, height, type);
+        if (clear)
+            clear(image.getRaster().getDataBuffer());
+        return image;
+    }
+
+    private synchronized Object take(List<Object> key) {
+        lease_count++;
+        ArrayDeque<Entry> entries = idle.get(key);
+        if (entries == null)
+            return null;
+        Entry entry = entries.pollFirst();
+        if (entries.isEmpty())
+            idle.remove(key);
+        remove(entry);
+        hit_count++;
+        return entry.buffer;
+    }
+
+    public void release(int[] buffer) {
+        put(Arrays.asList(int[].class, buffer.length), buffer);
+    }
+
+    public void release(byte[] buffer) {
+        put(Arrays.asList(byte[].class, buffer.length), buffer);
+    }
+
+    public void release(float[] buffer) {
+        put(Arrays.asList(float[].class, buffer.length), buffer);
+    }
+
+    /**
+     * Returns an image to the pool. Sub-images, which share their parent's pixels, images of types the
+     * pool cannot lease and images laid out differently from a new image of their type, such as decoded
+     * images with the file's own palette or bit depth, are left to the garbage collector.
+     * @param image image that is no longer used
+     */
+    public void release(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_CUSTOM || raster.getParent() != null
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || !isStandard(image))
+            return;
+        put(Arrays.asList(BufferedImage.class, image.getWidth(), image.getHeight(), image.getType()), image);
+    }
+
+    /**
+     * Whether an image has the colour model and pixel layout of a new image of its type, which a lease of
+     * its size and type expects
+     */
+    private static boolean isStandard(BufferedImage image) {
+        BufferedImage standard = STANDARD_IMAGES.computeIfAbsent(image.getType(), type -> new BufferedImage(1, 1, type));
+        SampleModel sample_model = standard.getSampleModel()
+                .createCompatibleSampleModel(image.getWidth(), image.getHeight());
+        return image.getColorModel().equals(standard.getColorModel())
+                && image.getColorModel().getColorSpace() == standard.getColorModel().getColorSpace()
+                && image.getSampleModel().equals(sample_model)
+                && image.getRaster().getDataBuffer().getOffset() == 0;
+    }
+
+    private synchronized void put(List<Object> key, Object buffer) {
+        if (!pooled.add(buffer))
+            throw new IllegalStateException("Buffer released twice");
+        release_count++;
+        Entry entry = new Entry(key, buffer, ResultCache.sizeOf(buffer));
+        if (entry.size > byte_budget) {
+            pooled.remove(buffer);
+            eviction_count++;
+            return;
+        }
+        idle.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(entry);
+        release_order.add(entry);
+        size += entry.size;
+
+        while (size > byte_budget) {
+            // The least recently released buffer is also the last of its size
+            Iterator<Entry> oldest = release_order.iterator();
+            Entry evicted = oldest.next();
+            ArrayDeque<Entry> entries = idle.get(evicted.key);
+            entries.pollLast();
+            if (entries.isEmpty())
+                idle.remove(evicted.key);
+            remove(evicted);
+            eviction_count++;
+        }
+    }
+
+    private void remove(Entry entry) {
+        release_order.remove(entry);
+        pooled.remove(entry.buffer);
+        size -= entry.size;
+    }
+
+    /**
+     * Sets every element of an image's pixels to zero
+     */
+    private static void clear(DataBuffer buffer) {
+        for (int bank = 0; bank < buffer.getNumBanks(); bank++) {
+            if (buffer instanceof DataBufferInt)
+                Arrays.fill(((DataBufferInt) buffer).getData(bank), 0);
+            else if (buffer instanceof DataBufferByte)
+                Arrays.fill(((DataBufferByte) buffer).getData(bank), (byte) 0);
+            else if (buffer instanceof DataBufferUShort)
+                Arrays.fill(((DataBufferUShort) buffer).getData(bank), (short) 0);
+            else
+                for (int i = 0; i < buffer.getSize(); i++)
+                    buffer.setElem(bank, i, 0);
+        }
+    }
+
+    /** Drops every idle buffer */
+    public synchronized void clear() {
+        idle.clear();
+        release_order.clear();
+        pooled.clear();
+        size = 0;
+    }
+
+    public long getByteBudget() {
+        return byte_budget;
+    }
+
+    /**
+     * Bytes of idle buffers held by the pool
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Number of idle buffers held by the pool
+     * @return buffer count
+     */
+    public synchronized int getBufferCount() {
+        return release_order.size();
+    }
+
+    public synchronized long getLeaseCount() {
+        return lease_count;
+    }
+
+    /**
+     * Number of leases given a buffer from the pool rather than a new one
+     * @return number of hits
+     */
+    public synchronized long getHitCount() {
+        return hit_count;
+    }
+
+    public synchronized long getReleaseCount() {
+        return release_count;
+    }
+
+    /**
+     * Number of idle buffers dropped to keep within the budget
+     * @return number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return eviction_count;
+    }
+
+    /**
+     * Fraction of leases given a buffer from the pool
+     * @return hit rate between 0 and 1
+     */
+    public synchronized double getHitRate() {
+        return lease_count == 0 ? 0 : (double) hit_count / lease_count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%d buffers, %.1f of %.1f MB, %d leases, %.0f%% hits, %d releases, %d evictions",
+                release_order.size(), size / 1e6, byte_budget / 1e6, lease_count, 100 * getHitRate(),
+                release_count, eviction_count);
+    }
+}
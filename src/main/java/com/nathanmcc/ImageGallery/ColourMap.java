@@ -0,0 +1,145 @@
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Maps an 8 bit intensity to a colour through a 256 entry table of packed RGB values.
+ *
+ * The intensity is either the luminance of the pixel, using the same weights as the greyscale filter,
+ * or the red channel for images that are already greyscale. Luminance is summed from per-channel tables
+ * of the weighted values, which gives exactly the same result as calculating it directly.
+ */
+public class ColourMap implements PointOperation {
+
+    // Weighted channel values, indexed by the channel value
+    private static final double[] RED_WEIGHTS = new double[256];
+    private static final double[] GREEN_WEIGHTS = new double[256];
+    private static final double[] BLUE_WEIGHTS = new double[256];
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            RED_WEIGHTS[value] = 0.3 * value;
+            GREEN_WEIGHTS[value] = 0.6 * value;
+            BLUE_WEIGHTS[value] = 0.1 * value;
+        }
+    }
+
+    /** Converts each pixel to the grey level of its luminance */
+    public static final ColourMap GREYSCALE = of(intensity -> (intensity << 16) | (intensity << 8) | intensity, true);
+
+    /** Turns pixels white if their luminance is at least 127 and black otherwise */
+    public static final ColourMap THRESHOLD = threshold(127);
+
+    /** Maps the intensity of a greyscale image to a false colour palette */
+    public static final ColourMap FALSE_COLOUR = of(ColourMap::getFalseColourMapValue, false);
+
+    private final int[] colours;
+    // true to index the table by luminance, false to index it by the red channel
+    private final boolean luminance;
+
+    /**
+     * @param colours packed RGB value for each intensity, 256 entries
+     * @param luminance true to use the luminance of each pixel as the intensity, false to use the red channel
+     */
+    public ColourMap(int[] colours, boolean luminance) {
+        if (colours.length != 256)
+            throw new IllegalArgumentException("Colour maps must have 256 entries");
+        this.colours = new int[256];
+        for (int intensity = 0; intensity < 256; intensity++)
+            this.colours[intensity] = 0xFF000000 | colours[intensity];
+        this.luminance = luminance;
+    }
+
+    /**
+     * Compiles a function of the intensity into a colour map
+     * @param function maps an intensity in [0, 255] to a packed RGB value
+     * @param luminance true to use the luminance of each pixel as the intensity, false to use the red channel
+     * @return colour map
+     */
+    public static ColourMap of(IntUnaryOperator function, boolean luminance) {
+        int[] colours = new int[256];
+        for (int intensity = 0; intensity < 256; intensity++)
+            colours[intensity] = function.applyAsInt(intensity);
+        return new ColourMap(colours, luminance);
+    }
+
+    /**
+     * Creates a colour map that turns pixels white if their luminance is at least the given level and black otherwise
+     * @param level lowest luminance that becomes white
+     * @return colour map
+     */
+    public static ColourMap threshold(int level) {
+        return of(intensity -> intensity >= level ? 0xFFFFFF : 0x000000, true);
+    }
+
+    /**
+     * Creates a colour map that applies this map followed by a lookup table
+     * @param next table to apply to the colours of this map
+     * @return combined colour map
+     */
+    public ColourMap andThen(LookupTable next) {
+        int[] mapped = new int[256];
+        for (int intensity = 0; intensity < 256; intensity++)
+            mapped[intensity] = next.apply(colours[intensity]);
+        return new ColourMap(mapped, luminance);
+    }
+
+    /**
+     * Calculates the luminance of a packed RGB value, the same value the greyscale filter uses
+     * @param pixel packed ARGB value
+     * @return luminance in [0, 255]
+     */
+    public static int luminance(int pixel) {
+        return (int) (RED_WEIGHTS[(pixel >> 16) & 0xFF] + GREEN_WEIGHTS[(pixel >> 8) & 0xFF] + BLUE_WEIGHTS[pixel & 0xFF]);
+    }
+
+    @Override
+    public void applyToRow(int[] row, int width) {
+        int pixel;
+        if (luminance) {
+            for (int x = 0; x < width; x++) {
+                pixel = row[x];
+                row[x] = colours[(int) (RED_WEIGHTS[(pixel >> 16) & 0xFF]
+                        + GREEN_WEIGHTS[(pixel >> 8) & 0xFF]
+                        + BLUE_WEIGHTS[pixel & 0xFF])];
+            }
+        } else {
+            for (int x = 0; x < width; x++)
+                row[x] = colours[(row[x] >> 16) & 0xFF];
+        }
+    }
+
+    /**
+     * Map greyscale intensity value to false color RGB values
+     * @param intensity greyscale intensity value
+     * @return False colour mapping as a packed RGB value
+     */
+    private static int getFalseColourMapValue(int intensity) {
+        double adjusted_intensity = intensity / 255.0; // Adjust intensity to range [0, 1]
+        if (adjusted_intensity >= 0.0 && adjusted_intensity < 0.25){
+            return 0x000080;
+        } else if (adjusted_intensity >= 0.25 && adjusted_intensity < 0.5) {
+            return 0x00FF00;
+        } else if (adjusted_intensity >= 0.5 && adjusted_intensity < 0.75) {
+            return 0xFFFF00;
+        } else if (adjusted_intensity >= 0.75 && adjusted_intensity < 1.0) {
+            return 0xFF8000;
+        } else {
+            return 0xFF0000;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ColourMap))
+            return false;
+        ColourMap other = (ColourMap) o;
+        return luminance == other.luminance && Arrays.equals(colours, other.colours);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(colours) * 2 + (luminance ? 1 : 0);
+    }
+}
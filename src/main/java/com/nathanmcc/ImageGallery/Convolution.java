@@ -0,0 +1,523 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Convolves images with a square kernel of integer or float weights, the engine behind sharpening, the
+ * gaussian blurs and the gradient operators.
+ *
+ * Each row of sums is split into the interior, where the whole kernel lies inside the row and RowKernels
+ * runs without any bounds checks, and the few pixels at each end, whose neighbours past the edge come from
+ * a table worked out once for the row width. The interior of 3x3 and 5x5 kernels goes through unrolled
+ * loops, larger ones a kernel row at a time, and separable kernels run as a vertical and a horizontal 1D
+ * pass. All of them are vectorised where the JVM allows it.
+ *
+ * Float kernels are turned into integer weights with 12 fractional bits, 10 for each direction of a
+ * separable kernel, so the arithmetic is exact and the same on every JVM. Each sum is divided by the
+ * divisor, rounded or truncated, and clamped to [0, 255].
+ */
+public class Convolution implements RowFilter {
+
+    /** How pixels past the edge of the image are filled in */
+    public enum Border {
+        /** Pixels past the edge are black */
+        ZERO,
+        /** The nearest edge pixel is repeated */
+        CLAMP,
+        /** The image is reflected about the edge pixels, without repeating them */
+        MIRROR,
+        /** The image repeats, continuing from the opposite edge */
+        WRAP;
+
+        /**
+         * Finds the pixel that stands in for a position along a row or column
+         * @param i position, possibly outside the image
+         * @param length width or height of the image
+         * @return index of the pixel to use, or -1 if it counts as zero
+         */
+        int map(int i, int length) {
+            if (i >= 0 && i < length)
+                return i;
+            switch (this) {
+                case CLAMP:
+                    return i < 0 ? 0 : length - 1;
+                case MIRROR:
+                    if (length == 1)
+                        return 0;
+                    int period = 2 * (length - 1);
+                    i = Math.floorMod(i, period);
+                    return i < length ? i : period - i;
+                case WRAP:
+                    return Math.floorMod(i, length);
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * Supplies the rows of one or more planes of an image, such as its colour channels or its luminance,
+     * with one int per pixel
+     */
+    public interface PlaneSource {
+        /**
+         * @param y row to read
+         * @param planes array to write the row of each plane to
+         */
+        void getRow(int y, int[][] planes);
+    }
+
+    /** The 3x3 sharpening kernel */
+    public static final Convolution SHARPEN = new Convolution(new int[][] {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}});
+
+    /** Fractional bits of the weights of float kernels */
+    private static final int FLOAT_BITS = 12;
+    /** Fractional bits of each direction of separable float kernels, kept smaller so the sums fit in an int */
+    private static final int SEPARABLE_FLOAT_BITS = 10;
+
+    private final int size;
+    private final int radius;
+    // The kernel indexed [y][x], one row at a time as RowKernels takes it, or null if separable
+    private final int[][] kernel_rows;
+    // The kernel row by row from the top left, or null if separable
+    private final int[] weights;
+    // Horizontal and vertical weights of separable kernels, or null
+    private final int[] kernel_x;
+    private final int[] kernel_y;
+    private final int divisor;
+    // true to round sums to the nearest value, false to truncate them
+    private final boolean round;
+    private final Border border;
+
+    /**
+     * Creates a convolution with no divisor, that treats pixels past the edge as black
+     * @param kernel square kernel indexed [x][y], with an odd width
+     */
+    public Convolution(int[][] kernel) {
+        this(kernel, 1, false, Border.ZERO);
+    }
+
+    /**
+     * @param kernel square kernel indexed [x][y], with an odd width
+     * @param divisor number each sum is divided by
+     * @param round true to round each sum to the nearest value, false to truncate it
+     * @param border how pixels past the edge are filled in
+     */
+    public Convolution(int[][] kernel, int divisor, boolean round, Border border) {
+        this(rowByRow(kernel), null, null, divisor, round, border);
+    }
+
+    private Convolution(int[][] kernel_rows, int[] kernel_x, int[] kernel_y, int divisor, boolean round, Border border) {
+        if (divisor < 1)
+            throw new IllegalArgumentException("Divisor must be at least 1");
+        long largest_sum;
+        if (kernel_rows != null) {
+            this.size = kernel_rows.length;
+            this.weights = new int[size * size];
+            largest_sum = 0;
+            for (int j = 0; j < size; j++) {
+                for (int i = 0; i < size; i++) {
+                    weights[size * j + i] = kernel_rows[j][i];
+                    largest_sum += Math.abs(kernel_rows[j][i]);
+                }
+            }
+        } else {
+            if (kernel_x.length != kernel_y.length || kernel_x.length % 2 == 0)
+                throw new IllegalArgumentException("Separable kernels must have the same odd length in both directions");
+            this.size = kernel_x.length;
+            this.weights = null;
+            largest_sum = absoluteSum(kernel_x) * absoluteSum(kernel_y);
+        }
+        // Both passes of a separable kernel keep their sums in ints
+        if (255 * largest_sum > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Kernel weights are too large for the sums to fit in an int");
+
+        this.radius = (size - 1) / 2;
+        this.kernel_rows = kernel_rows;
+        this.kernel_x = kernel_x;
+        this.kernel_y = kernel_y;
+        this.divisor = divisor;
+        this.round = round;
+        this.border = border;
+    }
+
+    /**
+     * Creates a convolution with float weights, which are rounded to multiples of 1/4096
+     * @param kernel square kernel indexed [x][y], with an odd width
+     * @param border how pixels past the edge are filled in
+     * @return convolution, rounding each result to the nearest value
+     */
+    public static Convolution fromFloats(float[][] kernel, Border border) {
+        int[][] fixed = new int[kernel.length][];
+        for (int i = 0; i < kernel.length; i++)
+            fixed[i] = toFixedPoint(kernel[i], FLOAT_BITS);
+        return new Convolution(fixed, 1 << FLOAT_BITS, true, border);
+    }
+
+    /**
+     * Creates a convolution with the kernel kernel_x[i] * kernel_y[j], run as two 1D passes
+     * @param kernel_x horizontal weights, with an odd length
+     * @param kernel_y vertical weights, the same length as kernel_x
+     * @param divisor number each sum is divided by
+     * @param round true to round each sum to the nearest value, false to truncate it
+     * @param border how pixels past the edge are filled in
+     * @return convolution
+     */
+    public static Convolution separable(int[] kernel_x, int[] kernel_y, int divisor, boolean round, Border border) {
+        return new Convolution(null, kernel_x.clone(), kernel_y.clone(), divisor, round, border);
+    }
+
+    /**
+     * Creates a convolution with the kernel kernel_x[i] * kernel_y[j], run as two 1D passes. The weights
+     * are rounded to multiples of 1/1024
+     * @param kernel_x horizontal weights, with an odd length
+     * @param kernel_y vertical weights, the same length as kernel_x
+     * @param border how pixels past the edge are filled in
+     * @return convolution, rounding each result to the nearest value
+     */
+    public static Convolution separable(float[] kernel_x, float[] kernel_y, Border border) {
+        return new Convolution(null, toFixedPoint(kernel_x, SEPARABLE_FLOAT_BITS),
+                toFixedPoint(kernel_y, SEPARABLE_FLOAT_BITS), 1 << (2 * SEPARABLE_FLOAT_BITS), true, border);
+    }
+
+    /**
+     * Turns a kernel indexed [x][y] into one indexed [y][x]
+     */
+    private static int[][] rowByRow(int[][] kernel) {
+        if (kernel.length % 2 == 0)
+            throw new IllegalArgumentException("Kernel size must be odd");
+        for (int[] column : kernel)
+            if (column.length != kernel.length)
+                throw new IllegalArgumentException("Kernel must be square");
+        int[][] kernel_rows = new int[kernel.length][kernel.length];
+        for (int j = 0; j < kernel.length; j++)
+            for (int i = 0; i < kernel.length; i++)
+                kernel_rows[j][i] = kernel[i][j];
+        return kernel_rows;
+    }
+
+    private static int[] toFixedPoint(float[] weights, int bits) {
+        int[] fixed = new int[weights.length];
+        for (int i = 0; i < weights.length; i++)
+            fixed[i] = Math.round(weights[i] * (1 << bits));
+        return fixed;
+    }
+
+    private static long absoluteSum(int[] weights) {
+        long sum = 0;
+        for (int weight : weights)
+            sum += Math.abs(weight);
+        return sum;
+    }
+
+    @Override
+    public int getRadius() {
+        return radius;
+    }
+
+    public Border getBorder() {
+        return border;
+    }
+
+    /**
+     * Opens a stream of convolved rows. Wrapped borders need rows from the other end of the image, which a
+     * stream of rows cannot supply, so they can only be used through filter, and FilterPipeline does not
+     * accept them.
+     */
+    @Override
+    public RowSource open(RowSource input, int width, int height, int start_row) {
+        return new ConvolvedRows(input, null, width, height, start_row);
+    }
+
+    @Override
+    public void filter(BufferedImage source, BufferedImage destination, BandExecutor bands) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        bands.run(height, (start_row, end_row) -> {
+            RowSource rows = new ConvolvedRows(RowSource.of(source), RowSource.of(source), width, height, start_row);
+            int[] row = new int[width];
+            for (int y = start_row; y < end_row; y++) {
+                rows.getRow(y, row);
+                PixelAccess.setRow(destination, y, row);
+                Progress.rowCompleted();
+            }
+        });
+    }
+
+    /**
+     * Creates a window over planes of an image with this convolution's radius and border
+     * @param source rows of the planes, read in order from max(0, start_row - radius)
+     * @param wrapped_source rows of the planes in any order, needed for wrapped borders, otherwise null
+     * @param planes number of planes
+     * @param width image width
+     * @param height image height
+     * @param start_row first row that will be convolved
+     * @return window
+     */
+    public Window window(PlaneSource source, PlaneSource wrapped_source, int planes, int width, int height,
+                         int start_row) {
+        return new Window(source, wrapped_source, planes, width, height, radius, border, start_row);
+    }
+
+    /**
+     * Convolves a row of one plane, without dividing or clamping the sums
+     * @param window window over the planes, with the same radius and border as this convolution
+     * @param plane plane to convolve
+     * @param y row to convolve
+     * @param sums array to write the sums to, as long as the image width
+     */
+    public void convolve(Window window, int plane, int y, int[] sums) {
+        if (window.radius != radius || window.border != border)
+            throw new IllegalArgumentException("Window does not match the kernel");
+        window.advance(y);
+        int[][] rows = window.around(plane, y);
+        int width = window.width;
+        int interior_start = window.interior_start;
+        int interior_end = window.interior_end;
+        RowKernels kernels = window.kernels;
+
+        if (kernel_rows == null) {
+            // Vertical pass over the whole row, then the horizontal pass over its sums
+            int[] column_sums = window.column_sums;
+            Arrays.fill(column_sums, 0);
+            for (int j = 0; j < size; j++) {
+                if (rows[j] != window.zero_row)
+                    kernels.multiplyAdd(rows[j], 0, kernel_y[j], column_sums, 0, width);
+            }
+            Arrays.fill(sums, interior_start, interior_end, 0);
+            kernels.addCorrelation(column_sums, -radius, kernel_x, sums, interior_start, interior_end);
+            for (int k = 0; k < window.edge_x.length; k++) {
+                int[] columns = window.edge_columns[k];
+                int sum = 0;
+                for (int i = 0; i < size; i++) {
+                    if (columns[i] >= 0)
+                        sum += kernel_x[i] * column_sums[columns[i]];
+                }
+                sums[window.edge_x[k]] = sum;
+            }
+            return;
+        }
+
+        if (size == 3) {
+            kernels.correlate3x3(rows[0], rows[1], rows[2], weights, sums, interior_start, interior_end);
+        } else if (size == 5) {
+            kernels.correlate5x5(rows, weights, sums, interior_start, interior_end);
+        } else {
+            Arrays.fill(sums, interior_start, interior_end, 0);
+            for (int j = 0; j < size; j++) {
+                if (rows[j] != window.zero_row)
+                    kernels.addCorrelation(rows[j], -radius, kernel_rows[j], sums, interior_start, interior_end);
+            }
+        }
+        for (int k = 0; k < window.edge_x.length; k++) {
+            int[] columns = window.edge_columns[k];
+            int sum = 0;
+            for (int j = 0; j < size; j++) {
+                int[] source_row = rows[j];
+                int[] kernel_row = kernel_rows[j];
+                for (int i = 0; i < size; i++) {
+                    if (columns[i] >= 0)
+                        sum += kernel_row[i] * source_row[columns[i]];
+                }
+            }
+            sums[window.edge_x[k]] = sum;
+        }
+    }
+
+    /**
+     * Divides a sum by the divisor and clamps it to the range 0 - 255
+     * @param sum sum from convolve
+     * @return value in [0, 255]
+     */
+    public int normalise(int sum) {
+        if (divisor != 1)
+            sum = Math.floorDiv(round ? sum + divisor / 2 : sum, divisor);
+        return sum < 0 ? 0 : Math.min(sum, 255);
+    }
+
+    /**
+     * The rows of one or more planes around the row being convolved, read once each as the window moves
+     * down the image, with the rows past the top and bottom filled in according to the border
+     */
+    public static class Window {
+        private final PlaneSource source;
+        private final PlaneSource wrapped_source;
+        private final int width;
+        private final int height;
+        private final int radius;
+        private final Border border;
+        private final int window;
+        private final RowKernels kernels;
+
+        // The most recent rows of each plane, indexed [plane][row % window]
+        private final int[][][] rows;
+        // Rows from the other end of the image for wrapped borders, indexed [plane][slot], loaded when needed
+        private final int[][][] wrapped_rows;
+        private final boolean[] wrapped_loaded;
+        // Rows of each plane for the source to write to, and the rows under the kernel
+        private final int[][] planes;
+        private final int[][] around;
+        private final int[] zero_row;
+        // Vertical sums of separable kernels
+        private final int[] column_sums;
+        // Kernel lies completely inside the row between these pixels
+        private final int interior_start;
+        private final int interior_end;
+        // Pixels outside the interior, and the pixel under each kernel column for each of them, -1 for zero
+        private final int[] edge_x;
+        private final int[][] edge_columns;
+        private int next_row;
+
+        /**
+         * @param source rows of the planes, read in order from max(0, start_row - radius)
+         * @param wrapped_source rows of the planes in any order, needed for wrapped borders, otherwise null
+         * @param planes number of planes
+         * @param width image width
+         * @param height image height
+         * @param radius rows and columns needed either side of each pixel
+         * @param border how pixels past the edge are filled in
+         * @param start_row first row that will be convolved
+         */
+        public Window(PlaneSource source, PlaneSource wrapped_source, int planes, int width, int height, int radius,
+                      Border border, int start_row) {
+            this(source, wrapped_source, planes, width, height, radius, border, start_row, RowKernels.getInstance());
+        }
+
+        /**
+         * Creates a window that runs its kernels with the given inner loops, to compare implementations
+         */
+        Window(PlaneSource source, PlaneSource wrapped_source, int planes, int width, int height, int radius,
+               Border border, int start_row, RowKernels kernels) {
+            if (border == Border.WRAP && wrapped_source == null)
+                throw new IllegalArgumentException("Wrapped borders need a source that can read any row");
+            this.source = source;
+            this.wrapped_source = wrapped_source;
+            this.width = width;
+            this.height = height;
+            this.radius = radius;
+            this.border = border;
+            this.kernels = kernels;
+            this.window = 2 * radius + 1;
+            this.rows = new int[planes][window][width];
+            this.wrapped_rows = border == Border.WRAP ? new int[planes][2 * radius][width] : null;
+            this.wrapped_loaded = new boolean[2 * radius];
+            this.planes = new int[planes][];
+            this.around = new int[window][];
+            this.zero_row = new int[width];
+            this.column_sums = new int[width];
+            this.interior_start = Math.min(radius, width);
+            this.interior_end = Math.max(interior_start, width - radius);
+            this.next_row = Math.max(0, start_row - radius);
+
+            int edges = interior_start + width - interior_end;
+            this.edge_x = new int[edges];
+            this.edge_columns = new int[edges][window];
+            for (int k = 0; k < edges; k++) {
+                edge_x[k] = k < interior_start ? k : interior_end + k - interior_start;
+                for (int i = 0; i < window; i++)
+                    edge_columns[k][i] = border.map(edge_x[k] - radius + i, width);
+            }
+        }
+
+        /**
+         * Reads any rows needed for the kernel centred on row y
+         * @param y current row
+         */
+        void advance(int y) {
+            while (next_row < height && next_row <= y + radius) {
+                for (int p = 0; p < rows.length; p++)
+                    planes[p] = rows[p][next_row % window];
+                source.getRow(next_row, planes);
+                next_row++;
+            }
+            if (wrapped_rows == null)
+                return;
+            for (int j = 0; j < window; j++) {
+                int source_y = y - radius + j;
+                if (source_y >= 0 && source_y < height)
+                    continue;
+                int slot = wrappedSlot(source_y);
+                if (!wrapped_loaded[slot]) {
+                    for (int p = 0; p < rows.length; p++)
+                        planes[p] = wrapped_rows[p][slot];
+                    wrapped_source.getRow(border.map(source_y, height), planes);
+                    wrapped_loaded[slot] = true;
+                }
+            }
+        }
+
+        /**
+         * Slot of a row past the top or bottom, the radius rows above the image first
+         */
+        private int wrappedSlot(int source_y) {
+            return source_y < 0 ? source_y + radius : radius + source_y - height;
+        }
+
+        /**
+         * Returns the rows under the kernel centred on row y, which must have been read
+         */
+        int[][] around(int plane, int y) {
+            for (int j = 0; j < window; j++) {
+                int source_y = y - radius + j;
+                if (source_y >= 0 && source_y < height) {
+                    around[j] = rows[plane][source_y % window];
+                } else if (border == Border.WRAP) {
+                    around[j] = wrapped_rows[plane][wrappedSlot(source_y)];
+                } else {
+                    int mapped = border.map(source_y, height);
+                    // Clamped and mirrored rows are never further from y than the radius, so are in the window
+                    around[j] = mapped < 0 ? zero_row : rows[plane][mapped % window];
+                }
+            }
+            return around;
+        }
+    }
+
+    /**
+     * Convolved rows of an image, from windows over its red, green and blue channels
+     */
+    private class ConvolvedRows implements RowSource {
+        private final int width;
+        private final Window window;
+        // Sums of each channel for the current row
+        private final int[][] sums;
+
+        ConvolvedRows(RowSource input, RowSource wrapped_input, int width, int height, int start_row) {
+            this.width = width;
+            this.window = window(channels(input, width), wrapped_input == null ? null : channels(wrapped_input, width),
+                    3, width, height, start_row);
+            this.sums = new int[3][width];
+        }
+
+        @Override
+        public void getRow(int y, int[] output) {
+            for (int channel = 0; channel < 3; channel++)
+                convolve(window, channel, y, sums[channel]);
+
+            int[] red = sums[0];
+            int[] green = sums[1];
+            int[] blue = sums[2];
+            for (int x = 0; x < width; x++) {
+                // Ensure the pixels RGB values are in the range [0 -255]
+                output[x] = 0xFF000000 | (normalise(red[x]) << 16) | (normalise(green[x]) << 8) | normalise(blue[x]);
+            }
+        }
+    }
+
+    /**
+     * Splits rows of packed pixels into red, green and blue planes
+     */
+    private static PlaneSource channels(RowSource input, int width) {
+        int[] row = new int[width];
+        return (y, planes) -> {
+            input.getRow(y, row);
+            int[] red = planes[0];
+            int[] green = planes[1];
+            int[] blue = planes[2];
+            for (int x = 0; x < width; x++) {
+                red[x] = (row[x] >> 16) & 0xFF;
+                green[x] = (row[x] >> 8) & 0xFF;
+                blue[x] = row[x] & 0xFF;
+            }
+        };
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.Arrays;
+
+/**
+ * Harris and Shi-Tomasi corner measures computed from the structure tensor of the image.
+ *
+ * The tensor is built from the products Ix^2, Iy^2 and IxIy of the signed sobel derivatives, averaged
+ * over a square window. The window sums are kept as running sums of rows, the same way BoxBlur does it,
+ * so the cost per pixel does not depend on the window size. Derivatives are divided by 4 (the total
+ * weight of one side of the sobel kernel) so they stay in the same range as the intensities.
+ */
+public class CornerDetector {
+
+    /** Which corner measure to calculate from the structure tensor */
+    public enum Measure {
+        /** det - k * trace^2 */
+        HARRIS(2000000.0),
+        /** Smallest eigenvalue of the structure tensor */
+        SHI_TOMASI(3000.0);
+
+        // Threshold is an empirically determined value
+        private final double default_threshold;
+
+        Measure(double default_threshold) {
+            this.default_threshold = default_threshold;
+        }
+
+        public double getDefaultThreshold() {
+            return default_threshold;
+        }
+    }
+
+    /** Harris detector with a 3x3 window */
+    public static final CornerDetector HARRIS = new CornerDetector(Measure.HARRIS, 3);
+
+    /** Shi-Tomasi detector with a 3x3 window */
+    public static final CornerDetector SHI_TOMASI = new CornerDetector(Measure.SHI_TOMASI, 3);
+
+    /** Corners are marked with a square of this radius, so no corners are reported closer than this to the border */
+    public static final int MARKER_RADIUS = 3;
+
+    // Sensitivity of the Harris measure
+    private static final double HARRIS_K = 0.15;
+
+    private final Measure measure;
+    private final int window_size;
+
+    /**
+     * @param measure corner measure to calculate
+     * @param window_size width and height of the window the structure tensor is averaged over, must be odd
+     */
+    public CornerDetector(Measure measure, int window_size) {
+        if (window_size < 1 || window_size % 2 == 0)
+            throw new IllegalArgumentException("Window size must be a positive odd number");
+        this.measure = measure;
+        this.window_size = window_size;
+    }
+
+    public Measure getMeasure() {
+        return measure;
+    }
+
+    public int getWindowSize() {
+        return window_size;
+    }
+
+    /**
+     * Distance from the border inside which no corners are reported. Windows never reach the pixels
+     * along the border, whose derivatives are distorted by the black pixels outside the image.
+     * @return margin in pixels
+     */
+    public int getMargin() {
+        return Math.max(MARKER_RADIUS, (window_size - 1) / 2 + 1);
+    }
+
+    /**
+     * Calculates the corner response of every pixel
+     * @param gradient_x signed x derivative of each pixel, row by row
+     * @param gradient_y signed y derivative of each pixel, row by row
+     * @param width image width
+     * @param height image height
+     * @param bands executor to run bands of rows on
+     * @return corner response of each pixel row by row, negative infinity for pixels within the margin
+     */
+    public float[] response(int[] gradient_x, int[] gradient_y, int width, int height, BandExecutor bands) {
+        return response(gradient_x, gradient_y, width, height, new float[width * height], bands);
+    }
+
+    /**
+     * Calculates the corner response of every pixel into an array, such as one leased from a BufferPool
+     * @param gradient_x signed x derivative of each pixel, row by row
+     * @param gradient_y signed y derivative of each pixel, row by row
+     * @param width image width
+     * @param height image height
+     * @param response array to write the response of each pixel to, every element of which is written
+     * @param bands executor to run bands of rows on
+     * @return response, negative infinity for pixels within the margin
+     */
+    public float[] response(int[] gradient_x, int[] gradient_y, int width, int height, float[] response,
+                            BandExecutor bands) {
+        int radius = (window_size - 1) / 2;
+        int margin = getMargin();
+        // Converts a window sum of derivative products into an average in intensity units
+        double scale = 1.0 / (16.0 * window_size * window_size);
+
+        bands.run(height, (start_row, end_row) -> {
+            Arrays.fill(response, start_row * width, end_row * width, Float.NEGATIVE_INFINITY);
+            int first_row = Math.max(start_row, margin);
+            int last_row = Math.min(end_row, height - margin);
+            if (first_row >= last_row || width <= 2 * margin)
+                return;
+
+            // Window row sums for the rows currently under the window, indexed by row % window_size
+            long[][] xx_rows = new long[window_size][width];
+            long[][] yy_rows = new long[window_size][width];
+            long[][] xy_rows = new long[window_size][width];
+            // Sum of the row sums under the window for each column
+            long[] xx_columns = new long[width];
+            long[] yy_columns = new long[width];
+            long[] xy_columns = new long[width];
+
+            int slot;
+            double a;
+            double b;
+            double c;
+            double trace;
+
+            for (int y = first_row; y < last_row; y++) {
+                if (y == first_row) {
+                    for (int row_y = y - radius; row_y <= y + radius; row_y++)
+                        addRow(gradient_x, gradient_y, row_y, width, radius, xx_rows, yy_rows, xy_rows,
+                                xx_columns, yy_columns, xy_columns);
+                } else {
+                    // Remove the row leaving the top of the window before its slot is reused by the entering row
+                    slot = (y - radius - 1) % window_size;
+                    for (int x = radius; x < width - radius; x++) {
+                        xx_columns[x] -= xx_rows[slot][x];
+                        yy_columns[x] -= yy_rows[slot][x];
+                        xy_columns[x] -= xy_rows[slot][x];
+                    }
+                    addRow(gradient_x, gradient_y, y + radius, width, radius, xx_rows, yy_rows, xy_rows,
+                            xx_columns, yy_columns, xy_columns);
+                }
+
+                for (int x = margin, i = y * width + margin; x < width - margin; x++, i++) {
+                    // Averaged structure tensor [a c; c b]
+                    a = xx_columns[x] * scale;
+                    b = yy_columns[x] * scale;
+                    c = xy_columns[x] * scale;
+                    trace = a + b;
+                    if (measure == Measure.HARRIS)
+                        response[i] = (float) (a * b - c * c - HARRIS_K * trace * trace);
+                    else
+                        response[i] = (float) (0.5 * (trace - Math.sqrt((a - b) * (a - b) + 4 * c * c)));
+                }
+                Progress.rowCompleted();
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Calculates the horizontal window sums of the derivative products along a row and adds them to the
+     * column sums. Only columns whose window lies completely inside the image are calculated.
+     */
+    private void addRow(int[] gradient_x, int[] gradient_y, int y, int width, int radius,
+                        long[][] xx_rows, long[][] yy_rows, long[][] xy_rows,
+                        long[] xx_columns, long[] yy_columns, long[] xy_columns) {
+        int slot = y % window_size;
+        long[] xx_row = xx_rows[slot];
+        long[] yy_row = yy_rows[slot];
+        long[] xy_row = xy_rows[slot];
+        int offset = y * width;
+        long sum_xx = 0;
+        long sum_yy = 0;
+        long sum_xy = 0;
+        int dx;
+        int dy;
+
+        // Sum of the products under the window when it is centred on the first complete column
+        for (int x = 0; x < window_size; x++) {
+            dx = gradient_x[offset + x];
+            dy = gradient_y[offset + x];
+            sum_xx += dx * dx;
+            sum_yy += dy * dy;
+            sum_xy += dx * dy;
+        }
+
+        for (int x = radius; x < width - radius; x++) {
+            xx_row[x] = sum_xx;
+            yy_row[x] = sum_yy;
+            xy_row[x] = sum_xy;
+            xx_columns[x] += sum_xx;
+            yy_columns[x] += sum_yy;
+            xy_columns[x] += sum_xy;
+
+            // Slide the window one pixel to the right
+            if (x + radius + 1 < width) {
+                dx = gradient_x[offset + x + radius + 1];
+                dy = gradient_y[offset + x + radius + 1];
+                sum_xx += dx * dx;
+                sum_yy += dy * dy;
+                sum_xy += dx * dy;
+                dx = gradient_x[offset + x - radius];
+                dy = gradient_y[offset + x - radius];
+                sum_xx -= dx * dx;
+                sum_yy -= dy * dy;
+                sum_xy -= dx * dy;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof CornerDetector))
+            return false;
+        CornerDetector other = (CornerDetector) o;
+        return measure == other.measure && window_size == other.window_size;
+    }
+
+    @Override
+    public int hashCode() {
+        return measure.hashCode() * 31 + window_size;
+    }
+
+    @Override
+    public String toString() {
+        return "CornerDetector(" + measure + ", " + window_size + "x" + window_size + ")";
+    }
+}
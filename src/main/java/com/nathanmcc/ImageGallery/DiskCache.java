@@ -0,0 +1,471 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cache of filter results kept on disk between runs, held within a budget of bytes.
+ *
+ * Results are keyed by a SHA-256 hash of the source image's pixels together with the filter's key, so
+ * reopening the same photo finds its results whatever the file is called. The key's toString must
+ * describe the filter and its parameters completely. Each result is one file holding a short header
+ * and the raw contents of its raster (or array), which is read back through a memory mapped FileChannel
+ * and copied straight into a new image, with no decoding.
+ *
+ * Only results that took longer to calculate than they are likely to take to read back are written,
+ * which leaves out point filters such as the negative. Writes happen on a background thread, to a
+ * temporary file that is then moved into place, so several processes (the application and any number
+ * of BatchProcessor runs) can share a directory: a reader only ever sees complete files. Hits update a
+ * file's modification time, and once the directory is over budget the least recently used files are
+ * deleted.
+ */
+public class DiskCache {
+
+    private static final int MAGIC = 0x49474331; // "IGC1"
+    private static final int HEADER_SIZE = 32;
+    private static final String SUFFIX = ".raw";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // Results are only written if they took at least this long per byte to calculate, about the cost of
+    // reading them back from a disk that is not in the page cache
+    private static final double MIN_NANOS_PER_BYTE = 1.0;
+    // Temporary files this old were left by a process that stopped part way through a write
+    private static final long STALE_TEMPORARY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Arrays are written through a buffer of this many elements, so large results need no second copy
+    private static final int CHUNK = 256 * 1024;
+
+    // Kinds of result
+    private static final byte INT_IMAGE = 1;
+    private static final byte BYTE_IMAGE = 2;
+    private static final byte SHORT_IMAGE = 3;
+    private static final byte BYTE_ARRAY = 4;
+    private static final byte FLOAT_ARRAY = 5;
+
+    private final Path directory;
+    private final long byte_budget;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Disk cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long hit_count;
+    private long miss_count;
+    private long write_count;
+    private long eviction_count;
+
+    /**
+     * @param directory directory to keep the results in, created if it does not exist
+     * @param byte_budget most bytes of results to keep
+     * @throws IOException if the directory could not be created
+     */
+    public DiskCache(Path directory, long byte_budget) throws IOException {
+        if (byte_budget < 0)
+            throw new IllegalArgumentException("Byte budget must not be negative");
+        this.directory = Files.createDirectories(directory);
+        this.byte_budget = byte_budget;
+    }
+
+    /**
+     * Opens the cache shared by the application and BatchProcessor, in the directory named by the
+     * imagegallery.cache.dir property (default ~/.imagegallery/cache) with a budget of
+     * imagegallery.cache.size megabytes (default 1024)
+     * @return shared cache
+     * @throws IOException if the directory could not be created
+     */
+    public static DiskCache openDefault() throws IOException {
+        String directory = System.getProperty("imagegallery.cache.dir",
+                Paths.get(System.getProperty("user.home"), ".imagegallery", "cache").toString());
+        return new DiskCache(Paths.get(directory), getDefaultByteBudget());
+    }
+
+    /**
+     * Budget of the shared cache, set in megabytes by the imagegallery.cache.size property
+     * @return budget in bytes
+     */
+    public static long getDefaultByteBudget() {
+        return Long.getLong("imagegallery.cache.size", 1024) * 1024 * 1024;
+    }
+
+    /**
+     * Hashes the pixels of an image, along with its size and type, to identify it in the cache
+     * @param image image to hash
+     * @return hash as hexadecimal
+     */
+    public static String hash(BufferedImage image) {
+        MessageDigest digest = sha256();
+        int width = image.getWidth();
+        int[] row = new int[width];
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(width).putInt(image.getHeight()).putInt(image.getType());
+        digest.update(header.array());
+        ByteBuffer bytes = ByteBuffer.allocate(width * 4);
+        for (int y = 0; y < image.getHeight(); y++) {
+            PixelAccess.getRow(image, y, row);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            digest.update(bytes.array());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns a result from the cache, calculating it and writing it in the background if it is not there
+     * @param source_hash hash of the source image, from hash()
+     * @param key key of the result, whose toString describes the filter and its parameters
+     * @param calculate calculates the result, timed to decide whether it is worth writing
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String source_hash, Object key, Supplier<T> calculate) {
+        Path file = file(source_hash, key);
+        Object value = read(file);
+        synchronized (this) {
+            if (value != null)
+                hit_count++;
+            else
+                miss_count++;
+        }
+        if (value != null)
+            return (T) value;
+
+        long start_time = System.nanoTime();
+        T result = calculate.get();
+        long cost = System.nanoTime() - start_time;
+        long size = ResultCache.sizeOf(result);
+        if (size > 0 && size <= byte_budget && cost >= size * MIN_NANOS_PER_BYTE && canStore(result))
+            writer.execute(() -> write(file, result));
+        return result;
+    }
+
+    /**
+     * Waits for the results queued to be written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        try {
+            writer.submit(() -> {}).get();
+        } catch (ExecutionException err) {
+            throw new IllegalStateException(err.getCause());
+        }
+    }
+
+    private Path file(String source_hash, Object key) {
+        MessageDigest digest = sha256();
+        digest.update((source_hash + "\n" + key).getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(toHex(digest.digest()) + SUFFIX);
+    }
+
+    /**
+     * Reads a result file, deleting it if it is not a valid result
+     * @return result, or null if there is no valid file
+     */
+    private Object read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long file_size = channel.size();
+            if (file_size < HEADER_SIZE)
+                throw new IOException("Truncated result");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, file_size);
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a result file");
+            byte kind = buffer.get();
+            int type = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int length = buffer.getInt();
+            buffer.position(HEADER_SIZE);
+            Object value = decode(buffer, kind, type, width, height, length);
+            // Record the use for least recently used eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return value;
+        } catch (NoSuchFileException err) {
+            return null;
+        } catch (IOException | RuntimeException err) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException delete_err) {
+                // Another process may have it open, it is replaced when the result is written again
+            }
+            return null;
+        }
+    }
+
+    private static Object decode(ByteBuffer buffer, byte kind, int type, int width, int height, int length)
+            throws IOException {
+        switch (kind) {
+            case BYTE_ARRAY: {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                return bytes;
+            }
+            case FLOAT_ARRAY: {
+                float[] floats = new float[length];
+                buffer.asFloatBuffer().get(floats);
+                return floats;
+            }
+            case INT_IMAGE:
+            case BYTE_IMAGE:
+            case SHORT_IMAGE: {
+                BufferedImage image = new BufferedImage(width, height, type);
+                DataBuffer data = image.getRaster().getDataBuffer();
+                if (data.getSize() != length || kind != kindOf(data))
+                    throw new IOException("Result does not match its image type");
+                if (kind == INT_IMAGE)
+                    buffer.asIntBuffer().get(((DataBufferInt) data).getData());
+                else if (kind == BYTE_IMAGE)
+                    buffer.get(((DataBufferByte) data).getData());
+                else
+                    buffer.asShortBuffer().get(((DataBufferUShort) data).getData());
+                return image;
+            }
+            default:
+                throw new IOException("Unknown kind of result " + kind);
+        }
+    }
+
+    /**
+     * Checks that a result is an array or an image whose raster is exactly the one a new image of its
+     * type would have, so it can be stored as raw data
+     */
+    private static boolean canStore(Object value) {
+        if (value instanceof byte[] || value instanceof float[])
+            return true;
+        if (!(value instanceof BufferedImage))
+            return false;
+        BufferedImage image = (BufferedImage) value;
+        WritableRaster raster = image.getRaster();
+        DataBuffer data = raster.getDataBuffer();
+        return image.getType() != BufferedImage.TYPE_CUSTOM && raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && data.getNumBanks() == 1 && data.getOffset() == 0 && kindOf(data) != 0
+                && data.getSize() == new BufferedImage(1, 1, image.getType()).getRaster().getDataBuffer().getSize()
+                        * image.getWidth() * image.getHeight();
+    }
+
+    private static byte kindOf(DataBuffer data) {
+        if (data instanceof DataBufferInt)
+            return INT_IMAGE;
+        if (data instanceof DataBufferByte)
+            return BYTE_IMAGE;
+        if (data instanceof DataBufferUShort)
+            return SHORT_IMAGE;
+        return 0;
+    }
+
+    /**
+     * Writes a result to a temporary file and moves it into place, then evicts files if the cache is over
+     * its budget. Runs on the writer thread.
+     */
+    private void write(Path file, Object value) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory, "result", TEMPORARY_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                if (value instanceof BufferedImage) {
+                    BufferedImage image = (BufferedImage) value;
+                    DataBuffer data = image.getRaster().getDataBuffer();
+                    header.put(kindOf(data)).putInt(image.getType()).putInt(image.getWidth())
+                            .putInt(image.getHeight()).putInt(data.getSize());
+                    writeFully(channel, header);
+                    if (data instanceof DataBufferInt)
+                        writeInts(channel, ((DataBufferInt) data).getData());
+                    else if (data instanceof DataBufferByte)
+                        writeFully(channel, ByteBuffer.wrap(((DataBufferByte) data).getData()));
+                    else
+                        writeShorts(channel, ((DataBufferUShort) data).getData());
+                } else if (value instanceof byte[]) {
+                    byte[] bytes = (byte[]) value;
+                    header.put(BYTE_ARRAY).putInt(0).putInt(0).putInt(0).putInt(bytes.length);
+                    writeFully(channel, header);
+                    writeFully(channel, ByteBuffer.wrap(bytes));
+                } else {
+                    float[] floats = (float[]) value;
+                    header.put(FLOAT_ARRAY).putInt(0).putInt(0).putInt(0).putInt(floats.length);
+                    writeFully(channel, header);
+                    writeFloats(channel, floats);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                write_count++;
+            }
+            trim();
+        } catch (IOException err) {
+            // The result is only lost from the disk cache, the caller already has it
+        } finally {
+            try {
+                if (temporary != null)
+                    Files.deleteIfExists(temporary);
+            } catch (IOException err) {
+                // Removed with the other stale temporary files later
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.position(0);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private static void writeInts(FileChannel channel, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK * 4);
+        for (int start = 0; start < values.length; start += CHUNK) {
+            int count = Math.min(CHUNK, values.length - start);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, start, count);
+            buffer.limit(count * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeShorts(FileChannel channel, short[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK * 2);
+        for (int start = 0; start < values.length; start += CHUNK) {
+            int count = Math.min(CHUNK, values.length - start);
+            buffer.clear();
+            buffer.asShortBuffer().put(values, start, count);
+            buffer.limit(count * 2);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeFloats(FileChannel channel, float[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK * 4);
+        for (int start = 0; start < values.length; start += CHUNK) {
+            int count = Math.min(CHUNK, values.length - start);
+            buffer.clear();
+            buffer.asFloatBuffer().put(values, start, count);
+            buffer.limit(count * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Deletes the least recently used results until the cache is within its budget, along with any
+     * temporary files abandoned by other processes. Other processes may be trimming at the same time, so
+     * files that have already gone are skipped.
+     */
+    private void trim() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        long size = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                BasicFileAttributes entry_attributes;
+                try {
+                    entry_attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (NoSuchFileException err) {
+                    continue;
+                }
+                String name = entry.getFileName().toString();
+                if (name.endsWith(TEMPORARY_SUFFIX)
+                        && now - entry_attributes.lastModifiedTime().toMillis() > STALE_TEMPORARY_MILLIS) {
+                    Files.deleteIfExists(entry);
+                } else if (name.endsWith(SUFFIX)) {
+                    files.add(entry);
+                    attributes.add(entry_attributes);
+                    size += entry_attributes.size();
+                }
+            }
+        }
+        if (size <= byte_budget)
+            return;
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++)
+            order.add(i);
+        order.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+        for (int i : order) {
+            if (size <= byte_budget)
+                break;
+            if (Files.deleteIfExists(files.get(i))) {
+                synchronized (this) {
+                    eviction_count++;
+                }
+            }
+            size -= attributes.get(i).size();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException err) {
+            throw new IllegalStateException("SHA-256 is not available", err);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getByteBudget() {
+        return byte_budget;
+    }
+
+    public synchronized long getHitCount() {
+        return hit_count;
+    }
+
+    public synchronized long getMissCount() {
+        return miss_count;
+    }
+
+    /**
+     * Number of results written to disk by this process
+     * @return write count
+     */
+    public synchronized long getWriteCount() {
+        return write_count;
+    }
+
+    /**
+     * Number of files deleted by this process to stay within the budget
+     * @return eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return eviction_count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s, %.1f MB budget, %d hits, %d misses, %d writes, %d evictions",
+                directory, byte_budget / 1e6, hit_count, miss_count, write_count, eviction_count);
+    }
+}
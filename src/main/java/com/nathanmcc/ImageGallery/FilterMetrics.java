@@ -0,0 +1,413 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Counts how often each image processor operation runs, how long it takes, how many pixels it processes
+ * and how many bytes it allocates, along with how often each filter's result is found in an image
+ * holder's cache.
+ *
+ * Collection is off by default, when each operation costs one volatile read. It is turned on with
+ * -Dimagegallery.metrics=true, through JMX once register() has been called, or with setEnabled.
+ *
+ * Only the outermost operation on a thread is recorded, so the luminance calculated inside corner
+ * detection counts towards corner detection. Latencies go into a histogram with eight buckets for every
+ * power of two, so percentiles are accurate to about six percent. Allocation is measured with the
+ * per-thread counters of the HotSpot ThreadMXBean, on the calling thread and on every band thread
+ * working for it, and is reported as 0 on JVMs without them.
+ */
+public class FilterMetrics implements FilterMetricsMXBean {
+
+    /** Name the metrics are registered under with the platform MBean server */
+    public static final String OBJECT_NAME = "com.nathanmcc.ImageGallery:type=FilterMetrics";
+
+    private static final FilterMetrics INSTANCE = new FilterMetrics();
+    // Operation being measured on each thread, if any
+    private static final ThreadLocal<Measurement> CURRENT = new ThreadLocal<>();
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounters();
+
+    // Latency histogram buckets: eight for each power of two of nanoseconds
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static volatile boolean enabled = Boolean.getBoolean("imagegallery.metrics");
+
+    private final Map<String, OperationStats> operations = new TreeMap<>();
+    private final Map<String, CacheStats> caches = new TreeMap<>();
+
+    private FilterMetrics() {}
+
+    /**
+     * Returns the metrics of this JVM
+     * @return metrics
+     */
+    public static FilterMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Publishes the metrics with the platform MBean server, if they are not already
+     * @throws IllegalStateException if the MBean server refuses them
+     */
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException err) {
+            // Registered already
+        } catch (JMException err) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, err);
+        }
+    }
+
+    /**
+     * Checks whether metrics are being collected
+     * @return true if they are
+     */
+    public static boolean isCollecting() {
+        return enabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        FilterMetrics.enabled = enabled;
+    }
+
+    /**
+     * Runs an operation, recording it if metrics are enabled and no other operation is being measured
+     * on this thread
+     * @param operation name of the operation
+     * @param pixels number of pixels the operation processes
+     * @param work the operation
+     * @return result of the operation
+     */
+    public static <T> T measure(String operation, long pixels, Supplier<T> work) {
+        Measurement measurement = start(operation, pixels);
+        if (measurement == null)
+            return work.get();
+        try {
+            return work.get();
+        } finally {
+            measurement.stop();
+        }
+    }
+
+    /**
+     * Starts measuring an operation, for work that cannot be passed to measure(). The measurement must
+     * be stopped on the same thread.
+     * @param operation name of the operation
+     * @param pixels number of pixels the operation processes
+     * @return measurement to stop when the operation is done, or null if it is not being recorded
+     */
+    public static Measurement start(String operation, long pixels) {
+        if (!enabled || CURRENT.get() != null)
+            return null;
+        Measurement measurement = new Measurement(operation, pixels);
+        CURRENT.set(measurement);
+        return measurement;
+    }
+
+    /**
+     * Returns the operation being measured on this thread
+     * @return measurement, or null if the current operation is not being recorded
+     */
+    static Measurement current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records a lookup in an image holder's cache
+     * @param key key of the result, whose first element names the filter
+     * @param hit true if the result was held strongly, false if it was missing
+     * @param soft true if the result was found through a soft reference
+     */
+    static void recordCacheLookup(Object key, boolean hit, boolean soft) {
+        String name = key instanceof List && !((List<?>) key).isEmpty()
+                ? String.valueOf(((List<?>) key).get(0)) : String.valueOf(key);
+        synchronized (INSTANCE) {
+            CacheStats stats = INSTANCE.caches.computeIfAbsent(name, CacheStats::new);
+            if (soft)
+                stats.soft_hits++;
+            else if (hit)
+                stats.hits++;
+            else
+                stats.misses++;
+        }
+    }
+
+    private synchronized void record(String operation, long nanos, long pixels, long allocated_bytes) {
+        OperationStats stats = operations.computeIfAbsent(operation, OperationStats::new);
+        stats.count++;
+        stats.total_nanos += nanos;
+        stats.total_pixels += pixels;
+        stats.total_allocated += allocated_bytes;
+        stats.latencies[bucket(nanos)]++;
+    }
+
+    @Override
+    public synchronized List<OperationMetrics> getOperations() {
+        List<OperationMetrics> metrics = new ArrayList<>();
+        for (OperationStats stats : operations.values())
+            metrics.add(new OperationMetrics(stats));
+        return metrics;
+    }
+
+    @Override
+    public synchronized List<CacheMetrics> getCaches() {
+        List<CacheMetrics> metrics = new ArrayList<>();
+        for (CacheStats stats : caches.values())
+            metrics.add(new CacheMetrics(stats.name, stats.hits, stats.soft_hits, stats.misses));
+        return metrics;
+    }
+
+    @Override
+    public synchronized double getCacheHitRatio() {
+        long hits = 0;
+        long lookups = 0;
+        for (CacheStats stats : caches.values()) {
+            hits += stats.hits + stats.soft_hits;
+            lookups += stats.hits + stats.soft_hits + stats.misses;
+        }
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized void reset() {
+        operations.clear();
+        caches.clear();
+    }
+
+    @Override
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"enabled\": ").append(enabled).append(",\n  \"operations\": {");
+        String separator = "\n";
+        for (OperationMetrics operation : getOperations()) {
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p99_ms\": %.3f, "
+                            + "\"mpix_per_s\": %.2f, \"allocated_bytes_per_call\": %d}",
+                    operation.getName(), operation.getCount(), operation.getMeanMillis(), operation.getP50Millis(),
+                    operation.getP99Millis(), operation.getMegapixelsPerSecond(), operation.getAllocatedBytesPerCall()));
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"caches\": {");
+        separator = "\n";
+        for (CacheMetrics cache : getCaches()) {
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"hits\": %d, \"soft_hits\": %d, \"misses\": %d, \"hit_ratio\": %.4f}",
+                    cache.getName(), cache.getHits(), cache.getSoftHits(), cache.getMisses(), cache.getHitRatio()));
+            separator = ",\n";
+        }
+        json.append(String.format(Locale.ROOT, "\n  },\n  \"cache_hit_ratio\": %.4f\n}", getCacheHitRatio()));
+        return json.toString();
+    }
+
+    private static int bucket(long nanos) {
+        long value = Math.max(1, nanos);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = Math.max(0, exponent - SUB_BUCKET_BITS);
+        return exponent * SUB_BUCKETS + (int) ((value >> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Middle of the range of nanoseconds a bucket counts
+     */
+    private static double bucketValue(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        int sub_bucket = bucket % SUB_BUCKETS;
+        if (exponent < SUB_BUCKET_BITS)
+            return sub_bucket;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub_bucket) << shift) + ((1L << shift) - 1) / 2.0;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounters() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean hotspot_threads = (com.sun.management.ThreadMXBean) threads;
+        return hotspot_threads.isThreadAllocatedMemorySupported() && hotspot_threads.isThreadAllocatedMemoryEnabled()
+                ? hotspot_threads : null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** An operation being measured */
+    public static class Measurement {
+        private final String operation;
+        private final long pixels;
+        private final long start_nanos;
+        private final long start_allocated;
+        // Bytes allocated by band threads working for the operation
+        private final AtomicLong band_allocated = new AtomicLong();
+
+        private Measurement(String operation, long pixels) {
+            this.operation = operation;
+            this.pixels = pixels;
+            this.start_allocated = allocatedBytes();
+            this.start_nanos = System.nanoTime();
+        }
+
+        /**
+         * Runs part of the operation on another thread, such as a band of rows, adding what it
+         * allocates to the operation
+         * @param part work to run
+         */
+        void runPart(Runnable part) {
+            Measurement previous = CURRENT.get();
+            CURRENT.set(this);
+            long start = allocatedBytes();
+            try {
+                part.run();
+            } finally {
+                band_allocated.addAndGet(allocatedBytes() - start);
+                CURRENT.set(previous);
+            }
+        }
+
+        /** Records the operation */
+        public void stop() {
+            long nanos = System.nanoTime() - start_nanos;
+            long allocated = allocatedBytes() - start_allocated + band_allocated.get();
+            CURRENT.remove();
+            INSTANCE.record(operation, nanos, pixels, allocated);
+        }
+    }
+
+    private static class OperationStats {
+        final String name;
+        final long[] latencies = new long[64 * SUB_BUCKETS];
+        long count;
+        long total_nanos;
+        long total_pixels;
+        long total_allocated;
+
+        OperationStats(String name) {
+            this.name = name;
+        }
+
+        double percentileNanos(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < latencies.length; bucket++) {
+                seen += latencies[bucket];
+                if (seen >= rank)
+                    return bucketValue(bucket);
+            }
+            return 0;
+        }
+    }
+
+    private static class CacheStats {
+        final String name;
+        long hits;
+        long soft_hits;
+        long misses;
+
+        CacheStats(String name) {
+            this.name = name;
+        }
+    }
+
+    /** Statistics of one operation, as published over JMX */
+    public static class OperationMetrics {
+        private final String name;
+        private final long count;
+        private final double mean_millis;
+        private final double p50_millis;
+        private final double p99_millis;
+        private final double megapixels_per_second;
+        private final long allocated_bytes_per_call;
+
+        private OperationMetrics(OperationStats stats) {
+            this.name = stats.name;
+            this.count = stats.count;
+            this.mean_millis = stats.total_nanos / 1e6 / stats.count;
+            this.p50_millis = stats.percentileNanos(0.50) / 1e6;
+            this.p99_millis = stats.percentileNanos(0.99) / 1e6;
+            this.megapixels_per_second = stats.total_nanos == 0 ? 0 : stats.total_pixels * 1e3 / stats.total_nanos;
+            this.allocated_bytes_per_call = stats.total_allocated / stats.count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return mean_millis;
+        }
+
+        public double getP50Millis() {
+            return p50_millis;
+        }
+
+        public double getP99Millis() {
+            return p99_millis;
+        }
+
+        public double getMegapixelsPerSecond() {
+            return megapixels_per_second;
+        }
+
+        public long getAllocatedBytesPerCall() {
+            return allocated_bytes_per_call;
+        }
+    }
+
+    /** Cache lookups of one filter's results, as published over JMX */
+    public static class CacheMetrics {
+        private final String name;
+        private final long hits;
+        private final long soft_hits;
+        private final long misses;
+
+        private CacheMetrics(String name, long hits, long soft_hits, long misses) {
+            this.name = name;
+            this.hits = hits;
+            this.soft_hits = soft_hits;
+            this.misses = misses;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getSoftHits() {
+            return soft_hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + soft_hits + misses;
+            return lookups == 0 ? 0 : (double) (hits + soft_hits) / lookups;
+        }
+    }
+}
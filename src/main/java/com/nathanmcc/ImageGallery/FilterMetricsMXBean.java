@@ -0,0 +1,42 @@
+import java.util.List;
+
+/**
+ * Management interface of FilterMetrics, published over JMX as com.nathanmcc.ImageGallery:type=FilterMetrics
+ */
+public interface FilterMetricsMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * Turns collection on or off. Nothing is recorded while it is off.
+     * @param enabled true to collect metrics
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Statistics of each image processor operation that has run while metrics were enabled
+     * @return operations, by name
+     */
+    List<FilterMetrics.OperationMetrics> getOperations();
+
+    /**
+     * Lookups of each filter's results in the image holder caches
+     * @return cache statistics, by filter
+     */
+    List<FilterMetrics.CacheMetrics> getCaches();
+
+    /**
+     * Fraction of every cache lookup that found its result, strongly held or through a soft reference
+     * @return hit ratio, or 0 if nothing has been looked up
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Every statistic as a JSON object
+     * @return JSON
+     */
+    String toJson();
+
+    /** Clears every statistic */
+    void reset();
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chain of filters applied one row at a time, without creating an image for each step.
+ *
+ * Each step is one of the ImageProcessor operations. Neighbouring point operations are fused into a
+ * single pass over each row, and neighbouring lookup tables are composed into one table. Filters that
+ * need the surrounding rows (blurs, edge detection, sharpening) keep only the few rows they are working
+ * on, so running a pipeline needs little more memory than the input and output images. Between steps
+ * pixels are kept as opaque packed RGB values with 8 bits per channel.
+ *
+ * Pipelines are immutable, every method returns a new pipeline with the step added to the end.
+ */
+public class FilterPipeline implements RowFilter {
+
+    private final List<RowFilter> stages;
+
+    /** Creates an empty pipeline that leaves images unchanged */
+    public FilterPipeline() {
+        this(Collections.emptyList());
+    }
+
+    private FilterPipeline(List<RowFilter> stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Adds a filter to the end of the pipeline
+     * @param filter filter to add
+     * @return new pipeline
+     * @throws IllegalArgumentException if the filter is a convolution with wrapped borders, which need
+     *                                  rows from the other end of the image
+     */
+    public FilterPipeline then(RowFilter filter) {
+        if (filter instanceof Convolution && ((Convolution) filter).getBorder() == Convolution.Border.WRAP)
+            throw new IllegalArgumentException("Convolutions with wrapped borders cannot run in a pipeline");
+        List<RowFilter> new_stages = new ArrayList<>(stages);
+        new_stages.add(filter);
+        return new FilterPipeline(Collections.unmodifiableList(new_stages));
+    }
+
+    /**
+     * Adds a point operation to the end of the pipeline, fusing it with the point operations before it
+     * @param operation operation to add
+     * @return new pipeline
+     */
+    public FilterPipeline then(PointOperation operation) {
+        if (stages.isEmpty() || !(stages.get(stages.size() - 1) instanceof PointStage))
+            return then(new PointStage(Collections.singletonList(operation)));
+
+        List<RowFilter> new_stages = new ArrayList<>(stages);
+        PointStage last = (PointStage) new_stages.remove(new_stages.size() - 1);
+        new_stages.add(last.then(operation));
+        return new FilterPipeline(Collections.unmodifiableList(new_stages));
+    }
+
+    public FilterPipeline greyscale() {
+        return then(ColourMap.GREYSCALE);
+    }
+
+    public FilterPipeline negative() {
+        return then(LookupTable.NEGATIVE);
+    }
+
+    public FilterPipeline sepia() {
+        return then(ImageProcessor.SEPIA);
+    }
+
+    public FilterPipeline cartoon() {
+        return then(LookupTable.QUANTIZE);
+    }
+
+    public FilterPipeline contrastEnhancement() {
+        return then(ImageProcessor.CONTRAST_ENHANCEMENT);
+    }
+
+    public FilterPipeline threshold() {
+        return then(ColourMap.THRESHOLD);
+    }
+
+    public FilterPipeline falseColour() {
+        return then(ColourMap.FALSE_COLOUR);
+    }
+
+    public FilterPipeline boxBlur() {
+        return then(new BoxBlur(5));
+    }
+
+    public FilterPipeline boxBlur(BoxBlur blur) {
+        return then(blur);
+    }
+
+    public FilterPipeline gaussianBlur() {
+        return then(GaussianBlur.PRESET_5X5);
+    }
+
+    public FilterPipeline gaussianBlur(GaussianBlur blur) {
+        return then(blur);
+    }
+
+    public FilterPipeline sobel() {
+        return then(GradientOperator.SOBEL);
+    }
+
+    public FilterPipeline sobel(GradientOperator.Norm norm) {
+        return then(GradientOperator.SOBEL.withNorm(norm));
+    }
+
+    public FilterPipeline prewitt() {
+        return then(GradientOperator.PREWITT);
+    }
+
+    public FilterPipeline prewitt(GradientOperator.Norm norm) {
+        return then(GradientOperator.PREWITT.withNorm(norm));
+    }
+
+    public FilterPipeline sharpen() {
+        return then(Convolution.SHARPEN);
+    }
+
+    public FilterPipeline pixelate() {
+        return then(new Pixelate(5));
+    }
+
+    /**
+     * Number of steps after fusing neighbouring point operations
+     * @return number of steps
+     */
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    @Override
+    public int getRadius() {
+        int radius = 0;
+        for (RowFilter stage : stages)
+            radius += stage.getRadius();
+        return radius;
+    }
+
+    @Override
+    public RowSource open(RowSource input, int width, int height, int start_row) {
+        // First row requested from each stage, working back from the last stage
+        int[] start_rows = new int[stages.size()];
+        int stage_start = start_row;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            start_rows[i] = stage_start;
+            stage_start = Math.max(0, stage_start - stages.get(i).getRadius());
+        }
+
+        RowSource rows = input;
+        for (int i = 0; i < stages.size(); i++)
+            rows = stages.get(i).open(rows, width, height, start_rows[i]);
+        return rows;
+    }
+
+    /**
+     * Point operations fused into one step, applied one after another to each row
+     */
+    private static class PointStage implements RowFilter {
+        private final List<PointOperation> operations;
+
+        PointStage(List<PointOperation> operations) {
+            this.operations = operations;
+        }
+
+        /**
+         * Adds an operation to the stage, composing it with the last operation if both are tables
+         */
+        PointStage then(PointOperation operation) {
+            List<PointOperation> new_operations = new ArrayList<>(operations);
+            PointOperation last = new_operations.get(new_operations.size() - 1);
+            if (operation instanceof LookupTable && last instanceof LookupTable) {
+                new_operations.set(new_operations.size() - 1, ((LookupTable) last).andThen((LookupTable) operation));
+            } else if (operation instanceof LookupTable && last instanceof ColourMap) {
+                new_operations.set(new_operations.size() - 1, ((ColourMap) last).andThen((LookupTable) operation));
+            } else {
+                new_operations.add(operation);
+            }
+            return new PointStage(Collections.unmodifiableList(new_operations));
+        }
+
+        @Override
+        public int getRadius() {
+            return 0;
+        }
+
+        @Override
+        public RowSource open(RowSource input, int width, int height, int start_row) {
+            return (y, row) -> {
+                input.getRow(y, row);
+                for (PointOperation operation : operations)
+                    operation.applyToRow(row, width);
+            };
+        }
+    }
+}
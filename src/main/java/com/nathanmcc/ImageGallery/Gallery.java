@@ -0,0 +1,314 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * The images open in the application, added one file at a time or a folder at a time.
+ *
+ * Adding images only lists their files. Thumbnails are decoded straight at thumbnail size by a
+ * ThumbnailDecoder on a background thread when they are asked for, newest request first, so a strip that
+ * asks for the thumbnails it is drawing loads them as it scrolls and a folder of hundreds of photos opens
+ * straight away. The full resolution image is decoded when it is selected. The selected image is held
+ * strongly and the rest through soft references, so the garbage collector releases them when it is short
+ * of memory and they are decoded again when selected.
+ *
+ * Every image's results go in one ResultCache, so however many images have been viewed their results stay
+ * within one memory budget, and the results least worth keeping are evicted whichever image they belong to.
+ */
+public class Gallery {
+
+    /** An image in the gallery */
+    public static class Item {
+        private final File file;
+        private volatile BufferedImage thumbnail;
+        private volatile boolean unreadable;
+        // Guarded by the gallery
+        private SoftReference<ImageHolder> holder = new SoftReference<>(null);
+        private boolean thumbnail_requested;
+
+        private Item(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the thumbnail, if it has been loaded
+         * @return thumbnail, or null if it has not been loaded yet or the file could not be read
+         */
+        public BufferedImage getThumbnail() {
+            return thumbnail;
+        }
+
+        /**
+         * Whether the file could not be decoded when its thumbnail was loaded
+         * @return true if the file is not a readable image
+         */
+        public boolean isUnreadable() {
+            return unreadable;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+
+    // Thumbnail requests waiting beyond this many are dropped, oldest first. They are made again if their
+    // thumbnails are still wanted when the strip is next drawn.
+    private static final int MAX_THUMBNAIL_REQUESTS = 64;
+
+    private final ImageProcessor image_processor;
+    private final ThumbnailDecoder thumbnail_decoder;
+    private final ResultCache cache;
+    private final DiskCache disk_cache;
+    private final int thumbnail_size;
+    private final List<Item> items = new ArrayList<>();
+    private ImageHolder selected_holder;
+    // Newest first
+    private final ArrayDeque<Item> thumbnail_requests = new ArrayDeque<>();
+    private final ExecutorService thumbnail_executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Thumbnails");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private volatile Consumer<Item> thumbnail_listener = item -> {};
+
+    private long decode_count;
+    private long thumbnail_count;
+
+    /**
+     * @param image_processor processor used to apply filters to every image
+     * @param byte_budget most bytes of results to hold for all the images together
+     * @param disk_cache cache that keeps results between runs, or null for none
+     * @param thumbnail_size largest width and height of the thumbnails
+     */
+    public Gallery(ImageProcessor image_processor, long byte_budget, DiskCache disk_cache, int thumbnail_size) {
+        if (thumbnail_size < 1)
+            throw new IllegalArgumentException("Thumbnail size must be at least 1");
+        this.image_processor = image_processor;
+        this.thumbnail_decoder = new ThumbnailDecoder(image_processor);
+        this.cache = new ResultCache(byte_budget, true);
+        this.disk_cache = disk_cache;
+        this.thumbnail_size = thumbnail_size;
+    }
+
+    /**
+     * Adds image files to the end of the gallery, without reading them
+     * @param files image files
+     * @return index of the first file added
+     */
+    public synchronized int add(List<File> files) {
+        int first_index = items.size();
+        for (File file : files)
+            items.add(new Item(file));
+        return first_index;
+    }
+
+    /**
+     * Adds every image in a folder to the end of the gallery, in order of name, without reading them.
+     * Files are recognised by the suffixes ImageIO has readers for.
+     * @param folder folder of images
+     * @return index of the first image added
+     * @throws IOException if the folder cannot be listed
+     */
+    public int addFolder(File folder) throws IOException {
+        Set<String> suffixes = new HashSet<>();
+        for (String suffix : ImageIO.getReaderFileSuffixes())
+            suffixes.add(suffix.toLowerCase(Locale.ROOT));
+        File[] files = folder.listFiles(file -> {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            return file.isFile() && dot >= 0 && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        });
+        if (files == null)
+            throw new IOException("Could not list " + folder);
+        Arrays.sort(files);
+        return add(Arrays.asList(files));
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    public synchronized Item get(int index) {
+        return items.get(index);
+    }
+
+    /**
+     * Returns the images in the gallery
+     * @return unmodifiable copy of the images, in order
+     */
+    public synchronized List<Item> getItems() {
+        return Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    /**
+     * Selects an image, decoding the full resolution image if it is not still held. Call this off the
+     * event dispatch thread.
+     * @param index index of the image
+     * @return holder of the image, whose results are cached in the gallery's shared cache
+     * @throws IOException if the file cannot be read
+     */
+    public ImageHolder select(int index) throws IOException {
+        Item item = get(index);
+        synchronized (this) {
+            ImageHolder holder = item.holder.get();
+            if (holder != null) {
+                selected_holder = holder;
+                return holder;
+            }
+            // Let the image that was selected go before decoding this one, in case memory is short
+            selected_holder = null;
+        }
+
+        BufferedImage image = ImageIO.read(item.file);
+        if (image == null) {
+            item.unreadable = true;
+            throw new IOException("No reader for " + item.file);
+        }
+        // The item is the namespace, so results left in the cache are found again if the image is released
+        ImageHolder holder = new ImageHolder(image, image_processor, cache, disk_cache, item);
+        if (item.thumbnail == null)
+            setThumbnail(item, image);
+        synchronized (this) {
+            decode_count++;
+            item.holder = new SoftReference<>(holder);
+            selected_holder = holder;
+        }
+        return holder;
+    }
+
+    /**
+     * Returns the holder of the selected image
+     * @return holder, or null if nothing has been selected
+     */
+    public synchronized ImageHolder getSelected() {
+        return selected_holder;
+    }
+
+    /**
+     * Checks whether an image's full resolution image is still held, so selecting it will not decode it
+     * @param index index of the image
+     * @return true if the image is held
+     */
+    public synchronized boolean isLoaded(int index) {
+        return items.get(index).holder.get() != null;
+    }
+
+    /**
+     * Sets the listener told when a thumbnail has loaded, on the thumbnail thread
+     * @param listener listener, given the image whose thumbnail has loaded
+     */
+    public void setThumbnailListener(Consumer<Item> listener) {
+        thumbnail_listener = listener;
+    }
+
+    /**
+     * Asks for an image's thumbnail to be loaded in the background, ahead of any requested earlier. Does
+     * nothing if the thumbnail is loaded or already requested.
+     * @param item image in the gallery
+     */
+    public void requestThumbnail(Item item) {
+        synchronized (this) {
+            if (item.thumbnail != null || item.unreadable || item.thumbnail_requested)
+                return;
+            item.thumbnail_requested = true;
+            thumbnail_requests.addFirst(item);
+            if (thumbnail_requests.size() > MAX_THUMBNAIL_REQUESTS)
+                thumbnail_requests.removeLast().thumbnail_requested = false;
+        }
+        thumbnail_executor.execute(this::loadNextThumbnail);
+    }
+
+    /**
+     * Loads the thumbnail requested most recently. Runs once for every request, so finds nothing to do
+     * for the requests that were dropped.
+     */
+    private void loadNextThumbnail() {
+        Item item;
+        synchronized (this) {
+            item = thumbnail_requests.pollFirst();
+            if (item == null)
+                return;
+        }
+        try {
+            setThumbnail(item, thumbnail_decoder.decode(item.file, thumbnail_size, thumbnail_size));
+        } catch (IOException | RuntimeException err) {
+            item.unreadable = true;
+        } catch (OutOfMemoryError err) {
+            // Leave the thumbnail to be requested again once memory has been released
+        }
+        synchronized (this) {
+            item.thumbnail_requested = false;
+        }
+        thumbnail_listener.accept(item);
+    }
+
+    /**
+     * Sets an image's thumbnail
+     * @param item image in the gallery
+     * @param image thumbnail, or the full resolution image to scale it from
+     */
+    private void setThumbnail(Item item, BufferedImage image) {
+        item.thumbnail = thumbnail_decoder.scale(image, thumbnail_size, thumbnail_size);
+        synchronized (this) {
+            thumbnail_count++;
+        }
+    }
+
+    /** Stops loading thumbnails */
+    public void shutdown() {
+        thumbnail_executor.shutdownNow();
+    }
+
+    /**
+     * Returns the cache every image's results are kept in
+     * @return shared result cache
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    public ThumbnailDecoder getThumbnailDecoder() {
+        return thumbnail_decoder;
+    }
+
+    public int getThumbnailSize() {
+        return thumbnail_size;
+    }
+
+    /**
+     * Number of full resolution images decoded, including images decoded again after being released
+     * @return decode count
+     */
+    public synchronized long getDecodeCount() {
+        return decode_count;
+    }
+
+    public synchronized long getThumbnailCount() {
+        return thumbnail_count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d images, %d decoded, %d thumbnails, results: %s",
+                items.size(), decode_count, thumbnail_count, cache);
+    }
+}
@@ -0,0 +1,151 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Separable gaussian blur with a configurable sigma and radius.
+ *
+ * The blur is a separable Convolution, run as a vertical 1D pass followed by a horizontal 1D pass over
+ * the last (2 * radius + 1) rows. All arithmetic is done on integer weights, so the result is the same
+ * as applying the equivalent 2D kernel directly.
+ */
+public class GaussianBlur implements RowFilter {
+
+    /** Total weight of a generated 1D kernel. Kept small enough that the 2D sums fit in an int */
+    private static final int KERNEL_SCALE = 1024;
+
+    /**
+     * The original 5x5 binomial kernel, {1, 4, 6, 4, 1} in each direction divided by 256.
+     * Pixels outside the image count as black and results are truncated, as they always have been.
+     */
+    public static final GaussianBlur PRESET_5X5 = new GaussianBlur(1.0, new int[] {1, 4, 6, 4, 1}, false, false);
+
+    private final double sigma;
+    private final int radius;
+    private final int[] kernel;
+    private final int divisor;
+    // true to repeat the edge pixels past the border, false to treat them as black
+    private final boolean clamp_edges;
+    // true to round the final value, false to truncate it
+    private final boolean round;
+    private final Convolution convolution;
+
+    /**
+     * Creates a gaussian blur. Pixels past the border of the image are taken from the nearest edge pixel.
+     * @param sigma standard deviation of the gaussian
+     * @param radius number of pixels either side of the centre covered by the kernel
+     */
+    public GaussianBlur(double sigma, int radius) {
+        this(sigma, createKernel(sigma, radius), true, true);
+    }
+
+    private GaussianBlur(double sigma, int[] kernel, boolean clamp_edges, boolean round) {
+        int kernel_sum = 0;
+        for (int weight : kernel)
+            kernel_sum += weight;
+
+        this.sigma = sigma;
+        this.radius = (kernel.length - 1) / 2;
+        this.kernel = kernel;
+        this.divisor = kernel_sum * kernel_sum;
+        this.clamp_edges = clamp_edges;
+        this.round = round;
+        this.convolution = Convolution.separable(kernel, kernel, divisor, round,
+                clamp_edges ? Convolution.Border.CLAMP : Convolution.Border.ZERO);
+    }
+
+    /**
+     * Creates a gaussian blur covering three standard deviations either side of the centre
+     * @param sigma standard deviation of the gaussian
+     * @return gaussian blur
+     */
+    public static GaussianBlur withSigma(double sigma) {
+        return new GaussianBlur(sigma, (int) Math.ceil(3 * sigma));
+    }
+
+    /**
+     * Builds a normalised 1D gaussian kernel with integer weights
+     * @param sigma standard deviation of the gaussian
+     * @param radius kernel radius
+     * @return kernel weights
+     */
+    private static int[] createKernel(double sigma, int radius) {
+        if (!(sigma > 0))
+            throw new IllegalArgumentException("Sigma must be greater than 0");
+        if (radius < 0)
+            throw new IllegalArgumentException("Radius must not be negative");
+
+        double[] gaussian = new double[2 * radius + 1];
+        double total = 0;
+        for (int i = -radius; i <= radius; i++) {
+            gaussian[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+            total += gaussian[i + radius];
+        }
+
+        int[] kernel = new int[gaussian.length];
+        for (int i = 0; i < kernel.length; i++)
+            kernel[i] = (int) Math.round(KERNEL_SCALE * gaussian[i] / total);
+        // Very small sigmas can round every weight away apart from the centre
+        kernel[radius] = Math.max(kernel[radius], 1);
+        return kernel;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * Creates the blur that looks the same on a copy of the image scaled by the given factor. Sigma is
+     * scaled exactly and the radius is rounded up, keeping the same treatment of the edges.
+     * @param scale size of the scaled image relative to this one
+     * @return scaled blur, or this blur if the scale is 1
+     */
+    public GaussianBlur scaled(double scale) {
+        if (scale == 1.0)
+            return this;
+        return new GaussianBlur(sigma * scale, createKernel(sigma * scale, (int) Math.ceil(radius * scale)),
+                clamp_edges, round);
+    }
+
+    @Override
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Blurs the source image into the destination image
+     * @param source image to blur
+     * @param destination image to write to, must be the same size as the source
+     */
+    public void filter(BufferedImage source, BufferedImage destination) {
+        filter(source, destination, BandExecutor.SEQUENTIAL);
+    }
+
+    @Override
+    public RowSource open(RowSource input, int width, int height, int start_row) {
+        return convolution.open(input, width, height, start_row);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof GaussianBlur))
+            return false;
+        GaussianBlur other = (GaussianBlur) o;
+        return clamp_edges == other.clamp_edges && round == other.round && Arrays.equals(kernel, other.kernel);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(kernel) * 31 + (clamp_edges ? 2 : 0) + (round ? 1 : 0);
+    }
+
+    /**
+     * Describes everything equals compares, so the description can be used as a key on disk
+     */
+    @Override
+    public String toString() {
+        return "GaussianBlur(kernel " + Arrays.toString(kernel) + (clamp_edges ? ", clamped edges" : "")
+                + (round ? ", rounded" : "") + ")";
+    }
+}
@@ -0,0 +1,186 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Fused 3x3 gradient operator (Sobel or Prewitt) that works on luminance.
+ *
+ * Luminance is computed on the fly into a rolling window of three rows, or copied from a precomputed
+ * luminance plane, and both gradients and the magnitude are produced without creating an intermediate
+ * greyscale image. Each gradient is a 3x3 Convolution of the luminance, sharing the one window, and
+ * pixels outside the image count as black.
+ */
+public class GradientOperator implements RowFilter {
+
+    /** How the two gradients are combined into an edge strength */
+    public enum Norm {
+        /** sqrt(Gx^2 + Gy^2) */
+        EUCLIDEAN,
+        /** |Gx| + |Gy|, cheaper and close enough for display */
+        L1
+    }
+
+    public static final GradientOperator SOBEL = new GradientOperator(
+            new int[][] {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}},
+            new int[][] {{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}},
+            Norm.EUCLIDEAN);
+
+    public static final GradientOperator PREWITT = new GradientOperator(
+            new int[][] {{1, 0, -1}, {1, 0, -1}, {1, 0, -1}},
+            new int[][] {{1, 1, 1}, {0, 0, 0}, {-1, -1, -1}},
+            Norm.EUCLIDEAN);
+
+    // Kernels indexed [x][y], as they have always been written in ImageProcessor
+    private final int[][] kernel_x;
+    private final int[][] kernel_y;
+    private final Convolution convolution_x;
+    private final Convolution convolution_y;
+    private final Norm norm;
+
+    /**
+     * @param kernel_x 3x3 kernel for the first gradient, indexed [x][y]
+     * @param kernel_y 3x3 kernel for the second gradient, indexed [x][y]
+     * @param norm how to combine the two gradients into an edge strength
+     */
+    public GradientOperator(int[][] kernel_x, int[][] kernel_y, Norm norm) {
+        this.kernel_x = kernel_x;
+        this.kernel_y = kernel_y;
+        this.convolution_x = new Convolution(kernel_x);
+        this.convolution_y = new Convolution(kernel_y);
+        this.norm = norm;
+    }
+
+    /**
+     * Creates the same operator with a different way of combining the gradients
+     * @param norm how to combine the two gradients
+     * @return gradient operator
+     */
+    public GradientOperator withNorm(Norm norm) {
+        return norm == this.norm ? this : new GradientOperator(kernel_x, kernel_y, norm);
+    }
+
+    public Norm getNorm() {
+        return norm;
+    }
+
+    @Override
+    public int getRadius() {
+        return 1;
+    }
+
+    @Override
+    public RowSource open(RowSource input, int width, int height, int start_row) {
+        int[] row = new int[width];
+        GradientRows gradients = new GradientRows((y, planes) -> {
+            input.getRow(y, row);
+            int[] luminance = planes[0];
+            for (int x = 0; x < width; x++)
+                luminance[x] = ColourMap.luminance(row[x]);
+        }, width, height, start_row);
+        return (y, output) -> {
+            gradients.calculateRow(y);
+            magnitudes(gradients, output);
+        };
+    }
+
+    /**
+     * Writes the edge strength of a precomputed luminance plane into the destination image
+     * @param luminance luminance values row by row
+     * @param width image width
+     * @param height image height
+     * @param destination image to write to
+     * @param bands executor to run bands of rows on
+     */
+    public void filter(byte[] luminance, int width, int height, BufferedImage destination, BandExecutor bands) {
+        bands.run(height, (start_row, end_row) -> {
+            GradientRows gradients = new GradientRows(planeRows(luminance, width), width, height, start_row);
+            int[] row = new int[width];
+            for (int y = start_row; y < end_row; y++) {
+                gradients.calculateRow(y);
+                magnitudes(gradients, row);
+                PixelAccess.setRow(destination, y, row);
+                Progress.rowCompleted();
+            }
+        });
+    }
+
+    /**
+     * Calculates the signed gradients of a luminance plane
+     * @param luminance luminance values row by row
+     * @param width image width
+     * @param height image height
+     * @param gradient_x array to write the first gradient of each pixel to, row by row
+     * @param gradient_y array to write the second gradient of each pixel to, row by row
+     * @param bands executor to run bands of rows on
+     */
+    public void gradients(byte[] luminance, int width, int height, int[] gradient_x, int[] gradient_y,
+                          BandExecutor bands) {
+        bands.run(height, (start_row, end_row) -> {
+            GradientRows gradients = new GradientRows(planeRows(luminance, width), width, height, start_row);
+            for (int y = start_row; y < end_row; y++) {
+                gradients.calculateRow(y);
+                System.arraycopy(gradients.gradient_x, 0, gradient_x, y * width, width);
+                System.arraycopy(gradients.gradient_y, 0, gradient_y, y * width, width);
+                Progress.rowCompleted();
+            }
+        });
+    }
+
+    /**
+     * Combines the gradients of the current row into grey edge strengths
+     * @param gradients gradients of the current row
+     * @param row array to write packed ARGB values to
+     */
+    private void magnitudes(GradientRows gradients, int[] row) {
+        int[] gradient_x = gradients.gradient_x;
+        int[] gradient_y = gradients.gradient_y;
+        int magnitude;
+        for (int x = 0; x < gradient_x.length; x++) {
+            if (norm == Norm.L1) {
+                magnitude = Math.min(Math.abs(gradient_x[x]) + Math.abs(gradient_y[x]), 255);
+            } else {
+                magnitude = Math.min((int) Math.sqrt(gradient_x[x] * gradient_x[x] + gradient_y[x] * gradient_y[x]), 255);
+            }
+            row[x] = 0xFF000000 | (magnitude << 16) | (magnitude << 8) | magnitude;
+        }
+    }
+
+    /**
+     * Gradients of one row at a time, calculated from a rolling window of three luminance rows
+     */
+    private class GradientRows {
+        private final Convolution.Window luminance;
+        private final int[] gradient_x;
+        private final int[] gradient_y;
+
+        /**
+         * @param source luminance rows, read in order from max(0, start_row - 1)
+         * @param width image width
+         * @param height image height
+         * @param start_row first row to calculate
+         */
+        GradientRows(Convolution.PlaneSource source, int width, int height, int start_row) {
+            this.luminance = convolution_x.window(source, null, 1, width, height, start_row);
+            this.gradient_x = new int[width];
+            this.gradient_y = new int[width];
+        }
+
+        /**
+         * Calculates the gradients of the next row into gradient_x and gradient_y
+         * @param y row to calculate
+         */
+        void calculateRow(int y) {
+            convolution_x.convolve(luminance, 0, y, gradient_x);
+            convolution_y.convolve(luminance, 0, y, gradient_y);
+        }
+    }
+
+    /**
+     * Reads luminance rows from a precomputed plane
+     */
+    private static Convolution.PlaneSource planeRows(byte[] plane, int width) {
+        return (y, planes) -> {
+            int[] luminance = planes[0];
+            for (int x = 0, i = y * width; x < width; x++, i++)
+                luminance[x] = plane[i] & 0xFF;
+        };
+    }
+}
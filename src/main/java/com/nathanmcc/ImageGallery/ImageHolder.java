@@ -1,4 +1,10 @@
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
 
 /**
  * Class to hold the original image loaded in by the user and apply filters to the image
@@ -6,29 +12,87 @@ import java.awt.image.BufferedImage;
 public class ImageHolder {
     private ImageProcessor image_processor;
 
-    //Store processed images to avoid having to recalculate every time
     private BufferedImage original_image;
-    private BufferedImage greyscale_image;
-    private BufferedImage negative_image;
-    private BufferedImage sepia_image;
-    private BufferedImage cartoon_image;
-    private BufferedImage contrast_enhanced_image;
-    private BufferedImage threshold_image;
-    private BufferedImage box_blur_image;
-    private BufferedImage gaussian_blur_image;
-    private BufferedImage prewitt_image;
-    private BufferedImage sobel_image;
-    private BufferedImage preblurred_sobel_image;
-    private BufferedImage inverted_sobel_image;
-    private BufferedImage pixelated_image;
-    private BufferedImage sharpened_image;
-    private BufferedImage harris_corners;
-    private BufferedImage tomasi_corners;
-    private BufferedImage false_colour_image;
+    // Store processed images to avoid having to recalculate every time, keyed by filter and parameters.
+    // Luminance and corner response maps are cached too, so they can be shared between filters and
+    // the corners redrawn for a new threshold without running the detector again.
+    private ResultCache cache;
+    // Added to every key in the memory cache, which may be shared with other images, to tell this image's
+    // results apart from theirs
+    private final Object cache_namespace;
+    // Results kept between runs, or null to keep them in memory only
+    private final DiskCache disk_cache;
+    // Hash of the original image's pixels that results are stored on disk under, calculated when first needed
+    private String source_hash;
+    // Size of the image relative to the full resolution image, below 1 only for previews
+    private final double scale;
+    // Display sized copy of the image, made the first time it is asked for
+    private ImageHolder preview;
+    // Display pyramids of the original image and results, dropped along with the image they were built from
+    private final Map<BufferedImage, ImagePyramid> pyramids = new WeakHashMap<>();
 
     public ImageHolder(BufferedImage original_image){
+        this(original_image, new ImageProcessor());
+    }
+
+    /**
+     * @param original_image image loaded in by the user
+     * @param image_processor processor used to apply filters, may be shared between images
+     */
+    public ImageHolder(BufferedImage original_image, ImageProcessor image_processor){
+        this(original_image, image_processor, (DiskCache) null);
+    }
+
+    /**
+     * @param original_image image loaded in by the user
+     * @param image_processor processor used to apply filters, may be shared between images
+     * @param disk_cache cache that keeps the processed images between runs, or null for none
+     */
+    public ImageHolder(BufferedImage original_image, ImageProcessor image_processor, DiskCache disk_cache){
+        this(original_image, image_processor, new ResultCache(Runtime.getRuntime().maxMemory() / 4, true), disk_cache);
+    }
+
+    /**
+     * @param original_image image loaded in by the user
+     * @param image_processor processor used to apply filters, may be shared between images
+     * @param cache cache for the processed images, with its own memory budget
+     */
+    public ImageHolder(BufferedImage original_image, ImageProcessor image_processor, ResultCache cache){
+        this(original_image, image_processor, cache, null);
+    }
+
+    /**
+     * @param original_image image loaded in by the user
+     * @param image_processor processor used to apply filters, may be shared between images
+     * @param cache cache for the processed images, with its own memory budget
+     * @param disk_cache cache that keeps the processed images between runs, or null for none
+     */
+    public ImageHolder(BufferedImage original_image, ImageProcessor image_processor, ResultCache cache,
+                       DiskCache disk_cache){
+        this(original_image, image_processor, cache, disk_cache, new Object());
+    }
+
+    /**
+     * @param original_image image loaded in by the user
+     * @param image_processor processor used to apply filters, may be shared between images
+     * @param cache cache for the processed images, which may be shared between images
+     * @param disk_cache cache that keeps the processed images between runs, or null for none
+     * @param cache_namespace sets this image's results apart from other images' in a shared cache. Pass the
+     *                        same namespace when the image is loaded again to find the results it left there.
+     */
+    public ImageHolder(BufferedImage original_image, ImageProcessor image_processor, ResultCache cache,
+                       DiskCache disk_cache, Object cache_namespace){
+        this(original_image, image_processor, cache, disk_cache, cache_namespace, 1.0);
+    }
+
+    private ImageHolder(BufferedImage original_image, ImageProcessor image_processor, ResultCache cache,
+                        DiskCache disk_cache, Object cache_namespace, double scale){
         this.original_image = original_image;
-        image_processor = new ImageProcessor();
+        this.image_processor = image_processor;
+        this.cache = cache;
+        this.disk_cache = disk_cache;
+        this.cache_namespace = cache_namespace;
+        this.scale = scale;
     }
 
     /** Returns the original image
@@ -38,16 +102,145 @@ public class ImageHolder {
         return original_image;
     }
 
+    /**
+     * Creates a holder for the same image and cache that applies filters with a different processor,
+     * for example to calculate results in the background without using every core
+     * @param image_processor processor used to apply filters
+     * @return image holder sharing this holder's cache
+     */
+    public ImageHolder withImageProcessor(ImageProcessor image_processor) {
+        ImageHolder holder = new ImageHolder(original_image, image_processor, cache, disk_cache, cache_namespace, scale);
+        holder.source_hash = source_hash;
+        return holder;
+    }
+
+    /**
+     * Returns a holder for a copy of the image scaled down to fit within the given size, whose filters
+     * are fast enough to show straight away. Blur and pixelate kernels are scaled down with the image, so
+     * each result looks like the full resolution result scaled down. Results are cached under the same
+     * keys as full resolution results, in the same cache under a namespace of their own.
+     * @param max_width largest width of the preview
+     * @param max_height largest height of the preview
+     * @return preview holder, or this holder if the image already fits
+     */
+    public synchronized ImageHolder getPreview(int max_width, int max_height) {
+        int width = original_image.getWidth();
+        int height = original_image.getHeight();
+        double preview_scale = Math.min((double) max_width / width, (double) max_height / height);
+        if (preview_scale >= 1.0 || scale != 1.0)
+            return this;
+
+        int preview_width = Math.max(1, (int) Math.round(width * preview_scale));
+        int preview_height = Math.max(1, (int) Math.round(height * preview_scale));
+        if (preview == null || preview.original_image.getWidth() != preview_width
+                || preview.original_image.getHeight() != preview_height) {
+            preview = new ImageHolder(image_processor.downscale(original_image, preview_width, preview_height),
+                    image_processor, cache, disk_cache, Arrays.asList(cache_namespace, preview_width, preview_height),
+                    (double) preview_width / width);
+        }
+        return preview;
+    }
+
+    /**
+     * Returns the original image or one of its results scaled down to fit within the given size. Scaled
+     * copies come from a pyramid of halved images built once for each image, so showing a result again,
+     * even at another size, needs little or no scaling.
+     * @param result original image or a result returned by this holder
+     * @param max_width largest width to display
+     * @param max_height largest height to display
+     * @return image scaled to fit, keeping its aspect ratio, or the image itself if it already fits
+     */
+    public BufferedImage getDisplayImage(BufferedImage result, int max_width, int max_height) {
+        int width = result.getWidth();
+        int height = result.getHeight();
+        double display_scale = Math.min((double) max_width / width, (double) max_height / height);
+        if (display_scale >= 1.0)
+            return result;
+
+        ImagePyramid pyramid;
+        synchronized (pyramids) {
+            pyramid = pyramids.computeIfAbsent(result, image -> new ImagePyramid(image_processor));
+        }
+        return pyramid.getImage(result, Math.max(1, (int) Math.round(width * display_scale)),
+                Math.max(1, (int) Math.round(height * display_scale)));
+    }
+
+    /**
+     * Size of the image relative to the full resolution image
+     * @return 1 for full resolution images, less than 1 for previews
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Returns the cache of processed images, for its size and hit, miss and eviction counts. It may be
+     * shared with other images.
+     * @return result cache
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Checks whether one of this image's results is in the memory cache, without counting a hit or a miss
+     * @param key key of the result, from ResultCache.key
+     * @return true if the result is cached
+     */
+    public boolean isCached(List<Object> key) {
+        return cache.peek(memoryKey(key)) != null;
+    }
+
+    /**
+     * Returns a result from the memory cache, then from the disk cache if there is one, calculating it
+     * if neither has it
+     * @param key key of the result
+     * @param calculate calculates the result
+     * @return result
+     */
+    private <T> T cached(List<Object> key, Supplier<T> calculate) {
+        if (disk_cache == null)
+            return cache.get(memoryKey(key), calculate);
+        return cache.get(memoryKey(key), () -> disk_cache.get(getSourceHash(), key, calculate));
+    }
+
+    /**
+     * Adds the namespace to the end of a key, leaving the filter name first for the metrics. The disk cache
+     * is keyed by the image's pixels instead, so it takes the key without the namespace.
+     */
+    private List<Object> memoryKey(List<Object> key) {
+        List<Object> memory_key = new ArrayList<>(key.size() + 1);
+        memory_key.addAll(key);
+        memory_key.add(cache_namespace);
+        return memory_key;
+    }
+
+    private synchronized String getSourceHash() {
+        if (source_hash == null)
+            source_hash = DiskCache.hash(original_image);
+        return source_hash;
+    }
+
     /**
      * Applies a greyscale filter to the image
      * @return greyscale image
      */
     public BufferedImage applyGreyscaleFilter(){
-        if (greyscale_image != null)
-            return greyscale_image;
+        return cached(ResultCache.key("greyscale"), () -> image_processor.applyGreyscaleFilter(original_image));
+    }
 
-        greyscale_image = image_processor.applyGreyscaleFilter(original_image);
-        return greyscale_image;
+    /**
+     * Returns the luminance of each pixel, taken from the greyscale image if it has already been
+     * calculated and computed directly from the original image otherwise
+     * @return luminance values row by row
+     */
+    private byte[] getLuminance() {
+        return cached(ResultCache.key("luminance"), () -> {
+            BufferedImage greyscale_image = (BufferedImage) cache.peek(memoryKey(ResultCache.key("greyscale")));
+            if (greyscale_image != null)
+                return image_processor.extractLuminance(greyscale_image);
+            return image_processor.calculateLuminance(original_image);
+        });
     }
 
     /**
@@ -56,11 +249,7 @@ public class ImageHolder {
      * @return negative
      */
     public BufferedImage applyNegativeFilter(){
-        if (negative_image != null)
-            return negative_image;
-
-        negative_image = image_processor.applyNegativeFilter(original_image);
-        return negative_image;
+        return cached(ResultCache.key("negative"), () -> image_processor.applyNegativeFilter(original_image));
     }
 
     /**
@@ -68,11 +257,7 @@ public class ImageHolder {
      * @return sepia image
      */
     public BufferedImage applySepiaFilter() {
-        if (sepia_image != null)
-            return sepia_image;
-
-        sepia_image = image_processor.applySepiaFilter(original_image);
-        return sepia_image;
+        return cached(ResultCache.key("sepia"), () -> image_processor.applySepiaFilter(original_image));
     }
 
     /**
@@ -80,11 +265,7 @@ public class ImageHolder {
      * @return cartoon-esque image
      */
     public BufferedImage applyCartoonFilter() {
-        if (cartoon_image != null)
-            return cartoon_image;
-
-        cartoon_image = image_processor.applyCartoonFilter(original_image);
-        return cartoon_image;
+        return cached(ResultCache.key("cartoon"), () -> image_processor.applyCartoonFilter(original_image));
     }
 
     /**
@@ -94,11 +275,7 @@ public class ImageHolder {
      * @return contrast enhanced Image
      */
     public BufferedImage applyContrastEnhancement(){
-        if (contrast_enhanced_image != null)
-            return contrast_enhanced_image;
-
-        contrast_enhanced_image = image_processor.applyContrastEnhancement(original_image);;
-        return contrast_enhanced_image;
+        return cached(ResultCache.key("contrast"), () -> image_processor.applyContrastEnhancement(original_image));
     }
 
     /**
@@ -106,11 +283,7 @@ public class ImageHolder {
      * @return black and white image
      */
     public BufferedImage thresholdImage() {
-        if (threshold_image != null)
-            return threshold_image;
-
-        threshold_image = image_processor.thresholdImage(original_image);
-        return threshold_image;
+        return cached(ResultCache.key("threshold"), () -> image_processor.thresholdImage(original_image));
     }
 
     /**
@@ -118,23 +291,55 @@ public class ImageHolder {
      * @return box blurred image
      */
     public BufferedImage applyBoxBlur() {
-        if (box_blur_image != null)
-            return box_blur_image;
+        return applyBoxBlur(new BoxBlur(5));
+    }
+
+    /**
+     * Applies a box blur to the original image
+     * @param kernel_size width and height of the kernel, must be odd
+     * @param passes number of times to apply the blur, 3 approximates a gaussian blur
+     * @return box blurred image
+     */
+    public BufferedImage applyBoxBlur(int kernel_size, int passes) {
+        return applyBoxBlur(new BoxBlur(kernel_size, passes));
+    }
 
-        box_blur_image = image_processor.applyBoxBlur(original_image);;
-        return box_blur_image;
+    /**
+     * Applies a box blur to the original image. Results are cached for each set of blur parameters.
+     * Previews scale the kernel down with the image.
+     * @param blur blur to apply
+     * @return box blurred image
+     */
+    public BufferedImage applyBoxBlur(BoxBlur blur) {
+        return cached(ResultCache.key("box-blur", blur), () -> image_processor.applyBoxBlur(original_image, blur.scaled(scale)));
     }
 
     /**
-     * Applies a gaussian blur to the original image.
+     * Applies a gaussian blur to the original image using the original 5x5 kernel.
      * @return gaussian blurred image
      */
     public BufferedImage applyGaussianBlur() {
-        if (gaussian_blur_image != null)
-            return gaussian_blur_image;
+        return applyGaussianBlur(GaussianBlur.PRESET_5X5);
+    }
+
+    /**
+     * Applies a gaussian blur with the given sigma and radius to the original image.
+     * @param sigma standard deviation of the gaussian
+     * @param radius kernel radius in pixels
+     * @return gaussian blurred image
+     */
+    public BufferedImage applyGaussianBlur(double sigma, int radius) {
+        return applyGaussianBlur(new GaussianBlur(sigma, radius));
+    }
 
-        gaussian_blur_image = image_processor.applyGaussianBlur(original_image);
-        return gaussian_blur_image;
+    /**
+     * Applies a gaussian blur to the original image. Results are cached for each set of blur parameters.
+     * Previews scale the kernel down with the image.
+     * @param blur blur to apply
+     * @return gaussian blurred image
+     */
+    public BufferedImage applyGaussianBlur(GaussianBlur blur) {
+        return cached(ResultCache.key("gaussian-blur", blur), () -> image_processor.applyGaussianBlur(original_image, blur.scaled(scale)));
     }
 
     /**
@@ -142,11 +347,7 @@ public class ImageHolder {
      * @return
      */
     public BufferedImage applyPrewittOperator() {
-        if (prewitt_image != null)
-            return prewitt_image;
-
-        prewitt_image = image_processor.applyPrewittOperator(original_image);
-        return prewitt_image;
+        return cached(ResultCache.key("prewitt"), () -> image_processor.applyPrewittOperator(original_image, getLuminance(), GradientOperator.Norm.EUCLIDEAN));
     }
 
     /**
@@ -154,11 +355,7 @@ public class ImageHolder {
      * @return edge-detected image
      */
     public BufferedImage applySobelOperator() {
-        if (sobel_image != null)
-            return sobel_image;
-
-        sobel_image = image_processor.applySobelOperator(original_image);
-        return sobel_image;
+        return cached(ResultCache.key("sobel"), () -> image_processor.applySobelOperator(original_image, getLuminance(), GradientOperator.Norm.EUCLIDEAN));
     }
 
     /**
@@ -167,15 +364,15 @@ public class ImageHolder {
      * @return blurred-edge-detected image
      */
     public BufferedImage applyPreblurredSobelOperator() {
-        if (preblurred_sobel_image != null)
-            return preblurred_sobel_image;
-
-        if (gaussian_blur_image == null)
-            gaussian_blur_image = image_processor.applyGaussianBlur(original_image);
-
-        preblurred_sobel_image = image_processor.applySobelOperator(gaussian_blur_image);
-
-        return preblurred_sobel_image;
+        return cached(ResultCache.key("preblurred-sobel"), () -> {
+            // Reuse the blurred image if it has already been made, otherwise stream the blur straight into sobel
+            BufferedImage blurred_image = (BufferedImage) cache.peek(
+                    memoryKey(ResultCache.key("gaussian-blur", GaussianBlur.PRESET_5X5)));
+            if (blurred_image != null)
+                return image_processor.applySobelOperator(blurred_image);
+            return image_processor.applyPipeline(original_image,
+                    new FilterPipeline().gaussianBlur(GaussianBlur.PRESET_5X5.scaled(scale)).sobel());
+        });
     }
 
     /**
@@ -183,15 +380,7 @@ public class ImageHolder {
      * @return inverted-sobel-image
      */
     public BufferedImage applyInvertedSobel(){
-        if (inverted_sobel_image != null)
-            return inverted_sobel_image;
-
-        if (sobel_image == null)
-            sobel_image = image_processor.applySobelOperator(original_image);
-
-        inverted_sobel_image = image_processor.applyNegativeFilter(sobel_image);
-
-        return inverted_sobel_image;
+        return cached(ResultCache.key("inverted-sobel"), () -> image_processor.applyNegativeFilter(applySobelOperator()));
     }
 
     /**
@@ -199,11 +388,7 @@ public class ImageHolder {
      * @return pixelated image
      */
     public BufferedImage pixelate() {
-        if (pixelated_image != null)
-                return pixelated_image;
-
-        pixelated_image = image_processor.pixelate(original_image);
-        return pixelated_image;
+        return cached(ResultCache.key("pixelate"), () -> image_processor.pixelate(original_image, new Pixelate(5).scaled(scale)));
     }
 
     /**
@@ -211,11 +396,7 @@ public class ImageHolder {
      * @return sharpened image
      */
     public BufferedImage sharpen() {
-        if (sharpened_image != null)
-            return sharpened_image;
-
-        sharpened_image = image_processor.sharpen(original_image);
-        return sharpened_image;
+        return cached(ResultCache.key("sharpen"), () -> image_processor.sharpen(original_image));
     }
 
     /**
@@ -223,14 +404,17 @@ public class ImageHolder {
      * @return image with corners detected
      */
     public BufferedImage harrisCorners() {
-        if (harris_corners != null)
-            return harris_corners;
-
-        if (greyscale_image == null)
-            greyscale_image = image_processor.applyGreyscaleFilter(original_image);
+        return cached(ResultCache.key("harris"), () -> harrisCorners(CornerDetector.Measure.HARRIS.getDefaultThreshold()));
+    }
 
-        harris_corners = image_processor.detectHarrisCorners(greyscale_image, original_image);
-        return harris_corners;
+    /**
+     * Applies the Harris Corner Detection algorithm to the image with a custom threshold.
+     * The response map is only calculated once, so changing the threshold just redraws the corners.
+     * @param threshold pixels with an R score above the threshold are corners
+     * @return image with corners detected
+     */
+    public BufferedImage harrisCorners(double threshold) {
+        return detectCorners(CornerDetector.HARRIS, threshold);
     }
 
     /**
@@ -238,25 +422,41 @@ public class ImageHolder {
      * @return image with corners detected
      */
     public BufferedImage shiTomasiCorners(){
-        if (tomasi_corners != null)
-            return tomasi_corners;
-        
-        if (greyscale_image == null)
-            greyscale_image = image_processor.applyGreyscaleFilter(original_image);
-        
-        tomasi_corners = image_processor.detectShiTomasiCorners(greyscale_image, original_image);
-        return tomasi_corners;
+        return cached(ResultCache.key("shi-tomasi"), () -> shiTomasiCorners(CornerDetector.Measure.SHI_TOMASI.getDefaultThreshold()));
+    }
+
+    /**
+     * Applies the Shi-Tomasi Corner Detection algorithm to the image with a custom threshold.
+     * The response map is only calculated once, so changing the threshold just redraws the corners.
+     * @param threshold pixels whose smallest eigenvalue is above the threshold are corners
+     * @return image with corners detected
+     */
+    public BufferedImage shiTomasiCorners(double threshold) {
+        return detectCorners(CornerDetector.SHI_TOMASI, threshold);
+    }
+
+    /**
+     * Draws the corners found by a detector on the original image
+     * @param detector corner detector
+     * @param threshold pixels with a response above the threshold are corners
+     * @return image with corners detected
+     */
+    public BufferedImage detectCorners(CornerDetector detector, double threshold) {
+        return image_processor.drawCorners(getCornerResponse(detector), threshold, original_image);
+    }
+
+    /**
+     * Returns the corner response of every pixel, calculated the first time it is needed for each detector
+     * @param detector corner detector
+     * @return corner response of each pixel row by row
+     */
+    public float[] getCornerResponse(CornerDetector detector) {
+        return cached(ResultCache.key("corner-response", detector), () -> image_processor.calculateCornerResponse(
+                getLuminance(), original_image.getWidth(), original_image.getHeight(), detector));
     }
 
     public BufferedImage falseColour() {
-        if (greyscale_image == null) 
-            greyscale_image = image_processor.applyGreyscaleFilter(original_image);
-        
-        if (false_colour_image != null) 
-            return false_colour_image;
-        
-        false_colour_image = image_processor.convertFalseColour(greyscale_image);
-        return false_colour_image;
+        return cached(ResultCache.key("false-colour"), () -> image_processor.convertFalseColour(applyGreyscaleFilter()));
     }
 
 }
@@ -4,44 +4,167 @@
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /** Class to apply image filters to an image*/
 public class ImageProcessor {
 
+    // Tables for increasing and decreasing the brightness of a pixel in the contrast enhancement
+    private static final LookupTable CONTRAST_BRIGHTEN = LookupTable.brightness(50);
+    private static final LookupTable CONTRAST_DARKEN = LookupTable.brightness(-50);
+
+    /** Sepia filter, applied to one row at a time */
+    static final PointOperation SEPIA = (row, width) -> {
+        int red_val;
+        int green_val;
+        int blue_val;
+        int new_red_val;
+        int new_blue_val;
+        int new_green_val;
+        for (int x = 0; x < width; x++) {
+            red_val = (row[x] >> 16) & 0xFF;
+            green_val = (row[x] >> 8) & 0xFF;
+            blue_val = row[x] & 0xFF;
+
+            //Calculate new RGB values and check bounds
+            new_red_val = (int)(0.393 * red_val + 0.769 * green_val + 0.189 * blue_val);
+            if (new_red_val > 255)
+                new_red_val = 255;
+            new_green_val = (int)(0.349 * red_val + 0.686 * green_val + 0.168 * blue_val);
+            if (new_green_val > 255)
+                new_green_val = 255;
+            new_blue_val = (int)(0.272 * red_val + 0.534 * green_val + 0.131 * blue_val);
+            if (new_blue_val > 255)
+                new_blue_val = 255;
+
+            row[x] = 0xFF000000 | (new_red_val << 16) | (new_green_val << 8) | new_blue_val;
+        }
+    };
+
+    /**
+     * Contrast enhancement, applied to one row at a time. Pixels brighter than average are brightened
+     * and the others are darkened.
+     */
+    static final PointOperation CONTRAST_ENHANCEMENT = (row, width) -> {
+        int pixel;
+        int average_val;
+        for (int x = 0; x < width; x++) {
+            pixel = row[x];
+            average_val = (((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF)) / 3;
+
+            //Check threshold value and increase/decrease pixel brightness accordingly
+            row[x] = average_val > 127 ? CONTRAST_BRIGHTEN.apply(pixel) : CONTRAST_DARKEN.apply(pixel);
+        }
+    };
+
+    // Splits each operation into bands of rows, run in parallel when the parallelism is above 1
+    private BandExecutor bands = BandExecutor.SEQUENTIAL;
+    // Results and intermediate frames are leased from the pool, and intermediates go back when done
+    private BufferPool buffer_pool = BufferPool.getShared();
+
     public ImageProcessor() {}
 
+    /**
+     * Creates an image processor that splits each operation into bands of rows run on a fork/join pool
+     * @param parallelism number of bands to process at once
+     */
+    public ImageProcessor(int parallelism) {
+        setParallelism(parallelism);
+    }
 
     /**
-     * Applies a greyscale filter to the image
+     * Sets how many bands of rows are processed at once. Results are identical for every parallelism level.
+     * @param parallelism number of bands to process at once, 1 processes the whole image on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        setExecutor(null, parallelism);
+    }
+
+    /**
+     * Runs the bands of each operation on the given executor instead of an internal fork/join pool
+     * @param executor executor to run bands on, or null to use an internal fork/join pool
+     * @param parallelism number of bands to process at once
+     */
+    public void setExecutor(Executor executor, int parallelism) {
+        BandExecutor old_bands = bands;
+        bands = parallelism == 1 ? BandExecutor.SEQUENTIAL : new BandExecutor(parallelism, executor);
+        old_bands.shutdown();
+    }
+
+    public int getParallelism() {
+        return bands.getParallelism();
+    }
+
+    /**
+     * Sets the pool results and intermediate frames are leased from. Results are never released by the
+     * processor, callers that are done with one can release it to the pool themselves.
+     * @param buffer_pool pool to lease from
+     */
+    public void setBufferPool(BufferPool buffer_pool) {
+        this.buffer_pool = buffer_pool;
+    }
+
+    public BufferPool getBufferPool() {
+        return buffer_pool;
+    }
+
+    /**
+     * Leases an image for a result from the buffer pool
+     * @param width image width
+     * @param height image height
+     * @param type image type
+     * @param clear true if the caller does not write every pixel
+     * @return image
+     */
+    private BufferedImage leaseImage(int width, int height, int type, boolean clear) {
+        return buffer_pool.leaseImage(width, height, type, clear);
+    }
+
+    /**
+     * Number of pixels in an image, recorded by FilterMetrics to calculate throughput
+     * @param image image
+     * @return width times height
+     */
+    private static long pixels(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight();
+    }
+
+
+    /**
+     * Applies a point operation to every pixel of the image, one row at a time
      * @param original_image original image
-     * @return greyscale image
+     * @param operation operation to apply to each row
+     * @return transformed image
      */
-    public BufferedImage applyGreyscaleFilter(BufferedImage original_image){
-        BufferedImage transformed_image = new BufferedImage(
+    private BufferedImage applyPointOperation(BufferedImage original_image, PointOperation operation) {
+        BufferedImage transformed_image = leaseImage(
                 original_image.getWidth(),
                 original_image.getHeight(),
-                original_image.getType());
-        // RGB values of the current pixel
-        int red_val;
-        int green_val;
-        int blue_val;
-        int greyscale_val;
-        Color c;
-        for (int x = 0; x < transformed_image.getWidth(); x++){
-            for (int y = 0; y < transformed_image.getHeight(); y++){
-                // Fetch current pixel's RGB values and calculate greyscale value
-                c = new Color(original_image.getRGB(x, y));
-                red_val = c.getRed();
-                blue_val = c.getBlue();
-                green_val = c.getGreen();
-                greyscale_val = (int) (0.3 * red_val + 0.6 * green_val + 0.1 * blue_val);
-                c = new Color(greyscale_val, greyscale_val, greyscale_val);
-                transformed_image.setRGB(x, y, c.getRGB());
+                original_image.getType(), false);
+        int width = original_image.getWidth();
+        bands.run(original_image.getHeight(), (start_row, end_row) -> {
+            int[] row = new int[width];
+            for (int y = start_row; y < end_row; y++) {
+                PixelAccess.getRow(original_image, y, row);
+                operation.applyToRow(row, width);
+                PixelAccess.setRow(transformed_image, y, row);
+                Progress.rowCompleted();
             }
-        }
+        });
         return transformed_image;
     }
 
+    /**
+     * Applies a greyscale filter to the image
+     * @param original_image original image
+     * @return greyscale image
+     */
+    public BufferedImage applyGreyscaleFilter(BufferedImage original_image){
+        return FilterMetrics.measure("applyGreyscaleFilter", pixels(original_image),
+                () -> applyPointOperation(original_image, ColourMap.GREYSCALE));
+    }
+
     /**
      * Applies a Negative filter to the original image i.e inverts
      * the RGB values for each pixel
@@ -49,25 +172,8 @@ public class ImageProcessor {
      * @return negative
      */
     public BufferedImage applyNegativeFilter(BufferedImage original_image){
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        int red_val;
-        int blue_val;
-        int green_val;
-        Color c;
-        for (int x = 0; x < original_image.getWidth(); x++){
-            for (int y = 0; y < original_image.getHeight(); y++){
-                c = new Color(original_image.getRGB(x, y));
-                red_val = 255 - c.getRed();
-                green_val = 255 - c.getGreen();
-                blue_val = 255 - c.getBlue();
-                c = new Color(red_val, green_val, blue_val);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+        return FilterMetrics.measure("applyNegativeFilter", pixels(original_image),
+                () -> applyPointOperation(original_image, LookupTable.NEGATIVE));
     }
 
     /**
@@ -76,41 +182,8 @@ public class ImageProcessor {
      * @return sepia image
      */
     public BufferedImage applySepiaFilter(BufferedImage original_image){
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-
-        int red_val;
-        int green_val;
-        int blue_val;
-        int new_red_val;
-        int new_blue_val;
-        int new_green_val;
-        Color c;
-        for (int x = 0; x < original_image.getWidth(); x++){
-            for (int y = 0; y < original_image.getHeight(); y++){
-                c = new Color(original_image.getRGB(x, y));
-                red_val = c.getRed();
-                green_val = c.getGreen();
-                blue_val = c.getBlue();
-
-                //Calculate new RGB values and check bounds
-                new_red_val = (int)(0.393 * red_val + 0.769 * green_val + 0.189 * blue_val);
-                if (new_red_val > 255)
-                    new_red_val = 255;
-                new_green_val = (int)(0.349 * red_val + 0.686 * green_val + 0.168 * blue_val);
-                if (new_green_val > 255)
-                    new_green_val = 255;
-                new_blue_val = (int)(0.272 * red_val + 0.534 * green_val + 0.131 * blue_val);
-                if (new_blue_val > 255)
-                    new_blue_val = 255;
-
-                c = new Color(new_red_val, new_green_val, new_blue_val);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+        return FilterMetrics.measure("applySepiaFilter", pixels(original_image),
+                () -> applyPointOperation(original_image, SEPIA));
     }
 
     /**
@@ -119,43 +192,8 @@ public class ImageProcessor {
      * @return cartoon-esque image
      */
     public BufferedImage applyCartoonFilter(BufferedImage original_image){
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        int red_val;
-        int green_val;
-        int blue_val;
-        Color c;
-        for (int x = 0; x < original_image.getWidth(); x++){
-            for (int y = 0; y < original_image.getHeight(); y++){
-                c = new Color(original_image.getRGB(x, y));
-                red_val = quantizeRGBValue(c.getRed());
-                green_val = quantizeRGBValue(c.getGreen());
-                blue_val = quantizeRGBValue(c.getBlue());
-                c = new Color(red_val, green_val, blue_val);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
-    }
-
-    /**
-     * Quantizes a RGB value as an integer into discrete values
-     * @param n RGB value to be quantized
-     * @return quantized RGB value
-     */
-    private int quantizeRGBValue (int n) {
-        if (n < 85) {
-            n = 0;
-        } else if (n < 170) {
-            n = 85;
-        } else if (n < 255) {
-            n = 170;
-        } else {
-            n = 255;
-        }
-        return n;
+        return FilterMetrics.measure("applyCartoonFilter", pixels(original_image),
+                () -> applyPointOperation(original_image, LookupTable.QUANTIZE));
     }
 
 
@@ -167,50 +205,8 @@ public class ImageProcessor {
      * @return contrast enhanced Image
      */
     public BufferedImage applyContrastEnhancement(BufferedImage original_image){
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        int red_val;
-        int green_val;
-        int blue_val;
-        int average_val;
-        Color c;
-        for (int x = 0; x < original_image.getWidth(); x++){
-            for (int y = 0; y < original_image.getHeight(); y++){
-                c = new Color(original_image.getRGB(x, y));
-                red_val = c.getRed();
-                green_val = c.getGreen();
-                blue_val = c.getBlue();
-                average_val = (red_val + green_val + blue_val)/3;
-
-                //Check threshold value and increase/decrease pixel brightness accordingly
-                if (average_val > 127){
-                    red_val = red_val + 50;
-                    if (red_val > 255)
-                        red_val = 255;
-                    green_val = green_val + 50;
-                    if (green_val > 255)
-                        green_val = 255;
-                    blue_val = blue_val  + 50;
-                    if (blue_val > 255)
-                        blue_val = 255;
-                } else {
-                    red_val = red_val - 50;
-                    if (red_val < 0)
-                        red_val = 0;
-                    green_val = green_val - 50;
-                    if (green_val < 0)
-                        green_val = 0;
-                    blue_val = blue_val  - 50;
-                    if (blue_val < 0)
-                        blue_val = 0;
-                }
-                c = new Color(red_val, green_val, blue_val);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+        return FilterMetrics.measure("applyContrastEnhancement", pixels(original_image),
+                () -> applyPointOperation(original_image, CONTRAST_ENHANCEMENT));
     }
 
 
@@ -220,32 +216,31 @@ public class ImageProcessor {
      * @return black and white image
      */
     public BufferedImage thresholdImage(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        int red_val;
-        int green_val;
-        int blue_val;
-        int greyscale_val;
-        Color c;
-        for (int x = 0; x < original_image.getWidth(); x++) {
-            for (int y = 0; y < original_image.getHeight(); y++) {
-                c = new Color(original_image.getRGB(x, y));
-                red_val = c.getRed();
-                green_val = c.getGreen();
-                blue_val = c.getBlue();
-                greyscale_val = (int)(red_val * 0.3 + green_val * 0.6 + blue_val * 0.1);
-                if (greyscale_val >= 127) {
-                    greyscale_val = 255;
-                } else {
-                    greyscale_val = 0;
-                }
-                c = new Color(greyscale_val, greyscale_val, greyscale_val);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+        return FilterMetrics.measure("thresholdImage", pixels(original_image),
+                () -> applyPointOperation(original_image, ColourMap.THRESHOLD));
+    }
+
+    /**
+     * Applies a lookup table to every channel of the image. Chain tables with LookupTable.andThen
+     * to apply several tone operations in a single pass.
+     * @param original_image original image
+     * @param table lookup table
+     * @return transformed image
+     */
+    public BufferedImage applyLookupTable(BufferedImage original_image, LookupTable table) {
+        return FilterMetrics.measure("applyLookupTable", pixels(original_image),
+                () -> applyPointOperation(original_image, table));
+    }
+
+    /**
+     * Maps the intensity of each pixel to a colour
+     * @param original_image original image
+     * @param colour_map colour map
+     * @return transformed image
+     */
+    public BufferedImage applyColourMap(BufferedImage original_image, ColourMap colour_map) {
+        return FilterMetrics.measure("applyColourMap", pixels(original_image),
+                () -> applyPointOperation(original_image, colour_map));
     }
 
 
@@ -255,92 +250,73 @@ public class ImageProcessor {
      * @return box blurred image
      */
     public BufferedImage applyBoxBlur(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-        int kernel_size = 5;
-        //Kernel rgb sums used to calculate average value of the kernel
-        int kernel_sum_red;
-        int kernel_sum_green;
-        int kernel_sum_blue;
-        for ( int x = 0; x < original_image.getWidth(); x++ ) {
-            for ( int y = 0; y < original_image.getHeight(); y++ ) {
-                kernel_sum_red = 0;
-                kernel_sum_green = 0;
-                kernel_sum_blue = 0;
-                for (int kernel_x = x - (kernel_size - 1)/2; kernel_x <= x + (kernel_size - 1)/2; kernel_x++ ) {
-                    for (int kernel_y = y - (kernel_size - 1)/2; kernel_y <= y + (kernel_size - 1)/2; kernel_y++ ) {
-
-                        //Check kernel coordinate bounds
-                        if (kernel_x >= 0 && kernel_x < original_image.getWidth() && kernel_y >= 0 && kernel_y < original_image.getHeight()) {
-                            c = new Color ( original_image.getRGB(kernel_x, kernel_y) );
-                            kernel_sum_red += c.getRed();
-                            kernel_sum_green += c.getGreen();
-                            kernel_sum_blue += c.getBlue();
-                        }
-                    }
-                }
+        return applyBoxBlur(original_image, new BoxBlur(5));
+    }
 
-                c = new Color(kernel_sum_red/(kernel_size*kernel_size),
-                        kernel_sum_green/(kernel_size*kernel_size),
-                        kernel_sum_blue/(kernel_size*kernel_size));
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+    /**
+     * Applies a box blur to the original image.
+     * @param original_image original image
+     * @param kernel_size width and height of the kernel, must be odd
+     * @param passes number of times to apply the blur, 3 approximates a gaussian blur
+     * @return box blurred image
+     */
+    public BufferedImage applyBoxBlur(BufferedImage original_image, int kernel_size, int passes) {
+        return applyBoxBlur(original_image, new BoxBlur(kernel_size, passes));
+    }
+
+    /**
+     * Applies a box blur to the original image.
+     * @param original_image original image
+     * @param blur blur to apply
+     * @return box blurred image
+     */
+    public BufferedImage applyBoxBlur(BufferedImage original_image, BoxBlur blur) {
+        return FilterMetrics.measure("applyBoxBlur", pixels(original_image), () -> {
+            BufferedImage transformed_image = leaseImage(
+                    original_image.getWidth(),
+                    original_image.getHeight(),
+                    original_image.getType(), false);
+            blur.filter(original_image, transformed_image, bands);
+            return transformed_image;
+        });
     }
 
 
     /**
-     * Applies a gaussian blur to the original image.
+     * Applies a gaussian blur to the original image using the original 5x5 kernel.
      * @param original_image original image
      * @return gaussian blurred image
      */
     public BufferedImage applyGaussianBlur(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-        int kernel_size = 5; //Kernel size must be odd
-        int gaussian_factor = 256; // value to divide gaussian kernel by
-        int[][] gaussian_kernel = { {1, 4, 6, 4, 1}, {4, 16, 24, 16, 4}, {6, 24, 36, 24, 6}, {4, 16, 24, 16, 4}, {1, 4, 6, 4, 1} };
-        //Kernel rgb sums used to calculate new pixel values
-        int kernel_sum_red;
-        int kernel_sum_green;
-        int kernel_sum_blue;
-
-        //Kernel position on the image
-        int kernel_x;
-        int kernel_y;
-        for (int x = 0; x < original_image.getWidth(); x++ ) {
-            for (int y = 0; y < original_image.getHeight(); y++) {
-                //Initialize sums
-                kernel_sum_red = 0;
-                kernel_sum_green = 0;
-                kernel_sum_blue = 0;
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        kernel_x = x - (kernel_size - 1)/2 + i;
-                        kernel_y = y - (kernel_size - 1)/2 + j;
-                        if (kernel_x >= 0 && kernel_x < original_image.getWidth() && kernel_y >= 0 && kernel_y < original_image.getHeight()) {
-                            c = new Color ( original_image.getRGB(kernel_x, kernel_y) );
-                            //Add weighted pixel values to running kernel sums
-                            kernel_sum_red += gaussian_kernel[i][j] * c.getRed();
-                            kernel_sum_green += gaussian_kernel[i][j] * c.getGreen();
-                            kernel_sum_blue += gaussian_kernel[i][j] * c.getBlue();
-                        }
-                    }
-                }
-                c = new Color(kernel_sum_red/(gaussian_factor),
-                        kernel_sum_green/(gaussian_factor),
-                        kernel_sum_blue/(gaussian_factor));
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+        return applyGaussianBlur(original_image, GaussianBlur.PRESET_5X5);
+    }
+
+    /**
+     * Applies a gaussian blur with the given sigma and radius to the original image.
+     * @param original_image original image
+     * @param sigma standard deviation of the gaussian
+     * @param radius kernel radius in pixels
+     * @return gaussian blurred image
+     */
+    public BufferedImage applyGaussianBlur(BufferedImage original_image, double sigma, int radius) {
+        return applyGaussianBlur(original_image, new GaussianBlur(sigma, radius));
+    }
+
+    /**
+     * Applies a gaussian blur to the original image.
+     * @param original_image original image
+     * @param blur blur to apply
+     * @return gaussian blurred image
+     */
+    public BufferedImage applyGaussianBlur(BufferedImage original_image, GaussianBlur blur) {
+        return FilterMetrics.measure("applyGaussianBlur", pixels(original_image), () -> {
+            BufferedImage transformed_image = leaseImage(
+                    original_image.getWidth(),
+                    original_image.getHeight(),
+                    original_image.getType(), false);
+            blur.filter(original_image, transformed_image, bands);
+            return transformed_image;
+        });
     }
 
     /**
@@ -349,55 +325,30 @@ public class ImageProcessor {
      * @return edge-detected image
      */
     public BufferedImage applyPrewittOperator(BufferedImage original_image) {
-        BufferedImage greyscale_image = this.applyGreyscaleFilter(original_image); // Convert image to greyscale
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-
-        int[][] prewitt_kernel_x = {{1, 0, -1}, {1, 0, -1}, {1, 0, -1}};
-        int[][] prewitt_kernel_y = {{1, 1, 1}, {0, 0, 0}, {-1, -1, -1}};
-        int kernel_size = 3;
-        //Kernel sums
-        int kernel_sum_x = 0;
-        int kernel_sum_y = 0;
-        //Current pixel in the kernel
-        int current_pixel_in_kernel_x;
-        int current_pixel_in_kernel_y;
-        int final_pixel_value;
-
-        for (int x = 0; x < greyscale_image.getWidth(); x++) {
-            for (int y = 0; y < greyscale_image.getHeight(); y++) {
-                kernel_sum_x = 0;
-                kernel_sum_y = 0;
-
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        //Change current coordinates in the kernel to image coordinates
-                        current_pixel_in_kernel_x = x - (kernel_size - 1)/2 + i;
-                        current_pixel_in_kernel_y = y - (kernel_size - 1)/2 + j;
-
-                        //Check pixel coordinate is in image bounds
-                        if (current_pixel_in_kernel_x >= 0 && current_pixel_in_kernel_x < greyscale_image.getWidth() &&
-                                current_pixel_in_kernel_y >= 0 && current_pixel_in_kernel_y < greyscale_image.getHeight()) {
-
-                            //Get pixel's greyscale value
-                            c = new Color ( greyscale_image.getRGB(current_pixel_in_kernel_x, current_pixel_in_kernel_y) );
-                            //Add weighted pixel values to running kernel sums
-                            kernel_sum_x += prewitt_kernel_x[i][j] * c.getRed();
-                            kernel_sum_y += prewitt_kernel_y[i][j] * c.getRed();
-                        }
-                    }
-                }
-                final_pixel_value = (int) (Math.sqrt(kernel_sum_x * kernel_sum_x + kernel_sum_y * kernel_sum_y));
-                final_pixel_value = map(final_pixel_value); // Ensure the pixel value is in the range [0 -255]
+        return applyPrewittOperator(original_image, GradientOperator.Norm.EUCLIDEAN);
+    }
 
-                c = new Color(final_pixel_value, final_pixel_value, final_pixel_value);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+    /**
+     * Applies the prewitt edge-detection operator
+     * @param original_image original image
+     * @param norm how to combine the two gradients
+     * @return edge-detected image
+     */
+    public BufferedImage applyPrewittOperator(BufferedImage original_image, GradientOperator.Norm norm) {
+        return FilterMetrics.measure("applyPrewittOperator", pixels(original_image),
+                () -> applyGradientOperator(original_image, GradientOperator.PREWITT, norm));
+    }
+
+    /**
+     * Applies the prewitt edge-detection operator to a precomputed luminance plane
+     * @param original_image original image, only used for its size and type
+     * @param luminance luminance plane from calculateLuminance or extractLuminance
+     * @param norm how to combine the two gradients
+     * @return edge-detected image
+     */
+    public BufferedImage applyPrewittOperator(BufferedImage original_image, byte[] luminance, GradientOperator.Norm norm) {
+        return FilterMetrics.measure("applyPrewittOperator", pixels(original_image),
+                () -> applyGradientOperator(original_image, luminance, GradientOperator.PREWITT, norm));
     }
 
 
@@ -407,69 +358,147 @@ public class ImageProcessor {
      * @return edge-detected image
      */
     public BufferedImage applySobelOperator(BufferedImage original_image) {
-        BufferedImage greyscale_image = this.applyGreyscaleFilter(original_image); // Convert image to greyscale
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-
-        int[][] sobel_kernel_x = {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}};
-        int[][] sobel_kernel_y = {{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}};
-        int kernel_size = 3;
-        //Kernel sums
-        int kernel_sum_x = 0;
-        int kernel_sum_y = 0;
-        //Current pixel in the kernel
-        int current_pixel_in_kernel_x;
-        int current_pixel_in_kernel_y;
-        int final_pixel_value;
-
-        for (int x = 0; x < greyscale_image.getWidth(); x++) {
-            for (int y = 0; y < greyscale_image.getHeight(); y++) {
-                kernel_sum_x = 0;
-                kernel_sum_y = 0;
-
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        //Change current coordinates in the kernel to image coordinates
-                        current_pixel_in_kernel_x = x - (kernel_size - 1)/2 + i;
-                        current_pixel_in_kernel_y = y - (kernel_size - 1)/2 + j;
-
-                        //Check pixel coordinate is in image bounds
-                        if (current_pixel_in_kernel_x >= 0 && current_pixel_in_kernel_x < greyscale_image.getWidth() &&
-                                current_pixel_in_kernel_y >= 0 && current_pixel_in_kernel_y < greyscale_image.getHeight()) {
-
-                            //Get pixel's greyscale value
-                            c = new Color ( greyscale_image.getRGB(current_pixel_in_kernel_x, current_pixel_in_kernel_y) );
-                            //Add weighted pixel values to running kernel sums
-                            kernel_sum_x += sobel_kernel_x[i][j] * c.getRed();
-                            kernel_sum_y += sobel_kernel_y[i][j] * c.getRed();
-                        }
-                    }
-                }
-                final_pixel_value = (int) (Math.sqrt(kernel_sum_x * kernel_sum_x + kernel_sum_y * kernel_sum_y));
-                final_pixel_value = map(final_pixel_value); // Ensure the pixel value is in the range [0 -255]
+        return applySobelOperator(original_image, GradientOperator.Norm.EUCLIDEAN);
+    }
 
-                c = new Color(final_pixel_value, final_pixel_value, final_pixel_value);
-                transformed_image.setRGB(x, y, c.getRGB());
+    /**
+     * Applies the Sobel operator to the original image for edge detection
+     * @param original_image original image
+     * @param norm how to combine the two gradients
+     * @return edge-detected image
+     */
+    public BufferedImage applySobelOperator(BufferedImage original_image, GradientOperator.Norm norm) {
+        return FilterMetrics.measure("applySobelOperator", pixels(original_image),
+                () -> applyGradientOperator(original_image, GradientOperator.SOBEL, norm));
+    }
+
+    /**
+     * Applies the Sobel operator to a precomputed luminance plane
+     * @param original_image original image, only used for its size and type
+     * @param luminance luminance plane from calculateLuminance or extractLuminance
+     * @param norm how to combine the two gradients
+     * @return edge-detected image
+     */
+    public BufferedImage applySobelOperator(BufferedImage original_image, byte[] luminance, GradientOperator.Norm norm) {
+        return FilterMetrics.measure("applySobelOperator", pixels(original_image),
+                () -> applyGradientOperator(original_image, luminance, GradientOperator.SOBEL, norm));
+    }
+
+    /**
+     * Runs a gradient operator over the luminance of the image, computed on the fly
+     * @param original_image original image
+     * @param operator gradient operator
+     * @param norm how to combine the two gradients
+     * @return edge-detected image
+     */
+    private BufferedImage applyGradientOperator(BufferedImage original_image, GradientOperator operator,
+                                                GradientOperator.Norm norm) {
+        if (!storesGreyscaleExactly(original_image.getType())) {
+            byte[] luminance = calculateLuminance(original_image);
+            try {
+                return applyGradientOperator(original_image, luminance, operator, norm);
+            } finally {
+                buffer_pool.release(luminance);
             }
         }
+
+        BufferedImage transformed_image = leaseImage(
+                original_image.getWidth(),
+                original_image.getHeight(),
+                original_image.getType(), false);
+        operator.withNorm(norm).filter(original_image, transformed_image, bands);
         return transformed_image;
     }
 
     /**
-     * Ensures an integer is in the range 0 - 255
-     * @param n number to be mapped
-     * @return number in [0, 255]
+     * Runs a gradient operator over a precomputed luminance plane
+     * @param original_image original image, only used for its size and type
+     * @param luminance luminance plane
+     * @param operator gradient operator
+     * @param norm how to combine the two gradients
+     * @return edge-detected image
      */
-    private int map(int n){
-        if (n > 255) {
-            n = 255;
-        }else if (n < 0) {
-            n = 0;
+    private BufferedImage applyGradientOperator(BufferedImage original_image, byte[] luminance,
+                                                GradientOperator operator, GradientOperator.Norm norm) {
+        int width = original_image.getWidth();
+        int height = original_image.getHeight();
+        if (luminance.length != width * height)
+            throw new IllegalArgumentException("Luminance plane does not match the image size");
+        BufferedImage transformed_image = leaseImage(width, height, original_image.getType(), false);
+        operator.withNorm(norm).filter(luminance, width, height, transformed_image, bands);
+        return transformed_image;
+    }
+
+    /**
+     * Calculates the luminance of every pixel, the same values the greyscale filter produces
+     * @param original_image original image
+     * @return luminance values row by row
+     */
+    public byte[] calculateLuminance(BufferedImage original_image) {
+        return FilterMetrics.measure("calculateLuminance", pixels(original_image), () -> {
+            // Grey levels stored in these images come back slightly different, so go through the greyscale image
+            if (!storesGreyscaleExactly(original_image.getType())) {
+                BufferedImage greyscale_image = applyGreyscaleFilter(original_image);
+                byte[] luminance = extractLuminance(greyscale_image);
+                buffer_pool.release(greyscale_image);
+                return luminance;
+            }
+
+            int width = original_image.getWidth();
+            byte[] luminance = buffer_pool.leaseBytes(width * original_image.getHeight());
+            bands.run(original_image.getHeight(), (start_row, end_row) -> {
+                int[] row = new int[width];
+                for (int y = start_row; y < end_row; y++) {
+                    PixelAccess.getRow(original_image, y, row);
+                    for (int x = 0, i = y * width; x < width; x++, i++)
+                        luminance[i] = (byte) ColourMap.luminance(row[x]);
+                    Progress.rowCompleted();
+                }
+            });
+            return luminance;
+        });
+    }
+
+    /**
+     * Checks whether an image type reads back a grey level exactly as it was written
+     * @param type BufferedImage type
+     * @return true for the 8 bits per channel RGB types
+     */
+    private boolean storesGreyscaleExactly(int type) {
+        switch (type) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+                return true;
+            default:
+                return false;
         }
-        return n;
+    }
+
+    /**
+     * Copies the luminance out of an image that has already been converted to greyscale
+     * @param greyscale_image image returned by applyGreyscaleFilter
+     * @return luminance values row by row
+     */
+    public byte[] extractLuminance(BufferedImage greyscale_image) {
+        return FilterMetrics.measure("extractLuminance", pixels(greyscale_image), () -> {
+            int width = greyscale_image.getWidth();
+            byte[] luminance = buffer_pool.leaseBytes(width * greyscale_image.getHeight());
+            bands.run(greyscale_image.getHeight(), (start_row, end_row) -> {
+                int[] row = new int[width];
+                for (int y = start_row; y < end_row; y++) {
+                    PixelAccess.getRow(greyscale_image, y, row);
+                    for (int x = 0, i = y * width; x < width; x++, i++)
+                        luminance[i] = (byte) (row[x] >> 16);
+                    Progress.rowCompleted();
+                }
+            });
+            return luminance;
+        });
     }
 
     /**
@@ -479,38 +508,89 @@ public class ImageProcessor {
      * @return
      */
     public BufferedImage pixelate(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-        int kernel_size = 5; //Kernel size should always be an odd number
-        int current_pixel_in_kernel_x;
-        int current_pixel_in_kernel_y;
-
-        for ( int x = (kernel_size - 1)/2 ; x < original_image.getWidth() - (kernel_size - 1)/2; x += kernel_size) {
-            for ( int y = (kernel_size - 1)/2; y < original_image.getHeight() - (kernel_size - 1)/2; y += kernel_size) {
-
-                c = new Color( original_image.getRGB(x, y));
-
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        //Change current coordinates in the kernel to image coordinates
-                        current_pixel_in_kernel_x = x - (kernel_size - 1) / 2 + i;
-                        current_pixel_in_kernel_y = y - (kernel_size - 1) / 2 + j;
+        return pixelate(original_image, new Pixelate(5));
+    }
 
-                        //Check pixel coordinate is in image bounds
-                        if (current_pixel_in_kernel_x >= 0 && current_pixel_in_kernel_x < original_image.getWidth() &&
-                                current_pixel_in_kernel_y >= 0 && current_pixel_in_kernel_y < original_image.getHeight()) {
+    /**
+     * Pixelates an image with the given block size
+     * @param original_image original image
+     * @param pixelate pixelate filter to apply
+     * @return pixelated image
+     */
+    public BufferedImage pixelate(BufferedImage original_image, Pixelate pixelate) {
+        return FilterMetrics.measure("pixelate", pixels(original_image), () -> {
+            BufferedImage transformed_image = leaseImage(
+                    original_image.getWidth(),
+                    original_image.getHeight(),
+                    original_image.getType(), true);
+            pixelate.filter(original_image, transformed_image, bands);
+            return transformed_image;
+        });
+    }
 
-                            transformed_image.setRGB(current_pixel_in_kernel_x, current_pixel_in_kernel_y, c.getRGB());
+    /**
+     * Scales an image down by averaging the block of pixels that each new pixel covers
+     * @param original_image original image
+     * @param new_width width of the scaled image, no more than the original width
+     * @param new_height height of the scaled image, no more than the original height
+     * @return scaled image of the same type as the original
+     */
+    public BufferedImage downscale(BufferedImage original_image, int new_width, int new_height) {
+        return FilterMetrics.measure("downscale", pixels(original_image), () -> {
+            int width = original_image.getWidth();
+            int height = original_image.getHeight();
+            if (new_width < 1 || new_height < 1 || new_width > width || new_height > height)
+                throw new IllegalArgumentException("Scaled size must be between 1x1 and the original size");
+
+            BufferedImage transformed_image = leaseImage(new_width, new_height, original_image.getType(), false);
+            // First source column of each new column, and the column after the last one
+            int[] column_starts = new int[new_width + 1];
+            for (int x = 0; x <= new_width; x++)
+                column_starts[x] = (int) ((long) x * width / new_width);
+
+            bands.run(new_height, (start_row, end_row) -> {
+                int[] row = new int[width];
+                int[] scaled_row = new int[new_width];
+                long[] alpha_sums = new long[new_width];
+                long[] red_sums = new long[new_width];
+                long[] green_sums = new long[new_width];
+                long[] blue_sums = new long[new_width];
+                int pixel;
+                long count;
+
+                for (int y = start_row; y < end_row; y++) {
+                    int first_row = (int) ((long) y * height / new_height);
+                    int last_row = (int) ((long) (y + 1) * height / new_height);
+                    for (int source_y = first_row; source_y < last_row; source_y++) {
+                        PixelAccess.getRow(original_image, source_y, row);
+                        for (int x = 0; x < new_width; x++) {
+                            for (int source_x = column_starts[x]; source_x < column_starts[x + 1]; source_x++) {
+                                pixel = row[source_x];
+                                alpha_sums[x] += pixel >>> 24;
+                                red_sums[x] += (pixel >> 16) & 0xFF;
+                                green_sums[x] += (pixel >> 8) & 0xFF;
+                                blue_sums[x] += pixel & 0xFF;
+                            }
                         }
                     }
-                }
-            }
-        }
 
-        return transformed_image;
+                    for (int x = 0; x < new_width; x++) {
+                        count = (long) (last_row - first_row) * (column_starts[x + 1] - column_starts[x]);
+                        scaled_row[x] = (int) ((alpha_sums[x] + count / 2) / count) << 24
+                                | (int) ((red_sums[x] + count / 2) / count) << 16
+                                | (int) ((green_sums[x] + count / 2) / count) << 8
+                                | (int) ((blue_sums[x] + count / 2) / count);
+                        alpha_sums[x] = 0;
+                        red_sums[x] = 0;
+                        green_sums[x] = 0;
+                        blue_sums[x] = 0;
+                    }
+                    PixelAccess.setRow(transformed_image, y, scaled_row);
+                    Progress.rowCompleted();
+                }
+            });
+            return transformed_image;
+        });
     }
 
     /**
@@ -519,274 +599,191 @@ public class ImageProcessor {
      * @return sharpened Image
      */
     public BufferedImage sharpen(BufferedImage original_image){
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-        int[][] sharpen_kernel = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
-        int kernel_size = 3;
-        //Running sum in the kernel
-        int new_red_value;
-        int new_green_value;
-        int new_blue_value;
-
-        //Current pixel in the kernel
-        int current_pixel_in_kernel_x;
-        int current_pixel_in_kernel_y;
-
-        for (int x = 0; x < original_image.getWidth(); x++) {
-            for (int y = 0; y < original_image.getHeight(); y++) {
-                new_red_value = 0;
-                new_green_value = 0;
-                new_blue_value = 0;
-
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        //Change current coordinates in the kernel to image coordinates
-                        current_pixel_in_kernel_x = x - (kernel_size - 1)/2 + i;
-                        current_pixel_in_kernel_y = y - (kernel_size - 1)/2 + j;
-
-                        //Check pixel coordinate is in image bounds
-                        if (current_pixel_in_kernel_x >= 0 && current_pixel_in_kernel_x < original_image.getWidth() &&
-                                current_pixel_in_kernel_y >= 0 && current_pixel_in_kernel_y < original_image.getHeight()) {
-
-                            c = new Color ( original_image.getRGB(current_pixel_in_kernel_x, current_pixel_in_kernel_y) );
-                            //Add weighted pixel values to running kernel sums
-                            new_red_value += sharpen_kernel[i][j] * c.getRed();
-                            new_green_value += sharpen_kernel[i][j] * c.getGreen();
-                            new_blue_value += sharpen_kernel[i][j] * c.getBlue();
-                        }
-                    }
-                }
-                // Ensure the pixels RGB values are in the range [0 -255]
-                new_red_value = map(new_red_value);
-                new_green_value = map(new_green_value);
-                new_blue_value = map(new_blue_value);
-
-                c = new Color(new_red_value, new_green_value, new_blue_value);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+        return FilterMetrics.measure("sharpen", pixels(original_image), () -> {
+            BufferedImage transformed_image = leaseImage(
+                    original_image.getWidth(),
+                    original_image.getHeight(),
+                    original_image.getType(), false);
+            Convolution.SHARPEN.filter(original_image, transformed_image, bands);
+            return transformed_image;
+        });
     }
 
-
     /**
-     * Calculates the partial derivative in the x direction using the sobel kernel
-     * @param original_image original geryscale image
-     * @return the image's partial derivate in the x direction
+     * Convolves the original image with any kernel
+     * @param original_image original image
+     * @param convolution kernel, divisor and border to convolve with
+     * @return convolved image
      */
-    private BufferedImage calculateXPartialDerivative(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-
-        int[][] sobel_kernel_x = {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}};
-        int kernel_size = sobel_kernel_x.length;;
-        //Kernel sum
-        int kernel_sum_x = 0;
-        //Current pixel in the kernel
-        int current_pixel_in_kernel_x;
-        int current_pixel_in_kernel_y;
-        int final_pixel_value;
-
-        for (int x = 0; x < original_image.getWidth(); x++) {
-            for (int y = 0; y < original_image.getHeight(); y++) {
-                kernel_sum_x = 0;
-
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        //Change current coordinates in the kernel to image coordinates
-                        current_pixel_in_kernel_x = x - (kernel_size - 1)/2 + i;
-                        current_pixel_in_kernel_y = y - (kernel_size - 1)/2 + j;
-
-                        //Check pixel coordinate is in image bounds
-                        if (current_pixel_in_kernel_x >= 0 && current_pixel_in_kernel_x < original_image.getWidth() &&
-                                current_pixel_in_kernel_y >= 0 && current_pixel_in_kernel_y < original_image.getHeight()) {
-
-                            //Get pixel's greyscale value
-                            c = new Color ( original_image.getRGB(current_pixel_in_kernel_x, current_pixel_in_kernel_y) );
-                            //Add weighted pixel values to running kernel sums
-                            kernel_sum_x += sobel_kernel_x[i][j] * c.getRed();
-                        }
-                    }
-                }
-                final_pixel_value = map(kernel_sum_x); // Ensure the pixel value is in the range [0 -255]
-
-                c = new Color(final_pixel_value, final_pixel_value, final_pixel_value);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+    public BufferedImage applyConvolution(BufferedImage original_image, Convolution convolution) {
+        return FilterMetrics.measure("applyConvolution", pixels(original_image), () -> {
+            BufferedImage transformed_image = leaseImage(
+                    original_image.getWidth(),
+                    original_image.getHeight(),
+                    original_image.getType(), false);
+            convolution.filter(original_image, transformed_image, bands);
+            return transformed_image;
+        });
     }
 
     /**
-     * Calculates the partial derivative in the y direction using the sobel kernel
-     * @param original_image original greyscale image
-     * @return the image's partial derivate in the y direction
+     * Runs a pipeline of filters over the image in a single pass, without creating an image for each step
+     * @param original_image original image
+     * @param pipeline filters to apply
+     * @return transformed image
      */
-    private BufferedImage calculateYPartialDerivative(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-
-        int[][] sobel_kernel_y = {{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}};
-        int kernel_size = sobel_kernel_y.length;;
-        //Kernel sum
-        int kernel_sum_y = 0;
-        //Current pixel in the kernel
-        int current_pixel_in_kernel_x;
-        int current_pixel_in_kernel_y;
-        int final_pixel_value;
-
-        for (int x = 0; x < original_image.getWidth(); x++) {
-            for (int y = 0; y < original_image.getHeight(); y++) {
-                kernel_sum_y = 0;
-
-                for (int i = 0; i < kernel_size; i++) {
-                    for (int j = 0; j < kernel_size; j++) {
-                        //Change current coordinates in the kernel to image coordinates
-                        current_pixel_in_kernel_x = x - (kernel_size - 1)/2 + i;
-                        current_pixel_in_kernel_y = y - (kernel_size - 1)/2 + j;
-
-                        //Check pixel coordinate is in image bounds
-                        if (current_pixel_in_kernel_x >= 0 && current_pixel_in_kernel_x < original_image.getWidth() &&
-                                current_pixel_in_kernel_y >= 0 && current_pixel_in_kernel_y < original_image.getHeight()) {
-
-                            //Get pixel's greyscale value
-                            c = new Color ( original_image.getRGB(current_pixel_in_kernel_x, current_pixel_in_kernel_y) );
-                            //Add weighted pixel values to running kernel sums
-                            kernel_sum_y += sobel_kernel_y[i][j] * c.getRed();
-                        }
-                    }
-                }
-                final_pixel_value = map(kernel_sum_y); // Ensure the pixel value is in the range [0 -255]
-
-                c = new Color(final_pixel_value, final_pixel_value, final_pixel_value);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+    public BufferedImage applyPipeline(BufferedImage original_image, FilterPipeline pipeline) {
+        return FilterMetrics.measure("applyPipeline", pixels(original_image), () -> {
+            BufferedImage transformed_image = leaseImage(
+                    original_image.getWidth(),
+                    original_image.getHeight(),
+                    original_image.getType(), false);
+            pipeline.filter(original_image, transformed_image, bands);
+            return transformed_image;
+        });
     }
 
+
     /**
-     * Calculates the average intensity in a 3x3 window with (x, y) has the centre pixel
-     * @param image image assumed to be a greyscale image
-     * @param x x-coordinate of the centre of the window
-     * @param y y-coordinate of the centre of the window
-     * @param square true if the intensities should be sqaured i.e calculate the average of the sqaure of the intensities
-     * @return the average intensity of the window.
+     * Calculates the signed partial derivatives in the x and y directions using the sobel kernels
+     * @param luminance luminance values row by row
+     * @param width image width
+     * @param height image height
+     * @return the x derivative and the y derivative, each with one value per pixel row by row
      */
-    private int calculateAverageWindowIntensity(BufferedImage image, int x, int y, boolean square) {
-        int average_intensity = 0;
-
-        if (square) {
-            average_intensity += ((new Color(image.getRGB(x - 1, y - 1))).getRed()) * ((new Color(image.getRGB(x - 1, y - 1))).getRed());
-            average_intensity += ((new Color(image.getRGB(x    , y - 1))).getRed()) * ((new Color(image.getRGB(x    , y - 1))).getRed());
-            average_intensity += ((new Color(image.getRGB(x + 1, y - 1))).getRed()) * ((new Color(image.getRGB(x + 1, y - 1))).getRed());
-
-            average_intensity += ((new Color(image.getRGB(x - 1, y    ))).getRed()) * ((new Color(image.getRGB(x - 1, y    ))).getRed());
-            average_intensity += ((new Color(image.getRGB(x    , y    ))).getRed()) * ((new Color(image.getRGB(x    , y    ))).getRed());
-            average_intensity += ((new Color(image.getRGB(x + 1, y    ))).getRed()) * ((new Color(image.getRGB(x + 1, y    ))).getRed());
+    private int[][] calculatePartialDerivatives(byte[] luminance, int width, int height) {
+        int[] x_image_derivative = buffer_pool.leaseInts(width * height);
+        int[] y_image_derivative = buffer_pool.leaseInts(width * height);
+        GradientOperator.SOBEL.gradients(luminance, width, height, x_image_derivative, y_image_derivative, bands);
+        return new int[][] {x_image_derivative, y_image_derivative};
+    }
 
-            average_intensity += ((new Color(image.getRGB(x - 1, y + 1))).getRed()) * ((new Color(image.getRGB(x - 1, y + 1))).getRed());
-            average_intensity += ((new Color(image.getRGB(x    , y + 1))).getRed()) * ((new Color(image.getRGB(x    , y + 1))).getRed());
-            average_intensity += ((new Color(image.getRGB(x + 1, y + 1))).getRed()) * ((new Color(image.getRGB(x + 1, y + 1))).getRed());
+    /**
+     * Calculates the corner response of every pixel
+     * @param luminance luminance values row by row
+     * @param width image width
+     * @param height image height
+     * @param detector corner detector
+     * @return corner response of each pixel row by row
+     */
+    public float[] calculateCornerResponse(byte[] luminance, int width, int height, CornerDetector detector) {
+        return FilterMetrics.measure("calculateCornerResponse", (long) width * height, () -> {
+            int[][] derivatives = calculatePartialDerivatives(luminance, width, height);
+            float[] response = detector.response(derivatives[0], derivatives[1], width, height,
+                    buffer_pool.leaseFloats(width * height), bands);
+            buffer_pool.release(derivatives[0]);
+            buffer_pool.release(derivatives[1]);
+            return response;
+        });
+    }
 
-        } else {
-            average_intensity += (new Color(image.getRGB(x - 1, y - 1))).getRed();
-            average_intensity += (new Color(image.getRGB(x    , y - 1))).getRed();
-            average_intensity += (new Color(image.getRGB(x + 1, y - 1))).getRed();
 
-            average_intensity += (new Color(image.getRGB(x - 1, y    ))).getRed();
-            average_intensity += (new Color(image.getRGB(x    , y    ))).getRed();
-            average_intensity += (new Color(image.getRGB(x + 1, y    ))).getRed();
+    /**
+     * Draws the output of a corner detector: a green square centred on each corner and the original image
+     * everywhere else. Squares are drawn as if the pixels were visited column by column, so a pixel is only
+     * green if a square from a corner to its right, or below it in the same column, covers it.
+     * @param response corner response of each pixel, row by row
+     * @param threshold pixels with a response above the threshold are corners
+     * @param original_image original image
+     * @return image with corners drawn on it
+     */
+    public BufferedImage drawCorners(float[] response, double threshold, BufferedImage original_image) {
+        return FilterMetrics.measure("drawCorners", pixels(original_image), () -> {
+            int width = original_image.getWidth();
+            int height = original_image.getHeight();
+            int radius = CornerDetector.MARKER_RADIUS;
+            int green = new Color(0, 255, 0).getRGB();
+            // Pixels that are never drawn are left black
+            BufferedImage transformed_image = leaseImage(width, height, original_image.getType(), true);
+            if (width <= 2 * radius || height <= 2 * radius)
+                return transformed_image;
+
+            bands.run(height, (start_row, end_row) -> {
+                int[] row = new int[width];
+                // Lowest row read so far containing a corner in each column
+                int[] last_corner_rows = new int[width];
+                Arrays.fill(last_corner_rows, Integer.MIN_VALUE);
+                int next_row = Math.max(radius, start_row - radius);
+                boolean inside_row;
+                boolean inside;
+                boolean covered;
+                int nearest_column;
+                int start_x;
+
+                for (int y = start_row; y < end_row; y++) {
+                    // Read every row whose squares can reach this row
+                    for (; next_row <= y + radius && next_row < height - radius; next_row++) {
+                        for (int i = radius, index = next_row * width + radius; i < width - radius; i++, index++)
+                            if (response[index] > threshold)
+                                last_corner_rows[i] = next_row;
+                    }
 
-            average_intensity += (new Color(image.getRGB(x - 1, y + 1))).getRed();
-            average_intensity += (new Color(image.getRGB(x    , y + 1))).getRed();
-            average_intensity += (new Color(image.getRGB(x + 1, y + 1))).getRed();
-        }
+                    // Pixels along the border are only ever drawn on by squares
+                    inside_row = y >= radius && y < height - radius;
+                    if (inside_row)
+                        PixelAccess.getRow(original_image, y, row);
+
+                    // Nearest column to the right of the current pixel with a square reaching this row
+                    nearest_column = Integer.MAX_VALUE;
+                    for (int x = width - 1; x >= 0; x--) {
+                        inside = inside_row && x >= radius && x < width - radius;
+                        if (inside) {
+                            // A corner in this row or below it in the same column is drawn after this pixel
+                            covered = last_corner_rows[x] >= y || nearest_column - x <= radius;
+                        } else {
+                            covered = false;
+                            for (int i = Math.max(0, x - radius); !covered && i <= x + radius && i < width; i++)
+                                covered = last_corner_rows[i] >= y - radius;
+                        }
+                        if (last_corner_rows[x] >= y - radius)
+                            nearest_column = x;
+
+                        if (covered)
+                            row[x] = green;
+                        else
+                            // Pixels that are never drawn stay 0 so they can be left untouched in the image
+                            row[x] = inside ? 0xFF000000 | row[x] : 0;
+                    }
 
-        return average_intensity / 9;
+                    // Write each run of drawn pixels
+                    for (int x = 0; x < width; ) {
+                        if (row[x] == 0) {
+                            x++;
+                            continue;
+                        }
+                        start_x = x;
+                        while (x < width && row[x] != 0)
+                            x++;
+                        PixelAccess.setRow(transformed_image, y, row, start_x, x);
+                    }
+                    Progress.rowCompleted();
+                }
+            });
+            return transformed_image;
+        });
     }
 
 
     /**
-     * Draw a green sqaure on the image centred on the pixel (x, y)
-     * @param image image to draw on
-     * @param x x-coordinate of the centre of the square
-     * @param y y-coordinate of the centre of the square
-     * @return image with square drawn on it
+     * Detects corners using Harris Corner Detection
+     * @param image greyscale image
+     * @return image with corners detected
      */
-    private BufferedImage drawSquare(BufferedImage image, int x, int y){
-        Color c = new Color(0, 255, 0);
-        for (int i = x - 3; i <= x + 3; i++) {
-            for (int j = y - 3; j <= y + 3; j++) {
-                image.setRGB(i, j, c.getRGB());
-            }
-        }
-        return image;
+    public BufferedImage detectHarrisCorners(BufferedImage image, BufferedImage original_image) {
+        return FilterMetrics.measure("detectHarrisCorners", pixels(original_image),
+                () -> detectCorners(image, original_image, CornerDetector.HARRIS));
     }
 
-
     /**
      * Detects corners using Harris Corner Detection
      * @param image greyscale image
+     * @param original_image original image to draw the corners on
+     * @param window_size width and height of the window the structure tensor is averaged over, must be odd
      * @return image with corners detected
      */
-    public BufferedImage detectHarrisCorners(BufferedImage image, BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                image.getWidth(),
-                image.getHeight(),
-                image.getType());
-        Color c;
-
-        BufferedImage x_image_derivative = calculateXPartialDerivative(image);
-        BufferedImage y_image_derivative = calculateYPartialDerivative(image);
-
-        int average_x_intensity;
-        int average_y_intensity;
-        // Average of the square of the intensities
-        int average_x_intensity_squared;
-        int average_y_intensity_sqaured;
-
-        double determinant;
-        double trace;
-        double r_score;
-
-        // Threshold is an empirically determined value
-        double threshold = 20000000.0;
-
-        for (int i = 3; i < image.getWidth() - 3; i++){
-            for (int j = 3; j < image.getHeight() - 3; j++) {
-                //Get average intensities
-                average_x_intensity = calculateAverageWindowIntensity(x_image_derivative, i, j, false);
-                average_y_intensity = calculateAverageWindowIntensity(y_image_derivative, i, j, false);
-                average_x_intensity_squared = calculateAverageWindowIntensity(x_image_derivative, i, j, true);
-                average_y_intensity_sqaured = calculateAverageWindowIntensity(y_image_derivative, i, j, true);
-
-                //Calculate determinant and trace of the structure tensor for the window
-                determinant = (float)(average_x_intensity_squared * average_y_intensity_sqaured - ((average_x_intensity * average_y_intensity) * (average_x_intensity * average_y_intensity)));
-                trace = (float)(average_x_intensity_squared + average_y_intensity_sqaured);
-
-                //Calculate the R score for the window
-                r_score = ( determinant - 0.15 * trace * trace);
-                
-                if (r_score > threshold) {
-                    transformed_image = drawSquare(transformed_image, i, j);
-                } else {
-                    c = new Color(original_image.getRGB(i, j));
-                    transformed_image.setRGB(i, j, c.getRGB());
-                }
-            }
-        }
-
-        return transformed_image;
+    public BufferedImage detectHarrisCorners(BufferedImage image, BufferedImage original_image, int window_size) {
+        return FilterMetrics.measure("detectHarrisCorners", pixels(original_image),
+                () -> detectCorners(image, original_image, new CornerDetector(CornerDetector.Measure.HARRIS, window_size)));
     }
 
 
@@ -796,103 +793,46 @@ public class ImageProcessor {
      * @return image with corners detected
      */
     public BufferedImage detectShiTomasiCorners(BufferedImage image, BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                image.getWidth(),
-                image.getHeight(),
-                image.getType());
-        Color c;
-
-        BufferedImage x_image_derivative = calculateXPartialDerivative(image);
-        BufferedImage y_image_derivative = calculateYPartialDerivative(image);
-
-        int average_x_intensity;
-        int average_y_intensity;
-        // Average of the square of the intensities
-        int average_x_intensity_squared;
-        int average_y_intensity_sqaured;
-
-        double determinant;
-        double trace;
-        double r_score;
-        //Eigenvalues
-        double e1;
-        double e2;
-
-        // Threshold is an empirically determined value
-        double threshold = 10000.0;
-
-        for (int i = 3; i < image.getWidth() - 3; i++){
-            for (int j = 3; j < image.getHeight() - 3; j++) {
-                //Get average intensities
-                average_x_intensity = calculateAverageWindowIntensity(x_image_derivative, i, j, false);
-                average_y_intensity = calculateAverageWindowIntensity(y_image_derivative, i, j, false);
-                average_x_intensity_squared = calculateAverageWindowIntensity(x_image_derivative, i, j, true);
-                average_y_intensity_sqaured = calculateAverageWindowIntensity(y_image_derivative, i, j, true);
-
-                //Calculate determinant and trace of the structure tensor for the window
-                determinant = (float)(average_x_intensity_squared * average_y_intensity_sqaured - ((average_x_intensity * average_y_intensity) * (average_x_intensity * average_y_intensity)));
-                trace = (float)(average_x_intensity_squared + average_y_intensity_sqaured);
-
-                //Calculate the eigenvalues of the structure tensor
-                e1 = 0.5 * (trace - Math.sqrt(trace * trace - 4 * determinant));
-                e2 = 0.5 * (trace + Math.sqrt(trace * trace - 4 * determinant));
-
-                //Calculate the R score for the window
-                r_score = Math.min(e1, e2);
-                
-                if (r_score > threshold) {
-                    transformed_image = drawSquare(transformed_image, i, j);
-                } else {
-                    c = new Color(original_image.getRGB(i, j));
-                    transformed_image.setRGB(i, j, c.getRGB());
-                }
-            }
-        }
-        return transformed_image;
+        return FilterMetrics.measure("detectShiTomasiCorners", pixels(original_image),
+                () -> detectCorners(image, original_image, CornerDetector.SHI_TOMASI));
     }
 
+    /**
+     * Detects corners using Shi-Tomasi Corner Detection
+     * @param image greyscale image
+     * @param original_image original image to draw the corners on
+     * @param window_size width and height of the window the structure tensor is averaged over, must be odd
+     * @return image with corners detected
+     */
+    public BufferedImage detectShiTomasiCorners(BufferedImage image, BufferedImage original_image, int window_size) {
+        return FilterMetrics.measure("detectShiTomasiCorners", pixels(original_image),
+                () -> detectCorners(image, original_image, new CornerDetector(CornerDetector.Measure.SHI_TOMASI, window_size)));
+    }
 
     /**
-     * Converts greyscale image to false colour using a special color map
-     * @param original_image original image is assumed to be a greyscale image
-     * @return False colour image
+     * Detects corners with the detector's default threshold and draws them on the original image
+     * @param image greyscale image
+     * @param original_image original image to draw the corners on
+     * @param detector corner detector
+     * @return image with corners detected
      */
-    public BufferedImage convertFalseColour(BufferedImage original_image) {
-        BufferedImage transformed_image = new BufferedImage(
-                original_image.getWidth(),
-                original_image.getHeight(),
-                original_image.getType());
-        Color c;
-        int greyscale_val;
-        for (int x = 0; x < transformed_image.getWidth(); x++){
-            for (int y = 0; y < transformed_image.getHeight(); y++){
-                // Fetch current pixel's RGB values
-                c = new Color(original_image.getRGB(x, y));
-                greyscale_val = c.getRed();
-                c = getFalseColourMapValue(greyscale_val);
-                transformed_image.setRGB(x, y, c.getRGB());
-            }
-        }
-        return transformed_image;
+    private BufferedImage detectCorners(BufferedImage image, BufferedImage original_image, CornerDetector detector) {
+        byte[] luminance = extractLuminance(image);
+        float[] response = calculateCornerResponse(luminance, image.getWidth(), image.getHeight(), detector);
+        buffer_pool.release(luminance);
+        BufferedImage corners = drawCorners(response, detector.getMeasure().getDefaultThreshold(), original_image);
+        buffer_pool.release(response);
+        return corners;
     }
 
+
     /**
-     * Map greyscale intensity value to false color RGB values
-     * @param intensity greyscale intensity value
-     * @return False colour mapping
+     * Converts greyscale image to false colour using a special color map
+     * @param original_image original image is assumed to be a greyscale image
+     * @return False colour image
      */
-    private Color getFalseColourMapValue(int intensity) {
-        double adjusted_intensity = intensity / 255.0; // Adjust intensity to range [0, 1]
-        if (adjusted_intensity >= 0.0 && adjusted_intensity < 0.25){
-            return new Color(0, 0, 128);
-        } else if (adjusted_intensity >= 0.25 && adjusted_intensity < 0.5) {
-            return new Color(0, 255, 0);
-        } else if (adjusted_intensity >= 0.5 && adjusted_intensity < 0.75) {
-            return new Color(255, 255, 0);
-        } else if (adjusted_intensity >= 0.75 && adjusted_intensity < 1.0) {
-            return new Color(255, 128, 0);
-        } else {
-            return new Color(255, 0, 0);
-        }
+    public BufferedImage convertFalseColour(BufferedImage original_image) {
+        return FilterMetrics.measure("convertFalseColour", pixels(original_image),
+                () -> applyPointOperation(original_image, ColourMap.FALSE_COLOUR));
     }
 }
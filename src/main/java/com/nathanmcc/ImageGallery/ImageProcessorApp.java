@@ -1,40 +1,119 @@
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Class for UI component of the application
  */
 public class ImageProcessorApp extends JFrame {
 
-    private ImageHolder image; //Holds the image and all processed versions currently in the application
+    private ImageHolder image; //Holds the selected image and all its processed versions
+    // Shared by every image so filters use all the available cores
+    private ImageProcessor image_processor = new ImageProcessor(Runtime.getRuntime().availableProcessors());
     private BufferedImage current_displayed_image;
     private JLabel image_label; // JLabel used to display image
+    private JList<Gallery.Item> thumbnail_strip; // Thumbnails of every image in the gallery, along the bottom
     private JMenuBar menu_bar;
+    private JProgressBar progress_bar;
+    private JButton cancel_button;
+    // Runs filters off the event dispatch thread, one at a time
+    private ExecutorService filter_executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Filter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> current_filter;
+    private Progress current_progress;
+    // Incremented for every filter request, so results and progress of replaced requests are ignored
+    private int filter_generation;
+    // Calculates likely filters while nothing else is running, if the user has turned it on
+    private Prefetcher prefetcher = new Prefetcher();
+    private boolean prefetch_enabled;
+    // Keeps filter results between runs, or null if the cache directory could not be created
+    private DiskCache disk_cache = openDiskCache();
+    // Every image added, whose results share a quarter of the heap
+    private Gallery gallery = new Gallery(image_processor, Runtime.getRuntime().maxMemory() / 4, disk_cache,
+            THUMBNAIL_SIZE);
+    // Run filters on a display sized copy of the image, leaving full resolution until the image is saved
+    private boolean preview_enabled = true;
+    // Filter whose result is on display, so it can be run again at full resolution
+    private Function<ImageHolder, BufferedImage> displayed_filter;
+    // Size of the image display area, below which the thumbnail strip is shown
     private int window_width = 1000;
     private int window_height = 700;
+    private static final int THUMBNAIL_SIZE = 96;
+    private static final int STRIP_HEIGHT = THUMBNAIL_SIZE + 50;
 
     public ImageProcessorApp(){
         super("Image Processor");
-        setLayout( new FlowLayout());
-        setSize(window_width, window_height);
+        setLayout( new BorderLayout());
+        setSize(window_width, window_height + STRIP_HEIGHT);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setResizable(false);
         this.getContentPane().setBackground( Color.GRAY ); //Set 
 
         image_label = new JLabel();
-        add(image_label);
+        image_label.setHorizontalAlignment(SwingConstants.CENTER);
+        add(image_label, BorderLayout.CENTER);
 
+        setupThumbnailStrip();
         setupMenu();
         setVisible(true);
     }
 
+    /**
+     * Sets up the strip of thumbnails along the bottom of the window. Thumbnails are only asked for when
+     * their cell is drawn, so they load as the strip scrolls.
+     */
+    private void setupThumbnailStrip(){
+        thumbnail_strip = new JList<>(new DefaultListModel<>());
+        thumbnail_strip.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        thumbnail_strip.setVisibleRowCount(1);
+        thumbnail_strip.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed cell sizes stop the list drawing every cell to measure it, which would load every thumbnail
+        thumbnail_strip.setFixedCellWidth(THUMBNAIL_SIZE + 16);
+        thumbnail_strip.setFixedCellHeight(THUMBNAIL_SIZE + 24);
+        thumbnail_strip.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean selected, boolean focused) {
+                super.getListCellRendererComponent(list, value, index, selected, focused);
+                Gallery.Item item = (Gallery.Item) value;
+                BufferedImage thumbnail = item.getThumbnail();
+                if (thumbnail == null)
+                    gallery.requestThumbnail(item);
+                setIcon(thumbnail == null ? null : new ImageIcon(thumbnail));
+                setText(item.isUnreadable() ? "Unreadable" : item.toString());
+                setHorizontalAlignment(SwingConstants.CENTER);
+                setHorizontalTextPosition(SwingConstants.CENTER);
+                setVerticalTextPosition(SwingConstants.BOTTOM);
+                return this;
+            }
+        });
+        thumbnail_strip.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && thumbnail_strip.getSelectedIndex() >= 0)
+                selectImage(thumbnail_strip.getSelectedIndex());
+        });
+        gallery.setThumbnailListener(item -> SwingUtilities.invokeLater(thumbnail_strip::repaint));
+
+        JScrollPane strip_scroll_pane = new JScrollPane(thumbnail_strip, ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER,
+                ScrollPaneConstants.HORIZONTAL_SCROLLBAR_ALWAYS);
+        strip_scroll_pane.setPreferredSize(new Dimension(window_width, STRIP_HEIGHT));
+        add(strip_scroll_pane, BorderLayout.SOUTH);
+    }
+
     /**
      *  Used to setup application UI
      */
@@ -43,6 +122,21 @@ public class ImageProcessorApp extends JFrame {
         setJMenuBar(menu_bar);
         setupFileDropDownMenu();
         setupProcessDropDownMenu();
+        setupProgressBar();
+    }
+
+    /**
+     * Sets up the progress bar and cancel button shown on the right of the menu bar while a filter runs
+     */
+    private void setupProgressBar(){
+        progress_bar = new JProgressBar();
+        progress_bar.setStringPainted(true);
+        cancel_button = new JButton("Cancel");
+        cancel_button.addActionListener(e -> cancelFilter());
+        menu_bar.add(Box.createHorizontalGlue());
+        menu_bar.add(progress_bar);
+        menu_bar.add(cancel_button);
+        setProgressVisible(false);
     }
 
     /**
@@ -52,32 +146,32 @@ public class ImageProcessorApp extends JFrame {
         JMenu file_menu = new JMenu("File");
         menu_bar.add(file_menu);
 
-        //Create and add image button to read image in.
+        //Create and add image button to add images to the gallery. Images are only read when selected
         JMenuItem file_menu_open = new JMenuItem("Add Image");
         file_menu.add(file_menu_open);
-        file_menu_open.addActionListener( //ActionListener to read in image file
+        file_menu_open.addActionListener(
+                e -> {
+                    JFileChooser file_chooser = new JFileChooser(".");
+                    file_chooser.setMultiSelectionEnabled(true);
+                    int ret_val = file_chooser.showOpenDialog(ImageProcessorApp.this);
+                    if (ret_val == JFileChooser.APPROVE_OPTION)
+                        addToGallery(gallery.add(Arrays.asList(file_chooser.getSelectedFiles())));
+                }
+        );
+
+        //Create and add folder button to add every image in a folder to the gallery
+        JMenuItem file_menu_open_folder = new JMenuItem("Add Folder");
+        file_menu.add(file_menu_open_folder);
+        file_menu_open_folder.addActionListener(
                 e -> {
                     JFileChooser file_chooser = new JFileChooser(".");
+                    file_chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
                     int ret_val = file_chooser.showOpenDialog(ImageProcessorApp.this);
                     if (ret_val == JFileChooser.APPROVE_OPTION) {
-                        File f = file_chooser.getSelectedFile();
-                        BufferedImage buff_image;
                         try {
-                            buff_image = ImageIO.read(f);
-                            image = new ImageHolder(buff_image);
-
-                            //Check if image is loaded into application properly
-                            //else remove object from list and throw new IOException
-                            if (image.getOriginalImage() == null) {
-                                throw new IOException();
-                            }
-                            setDisplayImage(image.getOriginalImage());
-                        } catch ( IOException err ){
-                            showDisplayWindow("There was a problem reading your image. Please" +
-                                    " try again or use a different image.");
-                        } catch ( Exception err ) {
-                            showDisplayWindow("Unexpected Error occurred. Please try again or file an issue with the " +
-                                    "developer.");
+                            addToGallery(gallery.addFolder(file_chooser.getSelectedFile()));
+                        } catch (IOException err) {
+                            showDisplayWindow("There was a problem reading the folder. Please try again.");
                         }
                     }
                 }
@@ -91,15 +185,23 @@ public class ImageProcessorApp extends JFrame {
                     JFileChooser file_chooser = new JFileChooser(".");
                     int ret_val = file_chooser.showSaveDialog(ImageProcessorApp.this);
                     if (ret_val == JFileChooser.APPROVE_OPTION) {
-                        try (FileWriter fw = new FileWriter(file_chooser.getSelectedFile())) {
-                            ImageIO.write(this.getDisplayedImage(), "jpg", (file_chooser.getSelectedFile()));
-                        } catch (IOException err) {
-                            showDisplayWindow("There was a problem saving the image");
-                        } catch (NullPointerException err) {
+                        if (displayed_filter == null) {
                             showDisplayWindow("There is no image in the display");
-                        } catch (IllegalArgumentException err) {
-                            showDisplayWindow("There was a problem saving the image");
+                            return;
                         }
+                        // Previews are only display sized, so the filter is run on the full resolution image
+                        ImageHolder saved_image = image;
+                        Function<ImageHolder, BufferedImage> saved_filter = displayed_filter;
+                        File file = file_chooser.getSelectedFile();
+                        runInBackground(() -> {
+                            try {
+                                if (!ImageIO.write(saved_filter.apply(saved_image), "jpg", file))
+                                    throw new IOException("No writer for this image");
+                            } catch (IOException err) {
+                                throw new UncheckedIOException(err);
+                            }
+                            return file;
+                        }, saved_file -> {}, "There was a problem saving the image");
                     }
                 }
         );
@@ -159,178 +261,218 @@ public class ImageProcessorApp extends JFrame {
         process_menu.add(process_menu_tomasi);
         process_menu.add(process_menu_false);
 
-        //Add ActionListeners to each JMenuItem
-        process_menu_original.addActionListener (
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.getOriginalImage());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-
-                }
-        );
-
-        process_menu_greyscale.addActionListener(
+        JCheckBoxMenuItem process_menu_preview = new JCheckBoxMenuItem("Fast Preview", preview_enabled);
+        process_menu_preview.setToolTipText("Applies filters to a display sized copy of the image. " +
+                "Saving always uses the full resolution image");
+        process_menu.addSeparator();
+        process_menu.add(process_menu_preview);
+        process_menu_preview.addActionListener(
                 e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyGreyscaleFilter());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
+                    preview_enabled = process_menu_preview.isSelected();
+                    // Show the current filter at the new resolution
+                    if (displayed_filter != null)
+                        showFilter(null, displayed_filter);
                 }
         );
 
-        process_menu_negative.addActionListener(
+        JCheckBoxMenuItem process_menu_prefetch = new JCheckBoxMenuItem("Precompute Likely Filters");
+        process_menu_prefetch.setToolTipText("Uses idle time to calculate the filters you use most before you pick them");
+        process_menu.add(process_menu_prefetch);
+        process_menu_prefetch.addActionListener(
                 e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyNegativeFilter());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-
+                    prefetch_enabled = process_menu_prefetch.isSelected();
+                    if (!prefetch_enabled)
+                        prefetcher.pause();
+                    else if (current_progress == null)
+                        startPrefetch();
                 }
         );
 
-        process_menu_sepia.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applySepiaFilter());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
-
-        process_menu_contrast.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyContrastEnhancement());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
-
-        process_menu_threshold.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.thresholdImage());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
-
-        process_menu_boxBlur.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyBoxBlur());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
+        //Add ActionListeners to each JMenuItem. Filters run in the background and replace any filter still running
+        process_menu_original.addActionListener(e -> showFilter("original", ImageHolder::getOriginalImage));
+        process_menu_greyscale.addActionListener(e -> showFilter("greyscale", ImageHolder::applyGreyscaleFilter));
+        process_menu_negative.addActionListener(e -> showFilter("negative", ImageHolder::applyNegativeFilter));
+        process_menu_sepia.addActionListener(e -> showFilter("sepia", ImageHolder::applySepiaFilter));
+        process_menu_contrast.addActionListener(e -> showFilter("contrast", ImageHolder::applyContrastEnhancement));
+        process_menu_threshold.addActionListener(e -> showFilter("threshold", ImageHolder::thresholdImage));
+        process_menu_boxBlur.addActionListener(e -> showFilter("box-blur", ImageHolder::applyBoxBlur));
+        process_menu_gaussianBlur.addActionListener(e -> showFilter("gaussian-blur", ImageHolder::applyGaussianBlur));
+        process_menu_prewitt.addActionListener(e -> showFilter("prewitt", ImageHolder::applyPrewittOperator));
+        process_menu_sobelEdge.addActionListener(e -> showFilter("sobel", ImageHolder::applySobelOperator));
+        process_menu_blurredSobel.addActionListener(e -> showFilter("preblurred-sobel", ImageHolder::applyPreblurredSobelOperator));
+        process_menu_inverted_sobel.addActionListener(e -> showFilter("inverted-sobel", ImageHolder::applyInvertedSobel));
+        process_menu_pixelate.addActionListener(e -> showFilter("pixelate", ImageHolder::pixelate));
+        process_menu_sharpen.addActionListener(e -> showFilter("sharpen", ImageHolder::sharpen));
+        process_menu_harris.addActionListener(e -> showFilter("harris", ImageHolder::harrisCorners));
+        process_menu_tomasi.addActionListener(e -> showFilter("shi-tomasi", ImageHolder::shiTomasiCorners));
+        process_menu_false.addActionListener(e -> showFilter("false-colour", ImageHolder::falseColour));
+    }
 
-        process_menu_gaussianBlur.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyGaussianBlur());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
+    /**
+     * Shows the images added to the gallery in the thumbnail strip and selects the first of them
+     * @param first_index index of the first image added
+     */
+    private void addToGallery(int first_index){
+        DefaultListModel<Gallery.Item> model = (DefaultListModel<Gallery.Item>) thumbnail_strip.getModel();
+        for (int i = model.getSize(); i < gallery.size(); i++)
+            model.addElement(gallery.get(i));
+        if (first_index < gallery.size()) {
+            thumbnail_strip.setSelectedIndex(first_index);
+            thumbnail_strip.ensureIndexIsVisible(first_index);
+        }
+    }
 
-        process_menu_prewitt.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyPrewittOperator());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
+    /**
+     * Decodes an image in the gallery in the background, unless it is still held, and displays it
+     * @param index index of the image
+     */
+    private void selectImage(int index){
+        // Filters picked while the image is read would otherwise apply to the image being replaced
+        image = null;
+        displayed_filter = null;
+        runInBackground(() -> {
+            try {
+                return gallery.select(index);
+            } catch (IOException err) {
+                throw new UncheckedIOException(err);
+            }
+        }, holder -> {
+            image = holder;
+            showFilter(null, ImageHolder::getOriginalImage);
+        }, "There was a problem reading your image. Please try again or use a different image.");
+    }
 
-        process_menu_sobelEdge.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applySobelOperator());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
+    /**
+     * Runs a filter on a background thread and displays the result when it is done, cancelling any
+     * filter that is still running
+     * @param name name the use of the filter is recorded under, for prefetching, or null to not record it
+     * @param filter filter to apply to the loaded image
+     */
+    private void showFilter(String name, Function<ImageHolder, BufferedImage> filter){
+        if (image == null) {
+            showDisplayWindow("There is no image loaded.");
+            return;
+        }
+        if (name != null)
+            prefetcher.recordUse(name);
+
+        ImageHolder filtered_image = image;
+        boolean preview = preview_enabled;
+        runInBackground(() -> {
+                    ImageHolder holder = preview ? getPreview(filtered_image) : filtered_image;
+                    return holder.getDisplayImage(filter.apply(holder), (int) (0.9 * window_width),
+                            (int) (0.9 * window_height));
+                },
+                result -> {
+                    displayed_filter = filter;
+                    setDisplayImage(result);
+                    startPrefetch();
+                },
+                "Unexpected Error occurred. Please try again or file an issue with the developer.");
+    }
 
-        process_menu_blurredSobel.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyPreblurredSobelOperator());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
+    /**
+     * Runs work on the background thread with the progress bar showing, cancelling any work that is
+     * still running
+     * @param work work to run
+     * @param done called on the event dispatch thread with the result, unless the work is replaced first
+     * @param error_message message to show if the work fails
+     */
+    private <T> void runInBackground(Supplier<T> work, Consumer<T> done, String error_message){
+        cancelFilter();
+        int generation = filter_generation;
+        Progress progress = new Progress((rows_done, rows_total) -> SwingUtilities.invokeLater(() -> {
+            if (generation == filter_generation) {
+                progress_bar.setMaximum(rows_total);
+                progress_bar.setValue(rows_done);
+            }
+        }));
+        current_progress = progress;
+        progress_bar.setValue(0);
+        setProgressVisible(true);
+
+        current_filter = filter_executor.submit(() -> {
+            try {
+                T result = progress.run(work);
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == filter_generation) {
+                        current_progress = null;
+                        setProgressVisible(false);
+                        done.accept(result);
                     }
-                }
-        );
+                });
+            } catch (CancellationException err) {
+                // Replaced by another request, which is now in charge of the display
+            } catch (OutOfMemoryError err) {
+                showFilterError(generation, "There is not enough memory to apply this filter to the image.");
+            } catch (RuntimeException err) {
+                showFilterError(generation, error_message);
+            }
+        });
+    }
 
-        process_menu_inverted_sobel.addActionListener(
-                e -> {
-                    if (image !=  null) {
-                        setDisplayImage(image.applyInvertedSobel());
-                    } else {
-                        showDisplayWindow("There is no image loaded.");
-                    }
-                }
-        );
+    /**
+     * Stops the filter that is running, if there is one
+     */
+    private void cancelFilter(){
+        // Background work gives way to anything the user asks for
+        prefetcher.pause();
+        if (current_progress != null) {
+            current_progress.cancel();
+            current_filter.cancel(false);
+            current_progress = null;
+            current_filter = null;
+        }
+        filter_generation++;
+        setProgressVisible(false);
+    }
 
-        process_menu_pixelate.addActionListener(
-            e -> {
-                if (image !=  null) {
-                    setDisplayImage(image.pixelate());
-                } else {
-                    showDisplayWindow("There is no image loaded.");
-                }
+    /**
+     * Reports a filter that failed, from any thread, unless it has been replaced by another request
+     */
+    private void showFilterError(int generation, String message){
+        SwingUtilities.invokeLater(() -> {
+            if (generation == filter_generation) {
+                current_progress = null;
+                setProgressVisible(false);
+                showDisplayWindow(message);
             }
-        );
+        });
+    }
 
-        process_menu_sharpen.addActionListener(
-            e -> {
-                if (image !=  null) {
-                    setDisplayImage(image.sharpen());
-                } else {
-                    showDisplayWindow("There is no image loaded.");
-                }
-            }
-        );
+    /**
+     * Starts calculating likely filters for the loaded image in the background, if turned on
+     */
+    private void startPrefetch(){
+        if (prefetch_enabled && image != null)
+            prefetcher.prefetch(preview_enabled ? getPreview(image) : image);
+    }
 
-        process_menu_harris.addActionListener(
-            e -> {
-                if (image != null) {
-                    setDisplayImage(image.harrisCorners());
-                } else {
-                    showDisplayWindow("There is no image loaded.");
-                }
-            }
-        );
+    /**
+     * Opens the disk cache shared with BatchProcessor
+     * @return disk cache, or null if it could not be opened
+     */
+    private static DiskCache openDiskCache(){
+        try {
+            return DiskCache.openDefault();
+        } catch (IOException | SecurityException err) {
+            System.err.println("Filter results will not be kept between runs: " + err.getMessage());
+            return null;
+        }
+    }
 
-        process_menu_tomasi.addActionListener(
-            e -> {
-                if (image != null) {
-                    setDisplayImage(image.shiTomasiCorners());
-                } else {
-                    showDisplayWindow("There is no image loaded.");
-                }
-            }
-        );
+    /**
+     * Returns the display sized copy of an image that filters are previewed on
+     * @param holder full resolution image
+     * @return preview of the image
+     */
+    private ImageHolder getPreview(ImageHolder holder){
+        return holder.getPreview((int) (0.9 * window_width), (int) (0.9 * window_height));
+    }
 
-        process_menu_false.addActionListener(
-            e -> {
-                if (image != null) {
-                    setDisplayImage(image.falseColour());
-                } else {
-                    showDisplayWindow("There is no image loaded.");
-                }
-            }
-        );
+    private void setProgressVisible(boolean visible){
+        progress_bar.setVisible(visible);
+        cancel_button.setVisible(visible);
     }
 
     /**
@@ -342,16 +484,9 @@ public class ImageProcessorApp extends JFrame {
     }
 
     /** Sets an image into the current display
-     * @param image image to be displayed
+     * @param image image to be displayed, already scaled to fit the window
      */
     private void setDisplayImage(BufferedImage image){
-        if (image.getWidth() > window_width && image.getHeight() > window_height) {
-            image = scaleImage(image, (int) (0.9 * window_width) , (int) (0.9 * window_height));
-        } else if (image.getWidth() > window_width) {
-            image = scaleImage(image, (int) (0.9 * window_width), image.getHeight());
-        } else if (image.getHeight() > window_height) {
-            image = scaleImage(image, image.getWidth(), (int) (0.9 * window_height));
-        }
         current_displayed_image = image;
         this.image_label.setIcon(new ImageIcon(image));
     }
@@ -367,41 +502,4 @@ public class ImageProcessorApp extends JFrame {
             return current_displayed_image;
         }
     }
-
-
-    /**
-     * Scales down an image
-     * @param original_image image to be scaled
-     * @param new_image_width width of the new image
-     * @param new_image_height height of the new image
-     * @return scaled image
-     */
-    public BufferedImage scaleImage(BufferedImage original_image, int new_image_width, int new_image_height){
-        //Get original image dimensions as a double for division
-        double original_image_width = original_image.getWidth();
-        double original_image_height = original_image.getHeight();
-
-        if (new_image_width > original_image_width || new_image_height > original_image_height) {
-            //This should not happen but just in case
-            showDisplayWindow("There was a problem displaying the image correctly. Please reload the image.");
-        }
-        //Calculate the scale down factor
-        double scale_factor_x = new_image_width/original_image_width;
-        double scale_factor_y = new_image_height/original_image_height;
-
-        BufferedImage transformed_image = new BufferedImage(new_image_width, new_image_height, original_image.getType());
-        AffineTransform at = new AffineTransform();
-        at.scale(scale_factor_x, scale_factor_y);
-
-        try{
-            AffineTransformOp scaleOp = new AffineTransformOp(at, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-            transformed_image = scaleOp.filter(original_image, transformed_image);
-        } catch ( Exception e) {
-            //This should not happen but just in case
-            showDisplayWindow("There was a problem displaying the image correctly. Please reload the image.");
-        }
-
-
-        return transformed_image;
-    }
 }
@@ -0,0 +1,74 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies of an image at successively halved sizes (a mipmap pyramid), used to display large images.
+ *
+ * Each level is a 2x2 box average of the one above it, so a display sized copy of the image is one
+ * small resample away from the nearest level instead of a nearest neighbour scale of the whole image,
+ * which skips most of the source pixels and aliases. Levels are only built as far down as they have
+ * been asked for, and the last display sized copy is kept so showing the same image again is free.
+ *
+ * The pyramid does not hold the full size image itself, so it can be kept in a map weakly keyed by it.
+ */
+public class ImagePyramid {
+    private final ImageProcessor image_processor;
+    // Level 1 onwards, each half the size of the one before
+    private final List<BufferedImage> levels = new ArrayList<>();
+    private BufferedImage last_image;
+
+    /**
+     * @param image_processor processor used to scale the levels
+     */
+    public ImagePyramid(ImageProcessor image_processor) {
+        this.image_processor = image_processor;
+    }
+
+    /**
+     * Returns the image scaled down to exactly the given size, from the smallest level that is at least
+     * that size
+     * @param image full size image the pyramid was built for
+     * @param width width to scale to, no larger than the image
+     * @param height height to scale to, no larger than the image
+     * @return scaled image, or the image itself if it is already that size
+     */
+    public synchronized BufferedImage getImage(BufferedImage image, int width, int height) {
+        if (width < 1 || height < 1 || width > image.getWidth() || height > image.getHeight())
+            throw new IllegalArgumentException("Scaled size must be between 1x1 and the image size");
+        if (width == image.getWidth() && height == image.getHeight())
+            return image;
+        if (last_image != null && last_image.getWidth() == width && last_image.getHeight() == height)
+            return last_image;
+
+        BufferedImage level = image;
+        for (int i = 0; level.getWidth() / 2 >= width && level.getHeight() / 2 >= height; i++) {
+            if (i == levels.size())
+                levels.add(image_processor.downscale(level, level.getWidth() / 2, level.getHeight() / 2));
+            level = levels.get(i);
+        }
+        if (level.getWidth() != width || level.getHeight() != height)
+            level = image_processor.downscale(level, width, height);
+        last_image = level;
+        return level;
+    }
+
+    /**
+     * Number of levels built below the full size image
+     * @return level count
+     */
+    public synchronized int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Bytes used by the levels and the last display sized copy
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        long size = last_image == null || levels.contains(last_image) ? 0 : ResultCache.sizeOf(last_image);
+        for (BufferedImage level : levels)
+            size += ResultCache.sizeOf(level);
+        return size;
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Tone operation that maps each 8 bit channel through a 256 entry table.
+ *
+ * Any function of a single channel value can be compiled into a table once, after which applying it
+ * costs one array load per channel. Tables compose, so a chain of tone operations is applied in a
+ * single pass for the same cost as one operation. Alpha is always set to opaque, like the other filters.
+ */
+public class LookupTable implements PointOperation {
+
+    /** Leaves every channel unchanged */
+    public static final LookupTable IDENTITY = of(value -> value);
+
+    /** Inverts every channel */
+    public static final LookupTable NEGATIVE = of(value -> 255 - value);
+
+    /** Quantizes every channel into 4 levels, used by the cartoon filter */
+    public static final LookupTable QUANTIZE = of(LookupTable::quantizeRGBValue);
+
+    private final byte[] red_table;
+    private final byte[] green_table;
+    private final byte[] blue_table;
+
+    /**
+     * Creates a lookup table with a separate table for each channel
+     * @param red_table new value for each red value, 256 entries
+     * @param green_table new value for each green value, 256 entries
+     * @param blue_table new value for each blue value, 256 entries
+     */
+    public LookupTable(byte[] red_table, byte[] green_table, byte[] blue_table) {
+        if (red_table.length != 256 || green_table.length != 256 || blue_table.length != 256)
+            throw new IllegalArgumentException("Lookup tables must have 256 entries");
+        this.red_table = red_table.clone();
+        this.green_table = green_table.clone();
+        this.blue_table = blue_table.clone();
+    }
+
+    /**
+     * Compiles a function of a channel value into a lookup table that applies it to every channel
+     * @param function maps a value in [0, 255] to a value in [0, 255]
+     * @return lookup table
+     */
+    public static LookupTable of(IntUnaryOperator function) {
+        byte[] table = new byte[256];
+        int result;
+        for (int value = 0; value < 256; value++) {
+            result = function.applyAsInt(value);
+            if (result < 0 || result > 255)
+                throw new IllegalArgumentException("Lookup table value " + result + " is outside [0, 255]");
+            table[value] = (byte) result;
+        }
+        return new LookupTable(table, table, table);
+    }
+
+    /**
+     * Creates a lookup table that adds a constant to every channel, clamping to [0, 255]
+     * @param amount amount to add, negative to darken
+     * @return lookup table
+     */
+    public static LookupTable brightness(int amount) {
+        return of(value -> Math.max(0, Math.min(value + amount, 255)));
+    }
+
+    /**
+     * Creates a lookup table that applies this table followed by another one
+     * @param next table to apply to the output of this one
+     * @return combined lookup table
+     */
+    public LookupTable andThen(LookupTable next) {
+        byte[] red = new byte[256];
+        byte[] green = new byte[256];
+        byte[] blue = new byte[256];
+        for (int value = 0; value < 256; value++) {
+            red[value] = next.red_table[red_table[value] & 0xFF];
+            green[value] = next.green_table[green_table[value] & 0xFF];
+            blue[value] = next.blue_table[blue_table[value] & 0xFF];
+        }
+        return new LookupTable(red, green, blue);
+    }
+
+    /**
+     * Maps a single pixel through the table
+     * @param pixel packed ARGB value
+     * @return opaque packed RGB value
+     */
+    public int apply(int pixel) {
+        return 0xFF000000
+                | ((red_table[(pixel >> 16) & 0xFF] & 0xFF) << 16)
+                | ((green_table[(pixel >> 8) & 0xFF] & 0xFF) << 8)
+                | (blue_table[pixel & 0xFF] & 0xFF);
+    }
+
+    @Override
+    public void applyToRow(int[] row, int width) {
+        int pixel;
+        for (int x = 0; x < width; x++) {
+            pixel = row[x];
+            row[x] = 0xFF000000
+                    | ((red_table[(pixel >> 16) & 0xFF] & 0xFF) << 16)
+                    | ((green_table[(pixel >> 8) & 0xFF] & 0xFF) << 8)
+                    | (blue_table[pixel & 0xFF] & 0xFF);
+        }
+    }
+
+    /**
+     * Quantizes a RGB value as an integer into discrete values
+     * @param n RGB value to be quantized
+     * @return quantized RGB value
+     */
+    private static int quantizeRGBValue(int n) {
+        if (n < 85) {
+            n = 0;
+        } else if (n < 170) {
+            n = 85;
+        } else if (n < 255) {
+            n = 170;
+        } else {
+            n = 255;
+        }
+        return n;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof LookupTable))
+            return false;
+        LookupTable other = (LookupTable) o;
+        return Arrays.equals(red_table, other.red_table)
+                && Arrays.equals(green_table, other.green_table)
+                && Arrays.equals(blue_table, other.blue_table);
+    }
+
+    @Override
+    public int hashCode() {
+        return (Arrays.hashCode(red_table) * 31 + Arrays.hashCode(green_table)) * 31 + Arrays.hashCode(blue_table);
+    }
+}
@@ -0,0 +1,183 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reads and writes whole rows of an image as packed ARGB ints.
+ *
+ * For the common image types (INT_RGB, INT_ARGB, INT_BGR, 3BYTE_BGR and 4BYTE_ABGR) the rows are copied
+ * straight out of the backing array of the raster. Any other image type falls back to the bulk
+ * getRGB/setRGB methods. Either way the values read and written are exactly the ones getRGB/setRGB
+ * would give for the same pixels.
+ */
+public class PixelAccess {
+
+    private PixelAccess() {}
+
+    /**
+     * Reads a row of the image into an array of packed ARGB values
+     * @param image image to read from
+     * @param y row to read
+     * @param row array to fill, must be at least as long as the image width
+     * @return row
+     */
+    public static int[] getRow(BufferedImage image, int y, int[] row) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        SampleModel sample_model = raster.getSampleModel();
+        // Position of the row in the sample model's coordinates (non-zero for sub-images)
+        int sample_x = -raster.getSampleModelTranslateX();
+        int sample_y = y - raster.getSampleModelTranslateY();
+        int offset;
+        int pixel;
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR: {
+                if (!(sample_model instanceof SinglePixelPackedSampleModel))
+                    break;
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                offset = raster.getDataBuffer().getOffset()
+                        + ((SinglePixelPackedSampleModel) sample_model).getOffset(sample_x, sample_y);
+
+                if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                    System.arraycopy(data, offset, row, 0, width);
+                } else if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                    for (int x = 0; x < width; x++)
+                        row[x] = 0xFF000000 | (data[offset + x] & 0xFFFFFF);
+                } else {
+                    for (int x = 0; x < width; x++) {
+                        pixel = data[offset + x];
+                        row[x] = 0xFF000000 | ((pixel & 0xFF) << 16) | (pixel & 0xFF00) | ((pixel >> 16) & 0xFF);
+                    }
+                }
+                return row;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                if (!(sample_model instanceof ComponentSampleModel))
+                    break;
+                ComponentSampleModel component_model = (ComponentSampleModel) sample_model;
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int[] band_offsets = component_model.getBandOffsets();
+                int pixel_stride = component_model.getPixelStride();
+                offset = raster.getDataBuffer().getOffset()
+                        + sample_y * component_model.getScanlineStride() + sample_x * pixel_stride;
+                int red_offset = offset + band_offsets[0];
+                int green_offset = offset + band_offsets[1];
+                int blue_offset = offset + band_offsets[2];
+
+                if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+                    for (int x = 0, i = 0; x < width; x++, i += pixel_stride) {
+                        row[x] = 0xFF000000
+                                | ((data[red_offset + i] & 0xFF) << 16)
+                                | ((data[green_offset + i] & 0xFF) << 8)
+                                | (data[blue_offset + i] & 0xFF);
+                    }
+                } else {
+                    int alpha_offset = offset + band_offsets[3];
+                    for (int x = 0, i = 0; x < width; x++, i += pixel_stride) {
+                        row[x] = ((data[alpha_offset + i] & 0xFF) << 24)
+                                | ((data[red_offset + i] & 0xFF) << 16)
+                                | ((data[green_offset + i] & 0xFF) << 8)
+                                | (data[blue_offset + i] & 0xFF);
+                    }
+                }
+                return row;
+            }
+            default:
+                break;
+        }
+
+        image.getRGB(0, y, width, 1, row, 0, width);
+        return row;
+    }
+
+    /**
+     * Writes a row of packed ARGB values into the image
+     * @param image image to write to
+     * @param y row to write
+     * @param row packed ARGB values, at least as long as the image width
+     */
+    public static void setRow(BufferedImage image, int y, int[] row) {
+        setRow(image, y, row, 0, image.getWidth());
+    }
+
+    /**
+     * Writes part of a row of packed ARGB values into the image, leaving the other pixels untouched
+     * @param image image to write to
+     * @param y row to write
+     * @param row packed ARGB values for the whole row
+     * @param start_x first pixel to write
+     * @param end_x pixel after the last pixel to write
+     */
+    public static void setRow(BufferedImage image, int y, int[] row, int start_x, int end_x) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sample_model = raster.getSampleModel();
+        int sample_x = -raster.getSampleModelTranslateX();
+        int sample_y = y - raster.getSampleModelTranslateY();
+        int offset;
+        int pixel;
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR: {
+                if (!(sample_model instanceof SinglePixelPackedSampleModel))
+                    break;
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                offset = raster.getDataBuffer().getOffset()
+                        + ((SinglePixelPackedSampleModel) sample_model).getOffset(sample_x, sample_y);
+
+                if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                    System.arraycopy(row, start_x, data, offset + start_x, end_x - start_x);
+                } else if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                    for (int x = start_x; x < end_x; x++)
+                        data[offset + x] = row[x] & 0xFFFFFF;
+                } else {
+                    for (int x = start_x; x < end_x; x++) {
+                        pixel = row[x];
+                        data[offset + x] = ((pixel & 0xFF) << 16) | (pixel & 0xFF00) | ((pixel >> 16) & 0xFF);
+                    }
+                }
+                return;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                if (!(sample_model instanceof ComponentSampleModel))
+                    break;
+                ComponentSampleModel component_model = (ComponentSampleModel) sample_model;
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int[] band_offsets = component_model.getBandOffsets();
+                int pixel_stride = component_model.getPixelStride();
+                offset = raster.getDataBuffer().getOffset()
+                        + sample_y * component_model.getScanlineStride() + sample_x * pixel_stride;
+                int red_offset = offset + band_offsets[0];
+                int green_offset = offset + band_offsets[1];
+                int blue_offset = offset + band_offsets[2];
+                boolean has_alpha = image.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+                int alpha_offset = has_alpha ? offset + band_offsets[3] : 0;
+
+                for (int x = start_x, i = start_x * pixel_stride; x < end_x; x++, i += pixel_stride) {
+                    pixel = row[x];
+                    data[red_offset + i] = (byte) (pixel >> 16);
+                    data[green_offset + i] = (byte) (pixel >> 8);
+                    data[blue_offset + i] = (byte) pixel;
+                    if (has_alpha)
+                        data[alpha_offset + i] = (byte) (pixel >>> 24);
+                }
+                return;
+            }
+            default:
+                break;
+        }
+
+        if (end_x > start_x)
+            image.setRGB(start_x, y, end_x - start_x, 1, row, start_x, end_x - start_x);
+    }
+}
@@ -0,0 +1,106 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Pixelates an image by setting all the pixels in each block to the value of the pixel in the centre
+ * of the block. Only whole blocks that fit inside the image are pixelated, the remaining pixels along
+ * the right and bottom edges are left black.
+ */
+public class Pixelate implements RowFilter {
+
+    private final int kernel_size;
+
+    /**
+     * @param kernel_size width and height of each block, must be odd
+     */
+    public Pixelate(int kernel_size) {
+        if (kernel_size < 1 || kernel_size % 2 == 0)
+            throw new IllegalArgumentException("Kernel size must be a positive odd number");
+        this.kernel_size = kernel_size;
+    }
+
+    public int getKernelSize() {
+        return kernel_size;
+    }
+
+    /**
+     * Creates the filter that looks the same on a copy of the image scaled by the given factor, with the
+     * blocks scaled to the nearest odd size
+     * @param scale size of the scaled image relative to this one
+     * @return scaled filter, or this filter if the scale is 1
+     */
+    public Pixelate scaled(double scale) {
+        if (scale == 1.0)
+            return this;
+        return new Pixelate(Math.max(1, 2 * (int) Math.round((kernel_size * scale - 1) / 2) + 1));
+    }
+
+    @Override
+    public int getRadius() {
+        return (kernel_size - 1) / 2;
+    }
+
+    @Override
+    public RowSource open(RowSource input, int width, int height, int start_row) {
+        return new PixelatedRows(input, width, height, start_row);
+    }
+
+    /**
+     * Pixelated rows of an image. Only the centre row of each block is kept.
+     */
+    private class PixelatedRows implements RowSource {
+        private final RowSource input;
+        private final int width;
+        private final int pixelated_width;
+        private final int pixelated_height;
+        private final int centre = (kernel_size - 1) / 2;
+        private final int[] centre_row;
+        private int next_row;
+
+        PixelatedRows(RowSource input, int width, int height, int start_row) {
+            this.input = input;
+            this.width = width;
+            this.pixelated_width = width / kernel_size * kernel_size;
+            this.pixelated_height = height / kernel_size * kernel_size;
+            this.centre_row = new int[width];
+            this.next_row = Math.max(0, start_row - centre);
+        }
+
+        @Override
+        public void getRow(int y, int[] output) {
+            if (y >= pixelated_height) {
+                Arrays.fill(output, 0, width, 0);
+                return;
+            }
+            // Every row of a block copies the row through the centre of the block
+            int centre_y = y / kernel_size * kernel_size + centre;
+            while (next_row <= centre_y)
+                input.getRow(next_row++, centre_row);
+            for (int x = 0; x < pixelated_width; x++)
+                output[x] = 0xFF000000 | centre_row[x / kernel_size * kernel_size + centre];
+            Arrays.fill(output, pixelated_width, width, 0);
+        }
+    }
+
+    /**
+     * Pixelates the source image into the destination image, leaving the pixels outside the whole blocks untouched
+     * @param source image to pixelate
+     * @param destination image to write to, must be the same size as the source
+     * @param bands executor to run the bands on
+     */
+    @Override
+    public void filter(BufferedImage source, BufferedImage destination, BandExecutor bands) {
+        int width = source.getWidth();
+        int pixelated_width = width / kernel_size * kernel_size;
+        int pixelated_height = source.getHeight() / kernel_size * kernel_size;
+        bands.run(pixelated_height, (start_row, end_row) -> {
+            RowSource rows = open(RowSource.of(source), width, source.getHeight(), start_row);
+            int[] row = new int[width];
+            for (int y = start_row; y < end_row; y++) {
+                rows.getRow(y, row);
+                PixelAccess.setRow(destination, y, row, 0, pixelated_width);
+                Progress.rowCompleted();
+            }
+        });
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * A filter where each output pixel depends only on the input pixel at the same position.
+ * Operations work on a whole row of packed ARGB values at a time and transform it in place.
+ */
+public interface PointOperation {
+
+    /**
+     * Transforms a row of pixels in place
+     * @param row packed ARGB values
+     * @param width number of pixels in the row
+     */
+    void applyToRow(int[] row, int width);
+}
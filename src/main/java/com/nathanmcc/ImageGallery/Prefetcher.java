@@ -0,0 +1,190 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Calculates the filters the user is likely to pick next while the application is idle, so they are
+ * already in the ImageHolder's cache when they are picked.
+ *
+ * Filters are ranked by how often they have been used, with older uses counting for less, divided by
+ * how expensive they are. Prefetching runs on a single low priority thread with a processor that does
+ * not split the work into bands, and pause() cancels it at the next row, so it stays out of the way of
+ * filters the user is waiting for. It also stops before the cache would have to evict anything.
+ */
+public class Prefetcher {
+
+    /** A filter that can be prefetched */
+    public static class Candidate {
+        private final String name;
+        private final List<Object> key;
+        private final Function<ImageHolder, BufferedImage> filter;
+        private final double cost;
+
+        /**
+         * @param name name the filter's uses are recorded under
+         * @param key key ImageHolder caches the result under
+         * @param filter applies the filter to an image
+         * @param cost cost of the filter relative to the others
+         */
+        public Candidate(String name, List<Object> key, Function<ImageHolder, BufferedImage> filter, double cost) {
+            this.name = name;
+            this.key = key;
+            this.filter = filter;
+            this.cost = cost;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /** The filters in the Process menu that are worth calculating ahead of time */
+    public static final List<Candidate> DEFAULT_CANDIDATES = Arrays.asList(
+            new Candidate("greyscale", ResultCache.key("greyscale"), ImageHolder::applyGreyscaleFilter, 1),
+            new Candidate("negative", ResultCache.key("negative"), ImageHolder::applyNegativeFilter, 1),
+            new Candidate("sepia", ResultCache.key("sepia"), ImageHolder::applySepiaFilter, 1.5),
+            new Candidate("sobel", ResultCache.key("sobel"), ImageHolder::applySobelOperator, 2),
+            new Candidate("prewitt", ResultCache.key("prewitt"), ImageHolder::applyPrewittOperator, 2),
+            new Candidate("box-blur", ResultCache.key("box-blur", new BoxBlur(5)), ImageHolder::applyBoxBlur, 2),
+            new Candidate("gaussian-blur", ResultCache.key("gaussian-blur", GaussianBlur.PRESET_5X5),
+                    ImageHolder::applyGaussianBlur, 3));
+
+    // Filters prefetched before anything has been used
+    private static final List<String> INITIAL_FILTERS = Arrays.asList("greyscale", "sobel", "gaussian-blur");
+    // Weight kept by earlier uses each time a filter is used
+    private static final double DECAY = 0.9;
+    // Most filters calculated ahead of time for each image
+    private static final int MAX_PREFETCHED = 3;
+
+    private final List<Candidate> candidates;
+    private final HashMap<String, Double> usage = new HashMap<>();
+    // Processes each image on the prefetch thread alone, leaving the other cores to the user
+    private final ImageProcessor image_processor = new ImageProcessor();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private Progress current_progress;
+    private Future<?> current_task;
+
+    private long prefetched_count;
+    private long preempted_count;
+
+    public Prefetcher() {
+        this(DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * @param candidates filters that can be prefetched
+     */
+    public Prefetcher(List<Candidate> candidates) {
+        this.candidates = candidates;
+        for (String filter : INITIAL_FILTERS)
+            usage.put(filter, 1.0);
+    }
+
+    /**
+     * Records that the user picked a filter
+     * @param filter name of the filter
+     */
+    public synchronized void recordUse(String filter) {
+        usage.replaceAll((name, weight) -> weight * DECAY);
+        usage.merge(filter, 1.0, Double::sum);
+    }
+
+    /**
+     * Ranks the filters that have been used by usage for their cost
+     * @return candidates, most worth prefetching first
+     */
+    public synchronized List<Candidate> rank() {
+        List<Candidate> ranked = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (usage.getOrDefault(candidate.name, 0.0) > 0)
+                ranked.add(candidate);
+        }
+        ranked.sort(Comparator.comparingDouble(candidate -> -usage.get(candidate.name) / candidate.cost));
+        return ranked;
+    }
+
+    /**
+     * Starts calculating the most likely filters for an image in the background, replacing any prefetch
+     * already running. Call this when the user is not waiting for anything.
+     * @param holder image to prefetch filters for
+     */
+    public synchronized void prefetch(ImageHolder holder) {
+        pause();
+        List<Candidate> ranked = rank();
+        ImageHolder background_holder = holder.withImageProcessor(image_processor);
+        ResultCache cache = holder.getCache();
+        long image_size = ResultCache.sizeOf(holder.getOriginalImage());
+        Progress progress = new Progress((rows_done, rows_total) -> {});
+        current_progress = progress;
+        current_task = executor.submit(() -> {
+            try {
+                progress.run(() -> {
+                    for (Candidate candidate : ranked.subList(0, Math.min(MAX_PREFETCHED, ranked.size()))) {
+                        if (holder.isCached(candidate.key))
+                            continue;
+                        // Never push out results the user has already seen
+                        if (cache.getSize() + image_size > cache.getByteBudget())
+                            break;
+                        candidate.filter.apply(background_holder);
+                        synchronized (this) {
+                            prefetched_count++;
+                        }
+                    }
+                    return null;
+                });
+            } catch (CancellationException err) {
+                // Pre-empted by a request from the user
+            }
+        });
+    }
+
+    /**
+     * Stops the prefetch that is running, if there is one, so a request from the user can have the cores
+     */
+    public synchronized void pause() {
+        if (current_progress == null)
+            return;
+        if (!current_task.isDone()) {
+            current_progress.cancel();
+            current_task.cancel(false);
+            preempted_count++;
+        }
+        current_progress = null;
+        current_task = null;
+    }
+
+    /** Stops prefetching and the prefetch thread */
+    public synchronized void shutdown() {
+        pause();
+        executor.shutdown();
+    }
+
+    /**
+     * Number of filters calculated ahead of time
+     * @return prefetched count
+     */
+    public synchronized long getPrefetchedCount() {
+        return prefetched_count;
+    }
+
+    /**
+     * Number of prefetches cancelled by requests from the user
+     * @return pre-empted count
+     */
+    public synchronized long getPreemptedCount() {
+        return preempted_count;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Reports how many rows of an operation the image processor has finished and lets it be cancelled.
+ *
+ * An operation run through run() reports progress from the calling thread and from the band threads
+ * working for it. Each pass over the image (a greyscale filter is one pass, corner detection is several)
+ * starts counting from zero. Once cancelled, the operation stops at the next row it finishes by throwing
+ * a CancellationException.
+ */
+public class Progress {
+
+    /** Receives progress from whichever thread finished the row */
+    public interface Listener {
+        /**
+         * Called when the number of finished rows of the current pass changes by at least one percent
+         * @param rows_done rows finished in the current pass
+         * @param rows_total rows in the current pass
+         */
+        void progressed(int rows_done, int rows_total);
+    }
+
+    // Progress of the operation each thread is working on, if it is being tracked
+    private static final ThreadLocal<Progress> CURRENT = new ThreadLocal<>();
+
+    private final Listener listener;
+    private final AtomicInteger rows_done = new AtomicInteger();
+    private volatile int rows_total;
+    private volatile boolean cancelled;
+
+    /**
+     * @param listener listener to report progress to
+     */
+    public Progress(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs an operation on the calling thread, tracking its progress
+     * @param operation operation to run
+     * @return result of the operation
+     * @throws CancellationException if the operation was cancelled
+     */
+    public <T> T run(Supplier<T> operation) {
+        Progress previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            checkCancelled();
+            return operation.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Stops the operation at the next row it finishes. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the progress being tracked on this thread
+     * @return progress, or null if the current operation is not being tracked
+     */
+    static Progress current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs part of the operation on another thread, such as a band of rows, tracking its progress
+     * @param part work to run
+     */
+    void runPart(Runnable part) {
+        run(() -> {
+            part.run();
+            return null;
+        });
+    }
+
+    /**
+     * Starts a new pass over the image
+     * @param rows number of rows in the pass
+     */
+    void startPass(int rows) {
+        checkCancelled();
+        rows_done.set(0);
+        rows_total = rows;
+        listener.progressed(0, rows);
+    }
+
+    /**
+     * Records that the current thread has finished a row. Does nothing if the operation is not being tracked.
+     * @throws CancellationException if the operation has been cancelled
+     */
+    public static void rowCompleted() {
+        Progress progress = CURRENT.get();
+        if (progress != null)
+            progress.completeRow();
+    }
+
+    private void completeRow() {
+        checkCancelled();
+        int done = rows_done.incrementAndGet();
+        int total = rows_total;
+        // Only report when the percentage changes so the listener is not flooded
+        if (total > 0 && (done * 100L / total != (done - 1) * 100L / total))
+            listener.progressed(done, total);
+    }
+
+    private void checkCancelled() {
+        if (cancelled)
+            throw new CancellationException("Operation was cancelled");
+    }
+}
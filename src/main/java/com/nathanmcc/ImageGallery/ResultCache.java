@@ -0,0 +1,272 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cache of filter results held within a budget of bytes.
+ *
+ * When the budget is exceeded the entry with the lowest priority is evicted. An entry's priority is
+ * the time it took to calculate divided by its size, added to an ageing value that rises every time
+ * something is evicted (GreedyDual-Size). Entries that are cheap to recalculate, such as a negative, go
+ * first, expensive ones such as corner detection are kept for longer, and among entries of the same cost
+ * the least recently used goes first.
+ *
+ * Evicted entries can optionally be kept through soft references, which the garbage collector clears
+ * only when it is short of memory. A soft entry that is still there when it is next asked for is moved
+ * back into the cache instead of being recalculated.
+ */
+public class ResultCache {
+
+    private static class Entry {
+        final Object value;
+        final long size;
+        final long cost;
+        double priority;
+
+        Entry(Object value, long size, long cost) {
+            this.value = value;
+            this.size = size;
+            this.cost = cost;
+        }
+    }
+
+    private final long byte_budget;
+    private final boolean soft_references;
+    private final HashMap<Object, Entry> entries = new HashMap<>();
+    private final HashMap<Object, SoftReference<Entry>> soft_entries = new HashMap<>();
+    private long size;
+    // Priority of the last entry evicted, added to the priority of every entry used after it
+    private double age;
+
+    private long hit_count;
+    private long soft_hit_count;
+    private long miss_count;
+    private long eviction_count;
+
+    /**
+     * @param byte_budget most bytes of results to hold strongly
+     * @param soft_references true to keep evicted results until the garbage collector needs the memory
+     */
+    public ResultCache(long byte_budget, boolean soft_references) {
+        if (byte_budget < 0)
+            throw new IllegalArgumentException("Byte budget must not be negative");
+        this.byte_budget = byte_budget;
+        this.soft_references = soft_references;
+    }
+
+    /**
+     * Creates a key for the result of a filter
+     * @param filter name of the filter
+     * @param parameters parameters of the filter, which must implement equals and hashCode
+     * @return key
+     */
+    public static List<Object> key(String filter, Object... parameters) {
+        Object[] key = new Object[parameters.length + 1];
+        key[0] = filter;
+        System.arraycopy(parameters, 0, key, 1, parameters.length);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Returns a cached result, calculating and caching it if it is not there
+     * @param key key of the result
+     * @param calculate calculates the result, timed to find how expensive it is
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Supplier<T> calculate) {
+        T value = (T) get(key);
+        if (value != null)
+            return value;
+
+        long start_time = System.nanoTime();
+        value = calculate.get();
+        put(key, value, System.nanoTime() - start_time);
+        return value;
+    }
+
+    /**
+     * Returns a cached result, counting a hit or a miss
+     * @param key key of the result
+     * @return result, or null if it is not cached
+     */
+    public synchronized Object get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hit_count++;
+            if (FilterMetrics.isCollecting())
+                FilterMetrics.recordCacheLookup(key, true, false);
+            entry.priority = priority(entry);
+            return entry.value;
+        }
+
+        entry = removeSoftEntry(key);
+        if (entry != null) {
+            soft_hit_count++;
+            if (FilterMetrics.isCollecting())
+                FilterMetrics.recordCacheLookup(key, true, true);
+            insert(key, entry);
+            return entry.value;
+        }
+
+        miss_count++;
+        if (FilterMetrics.isCollecting())
+            FilterMetrics.recordCacheLookup(key, false, false);
+        return null;
+    }
+
+    /**
+     * Returns a cached result without counting a hit or a miss, for results that are used when they
+     * happen to be there but not calculated for the purpose
+     * @param key key of the result
+     * @return result, or null if it is not cached
+     */
+    public synchronized Object peek(Object key) {
+        Entry entry = entries.get(key);
+        if (entry != null)
+            return entry.value;
+        entry = removeSoftEntry(key);
+        if (entry == null)
+            return null;
+        insert(key, entry);
+        return entry.value;
+    }
+
+    /**
+     * Adds a result to the cache, evicting other results if the budget is exceeded
+     * @param key key of the result
+     * @param value result, a BufferedImage or a primitive array
+     * @param cost nanoseconds it took to calculate the result
+     */
+    public synchronized void put(Object key, Object value, long cost) {
+        remove(key);
+        insert(key, new Entry(value, sizeOf(value), Math.max(1, cost)));
+    }
+
+    /**
+     * Removes a result from the cache
+     * @param key key of the result
+     */
+    public synchronized void remove(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            size -= entry.size;
+        soft_entries.remove(key);
+    }
+
+    /** Removes every result */
+    public synchronized void clear() {
+        entries.clear();
+        soft_entries.clear();
+        size = 0;
+    }
+
+    private void insert(Object key, Entry entry) {
+        entry.priority = priority(entry);
+        entries.put(key, entry);
+        size += entry.size;
+        while (size > byte_budget)
+            evict();
+    }
+
+    /**
+     * Evicts the entry with the lowest priority, moving it to the soft references if they are used
+     */
+    private void evict() {
+        Map.Entry<Object, Entry> lowest = null;
+        for (Map.Entry<Object, Entry> entry : entries.entrySet()) {
+            if (lowest == null || entry.getValue().priority < lowest.getValue().priority)
+                lowest = entry;
+        }
+        Entry entry = lowest.getValue();
+        entries.remove(lowest.getKey());
+        size -= entry.size;
+        age = entry.priority;
+        eviction_count++;
+        if (soft_references)
+            soft_entries.put(lowest.getKey(), new SoftReference<>(entry));
+    }
+
+    private Entry removeSoftEntry(Object key) {
+        SoftReference<Entry> reference = soft_entries.remove(key);
+        // Drop any other references the garbage collector has already cleared
+        for (Iterator<SoftReference<Entry>> i = soft_entries.values().iterator(); i.hasNext(); ) {
+            if (i.next().get() == null)
+                i.remove();
+        }
+        return reference == null ? null : reference.get();
+    }
+
+    private double priority(Entry entry) {
+        return age + (double) entry.cost / Math.max(1, entry.size);
+    }
+
+    /**
+     * Estimates the memory used by a result
+     * @param value a BufferedImage or a primitive array
+     * @return size in bytes
+     */
+    public static long sizeOf(Object value) {
+        if (value instanceof BufferedImage) {
+            DataBuffer buffer = ((BufferedImage) value).getRaster().getDataBuffer();
+            return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        }
+        if (value instanceof byte[])
+            return ((byte[]) value).length;
+        if (value instanceof int[])
+            return ((int[]) value).length * 4L;
+        if (value instanceof float[])
+            return ((float[]) value).length * 4L;
+        if (value instanceof double[])
+            return ((double[]) value).length * 8L;
+        return 0;
+    }
+
+    public long getByteBudget() {
+        return byte_budget;
+    }
+
+    /**
+     * Bytes of results currently held strongly
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hit_count;
+    }
+
+    /**
+     * Number of results found through a soft reference after being evicted
+     * @return number of soft hits
+     */
+    public synchronized long getSoftHitCount() {
+        return soft_hit_count;
+    }
+
+    public synchronized long getMissCount() {
+        return miss_count;
+    }
+
+    public synchronized long getEvictionCount() {
+        return eviction_count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, %.1f of %.1f MB, %d hits, %d soft hits, %d misses, %d evictions",
+                entries.size(), size / 1e6, byte_budget / 1e6, hit_count, soft_hit_count, miss_count, eviction_count);
+    }
+}
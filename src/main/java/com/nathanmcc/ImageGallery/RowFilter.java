@@ -0,0 +1,48 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Filter that produces its output one row at a time from a stream of input rows.
+ *
+ * Each output row depends only on the input rows within the radius above and below it, so the output
+ * can be streamed through a few rows of buffering, chained into other row filters without creating
+ * intermediate images, and split into bands of rows with a halo of input rows either side.
+ */
+public interface RowFilter {
+
+    /**
+     * Number of input rows needed above and below each output row
+     * @return radius in rows
+     */
+    int getRadius();
+
+    /**
+     * Opens a stream of filtered rows
+     * @param input input rows, which are read in order from max(0, start_row - radius) onwards and
+     *              never past the last row of the image
+     * @param width image width
+     * @param height image height
+     * @param start_row first row that will be requested from the returned source
+     * @return source of filtered rows, to be read in order from start_row
+     */
+    RowSource open(RowSource input, int width, int height, int start_row);
+
+    /**
+     * Filters the source image into the destination image, splitting the work into bands of rows
+     * @param source image to filter
+     * @param destination image to write to, must be the same size as the source
+     * @param bands executor to run the bands on
+     */
+    default void filter(BufferedImage source, BufferedImage destination, BandExecutor bands) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        bands.run(height, (start_row, end_row) -> {
+            RowSource rows = open(RowSource.of(source), width, height, start_row);
+            int[] row = new int[width];
+            for (int y = start_row; y < end_row; y++) {
+                rows.getRow(y, row);
+                PixelAccess.setRow(destination, y, row);
+                Progress.rowCompleted();
+            }
+        });
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Inner loops of the convolutions, run on planar rows: one colour channel of one row, one int per pixel.
+ *
+ * This is the plain Java implementation, used on every JDK. The multi-release jar adds VectorRowKernels
+ * for Java 17 and later, which does the same arithmetic with the incubating Vector API on as many pixels
+ * at once as the processor's vectors hold, and getInstance() returns it when the JVM has been started
+ * with --add-modules jdk.incubator.vector. Integer arithmetic is exact, and wraps the same way in both, so
+ * they give identical results.
+ *
+ * Every method works on the pixels from start to end, and the caller makes sure every source index they
+ * read is inside the source row, leaving the pixels near the edges to its own loops.
+ */
+public class RowKernels {
+
+    // Chosen the first time the kernels are used
+    private static class Instance {
+        static final RowKernels INSTANCE = RowKernelsSelector.select();
+    }
+
+    /**
+     * Returns the fastest implementation this JVM can run, which can be turned back to the plain Java
+     * one with -Dimagegallery.vector=false
+     * @return row kernels
+     */
+    public static RowKernels getInstance() {
+        return Instance.INSTANCE;
+    }
+
+    /**
+     * Adds a weighted row to an accumulator: accumulator[x] += weight * source[x + source_offset]
+     * @param source source row
+     * @param source_offset index in the source of pixel 0 of the accumulator
+     * @param weight weight of the source
+     * @param accumulator sums to add to
+     * @param start first pixel
+     * @param end pixel after the last
+     */
+    public void multiplyAdd(int[] source, int source_offset, int weight, int[] accumulator, int start, int end) {
+        for (int x = start; x < end; x++)
+            accumulator[x] += weight * source[x + source_offset];
+    }
+
+    /**
+     * Adds a 1D kernel run along a row to an accumulator:
+     * accumulator[x] += sum over i of kernel[i] * source[x + source_offset + i]
+     * @param source source row
+     * @param source_offset index in the source of the first pixel under the kernel for pixel 0, -radius for
+     *                      a kernel centred on each pixel
+     * @param kernel weights
+     * @param accumulator sums to add to
+     * @param start first pixel
+     * @param end pixel after the last
+     */
+    public void addCorrelation(int[] source, int source_offset, int[] kernel, int[] accumulator, int start, int end) {
+        int sum;
+        for (int x = start; x < end; x++) {
+            sum = accumulator[x];
+            for (int i = 0, source_x = x + source_offset; i < kernel.length; i++, source_x++)
+                sum += kernel[i] * source[source_x];
+            accumulator[x] = sum;
+        }
+    }
+
+    /**
+     * Runs a 3x3 kernel over three rows: output[x] = sum over i and j of kernel[3 * j + i] * row_j[x - 1 + i],
+     * where row 0 is above, 1 is current and 2 is below. The caller keeps start at least 1 and end at
+     * most the row length - 1.
+     * @param above row above
+     * @param current current row
+     * @param below row below
+     * @param kernel nine weights, row by row from the top left
+     * @param output array to write the sums to
+     * @param start first pixel
+     * @param end pixel after the last
+     */
+    public void correlate3x3(int[] above, int[] current, int[] below, int[] kernel, int[] output, int start, int end) {
+        int top_left = kernel[0], top = kernel[1], top_right = kernel[2];
+        int left = kernel[3], centre = kernel[4], right = kernel[5];
+        int bottom_left = kernel[6], bottom = kernel[7], bottom_right = kernel[8];
+        for (int x = start; x < end; x++) {
+            output[x] = top_left * above[x - 1] + top * above[x] + top_right * above[x + 1]
+                    + left * current[x - 1] + centre * current[x] + right * current[x + 1]
+                    + bottom_left * below[x - 1] + bottom * below[x] + bottom_right * below[x + 1];
+        }
+    }
+
+    /**
+     * Runs a 5x5 kernel over five rows: output[x] = sum over i and j of kernel[5 * j + i] * rows[j][x - 2 + i].
+     * The caller keeps start at least 2 and end at most the row length - 2.
+     * @param rows the two rows above, the current row and the two rows below
+     * @param kernel 25 weights, row by row from the top left
+     * @param output array to write the sums to
+     * @param start first pixel
+     * @param end pixel after the last
+     */
+    public void correlate5x5(int[][] rows, int[] kernel, int[] output, int start, int end) {
+        int[] row_0 = rows[0], row_1 = rows[1], row_2 = rows[2], row_3 = rows[3], row_4 = rows[4];
+        int k_0 = kernel[0], k_1 = kernel[1], k_2 = kernel[2], k_3 = kernel[3], k_4 = kernel[4];
+        int k_5 = kernel[5], k_6 = kernel[6], k_7 = kernel[7], k_8 = kernel[8], k_9 = kernel[9];
+        int k_10 = kernel[10], k_11 = kernel[11], k_12 = kernel[12], k_13 = kernel[13], k_14 = kernel[14];
+        int k_15 = kernel[15], k_16 = kernel[16], k_17 = kernel[17], k_18 = kernel[18], k_19 = kernel[19];
+        int k_20 = kernel[20], k_21 = kernel[21], k_22 = kernel[22], k_23 = kernel[23], k_24 = kernel[24];
+        for (int x = start; x < end; x++) {
+            output[x] = k_0 * row_0[x - 2] + k_1 * row_0[x - 1] + k_2 * row_0[x] + k_3 * row_0[x + 1] + k_4 * row_0[x + 2]
+                    + k_5 * row_1[x - 2] + k_6 * row_1[x - 1] + k_7 * row_1[x] + k_8 * row_1[x + 1] + k_9 * row_1[x + 2]
+                    + k_10 * row_2[x - 2] + k_11 * row_2[x - 1] + k_12 * row_2[x] + k_13 * row_2[x + 1] + k_14 * row_2[x + 2]
+                    + k_15 * row_3[x - 2] + k_16 * row_3[x - 1] + k_17 * row_3[x] + k_18 * row_3[x + 1] + k_19 * row_3[x + 2]
+                    + k_20 * row_4[x - 2] + k_21 * row_4[x - 1] + k_22 * row_4[x] + k_23 * row_4[x + 1] + k_24 * row_4[x + 2];
+        }
+    }
+
+    /**
+     * Describes the implementation
+     * @return "scalar", or the vector shape used
+     */
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
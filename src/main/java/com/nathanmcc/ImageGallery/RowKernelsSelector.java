@@ -0,0 +1,10 @@
+/**
+ * Chooses the RowKernels implementation. This is the Java 9 version, which only has the plain Java one.
+ * The multi-release jar replaces it on Java 17 and later with a version that can choose VectorRowKernels.
+ */
+public class RowKernelsSelector {
+
+    static RowKernels select() {
+        return new RowKernels();
+    }
+}
@@ -0,0 +1,26 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Supplies the rows of an image one at a time as packed ARGB values.
+ *
+ * Rows are requested in order, one after another, starting from the row the source was opened at,
+ * so a source only has to keep the few rows it is working on rather than the whole image.
+ */
+public interface RowSource {
+
+    /**
+     * Writes the next row into the array
+     * @param y row to write, always one more than the previous row requested
+     * @param row array to fill, at least as long as the image width
+     */
+    void getRow(int y, int[] row);
+
+    /**
+     * Creates a source that reads rows straight out of an image
+     * @param image image to read from
+     * @return row source
+     */
+    static RowSource of(BufferedImage image) {
+        return (y, row) -> PixelAccess.getRow(image, y, row);
+    }
+}
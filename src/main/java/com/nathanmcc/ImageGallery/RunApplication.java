@@ -13,6 +13,8 @@ public class RunApplication implements Runnable{
     }
 
     public static void main(String args[]){
+        // Metrics can be switched on and read over JMX, for example with JConsole
+        FilterMetrics.register();
         // Start swing in different thread to the main thread
         SwingUtilities.invokeLater( new RunApplication());
     }
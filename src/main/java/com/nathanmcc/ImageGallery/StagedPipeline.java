@@ -0,0 +1,355 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs items through a chain of stages, each with its own threads, joined by bounded queues.
+ *
+ * Each stage takes items from the queue in front of it and puts them on the queue in front of the next
+ * stage. When a stage falls behind, the queue in front of it fills, the stage before it blocks putting
+ * items on it, and so on back to whatever is submitting items, so a slow stage holds the ones before it
+ * back instead of letting their output pile up. At most a queue's capacity plus a stage's threads of
+ * items are waiting for or in each stage.
+ *
+ * Each stage counts how long its threads spent working, waiting for items and blocked on the next stage,
+ * and how deep the queue in front of it was, to show which stages need more threads.
+ */
+public class StagedPipeline<T> {
+
+    /**
+     * Work done by a stage
+     */
+    public interface Work<T> {
+        /**
+         * @param item item to work on
+         * @return true to pass the item on to the next stage, false to drop it
+         * @throws Exception to drop the item and report it to the failure handler
+         */
+        boolean run(T item) throws Exception;
+    }
+
+    /** Statistics of a stage, from the start of the last run */
+    public static class StageStats {
+        private final String name;
+        private final int threads;
+        private final int queue_capacity;
+        private final long items;
+        private final long failures;
+        private final long busy_nanos;
+        private final long idle_nanos;
+        private final long blocked_nanos;
+        private final long elapsed_nanos;
+        private final double mean_queue_depth;
+        private final int max_queue_depth;
+
+        private StageStats(Stage<?> stage, long elapsed_nanos) {
+            this.name = stage.name;
+            this.threads = stage.threads;
+            this.queue_capacity = stage.queue.remainingCapacity() + stage.queue.size();
+            this.items = stage.items;
+            this.failures = stage.failures;
+            this.busy_nanos = stage.busy_nanos;
+            this.idle_nanos = stage.idle_nanos;
+            this.blocked_nanos = stage.blocked_nanos;
+            this.elapsed_nanos = elapsed_nanos;
+            this.mean_queue_depth = stage.items + stage.failures == 0 ? 0
+                    : (double) stage.total_queue_depth / (stage.items + stage.failures);
+            this.max_queue_depth = stage.max_queue_depth;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getQueueCapacity() {
+            return queue_capacity;
+        }
+
+        /**
+         * Number of items the stage finished, including items it dropped
+         * @return item count
+         */
+        public long getItems() {
+            return items;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Fraction of its threads' time the stage spent working
+         * @return utilisation between 0 and 1
+         */
+        public double getUtilisation() {
+            return fraction(busy_nanos);
+        }
+
+        /**
+         * Fraction of its threads' time the stage spent waiting for items from the stage before it
+         * @return idle fraction between 0 and 1
+         */
+        public double getIdleFraction() {
+            return fraction(idle_nanos);
+        }
+
+        /**
+         * Fraction of its threads' time the stage spent waiting for room on the next stage's queue, which
+         * is how much the next stage held it back
+         * @return blocked fraction between 0 and 1
+         */
+        public double getBlockedFraction() {
+            return fraction(blocked_nanos);
+        }
+
+        /**
+         * Mean number of items waiting in the queue in front of the stage, seen as each item was taken
+         * @return mean queue depth
+         */
+        public double getMeanQueueDepth() {
+            return mean_queue_depth;
+        }
+
+        public int getMaxQueueDepth() {
+            return max_queue_depth;
+        }
+
+        private double fraction(long nanos) {
+            return elapsed_nanos == 0 ? 0 : Math.min(1.0, (double) nanos / ((double) elapsed_nanos * threads));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s: %d threads, %d items, %d failed, %.0f%% busy, %.0f%% idle, %.0f%% blocked, queue %.1f mean %d max of %d",
+                    name, threads, items, failures, 100 * getUtilisation(), 100 * getIdleFraction(),
+                    100 * getBlockedFraction(), mean_queue_depth, max_queue_depth, queue_capacity);
+        }
+    }
+
+    private static class Stage<T> {
+        final String name;
+        final int threads;
+        final Work<T> work;
+        // Items waiting for this stage
+        final BlockingQueue<Object> queue;
+
+        // Guarded by the stage
+        long items;
+        long failures;
+        long busy_nanos;
+        long idle_nanos;
+        long blocked_nanos;
+        long total_queue_depth;
+        int max_queue_depth;
+        int running_threads;
+
+        Stage(String name, int threads, int queue_capacity, Work<T> work) {
+            this.name = name;
+            this.threads = threads;
+            this.work = work;
+            this.queue = new ArrayBlockingQueue<>(queue_capacity);
+        }
+
+        synchronized void reset() {
+            items = failures = busy_nanos = idle_nanos = blocked_nanos = total_queue_depth = 0;
+            max_queue_depth = 0;
+            running_threads = threads;
+        }
+    }
+
+    // Put on a queue once for each thread of the stage after it, when the items have run out
+    private static final Object END = new Object();
+
+    private final String name;
+    private final List<Stage<T>> stages = new ArrayList<>();
+    private final BiConsumer<T, Throwable> failure_handler;
+    private volatile long start_nanos;
+    private volatile long end_nanos;
+
+    /**
+     * @param name name the stage threads are given, followed by the stage name
+     * @param failure_handler told about each item whose work threw, on the thread of the stage that failed
+     */
+    public StagedPipeline(String name, BiConsumer<T, Throwable> failure_handler) {
+        this.name = name;
+        this.failure_handler = failure_handler;
+    }
+
+    /**
+     * Adds a stage to the end of the pipeline
+     * @param stage_name name of the stage
+     * @param threads number of threads working on the stage at once
+     * @param queue_capacity most items that can wait for the stage
+     * @param work work the stage does on each item
+     * @return this pipeline
+     */
+    public StagedPipeline<T> addStage(String stage_name, int threads, int queue_capacity, Work<T> work) {
+        if (threads < 1 || queue_capacity < 1)
+            throw new IllegalArgumentException("Stages need at least one thread and room for one item");
+        stages.add(new Stage<>(stage_name, threads, queue_capacity, work));
+        return this;
+    }
+
+    /**
+     * Runs every item through the stages, waiting until they have all been through. Submitting an item
+     * blocks while the first stage's queue is full.
+     * @param items items to run
+     * @throws InterruptedException if interrupted while submitting items or waiting for them
+     */
+    public void run(Iterable<T> items) throws InterruptedException {
+        if (stages.isEmpty())
+            throw new IllegalStateException("No stages");
+        int thread_count = 0;
+        for (Stage<T> stage : stages) {
+            stage.reset();
+            stage.queue.clear();
+            thread_count += stage.threads;
+        }
+        CountDownLatch done = new CountDownLatch(thread_count);
+        List<Thread> threads = new ArrayList<>();
+        start_nanos = System.nanoTime();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage<T> stage = stages.get(i);
+            Stage<T> next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            for (int j = 0; j < stage.threads; j++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        runStage(stage, next);
+                    } finally {
+                        done.countDown();
+                    }
+                }, name + " " + stage.name + " " + (j + 1));
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        try {
+            Stage<T> first = stages.get(0);
+            for (T item : items)
+                first.queue.put(item);
+            for (int i = 0; i < first.threads; i++)
+                first.queue.put(END);
+            done.await();
+        } catch (InterruptedException err) {
+            for (Thread thread : threads)
+                thread.interrupt();
+            throw err;
+        } finally {
+            end_nanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Works on items until the end of the items is reached, then passes the end on to the next stage
+     * once every thread of this stage has reached it
+     */
+    @SuppressWarnings("unchecked")
+    private void runStage(Stage<T> stage, Stage<T> next) {
+        try {
+            while (true) {
+                long wait_start = System.nanoTime();
+                int depth = stage.queue.size();
+                Object taken = stage.queue.take();
+                long work_start = System.nanoTime();
+                if (taken == END)
+                    break;
+
+                T item = (T) taken;
+                boolean pass_on = false;
+                Throwable failure = null;
+                try {
+                    pass_on = stage.work.run(item);
+                } catch (Exception | Error err) {
+                    // Running out of memory for one image should not stop the stage
+                    failure = err;
+                }
+                long work_end = System.nanoTime();
+                if (failure != null)
+                    reportFailure(item, failure);
+                if (pass_on && next != null)
+                    next.queue.put(item);
+                long put_end = System.nanoTime();
+
+                synchronized (stage) {
+                    if (failure != null)
+                        stage.failures++;
+                    else
+                        stage.items++;
+                    stage.idle_nanos += work_start - wait_start;
+                    stage.busy_nanos += work_end - work_start;
+                    stage.blocked_nanos += put_end - work_end;
+                    stage.total_queue_depth += depth;
+                    stage.max_queue_depth = Math.max(stage.max_queue_depth, depth);
+                }
+            }
+        } catch (InterruptedException err) {
+            // The run was interrupted, so the end is not passed on either
+            Thread.currentThread().interrupt();
+        } finally {
+            // Even if this thread is dying, the next stage must still be told when the items run out
+            boolean last_thread;
+            synchronized (stage) {
+                last_thread = --stage.running_threads == 0;
+            }
+            if (last_thread && next != null) {
+                try {
+                    for (int i = 0; i < next.threads; i++)
+                        next.queue.put(END);
+                } catch (InterruptedException err) {
+                    // The run was interrupted
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells the failure handler about an item whose work threw. A handler that throws itself is reported
+     * to the thread's uncaught exception handler, so the stage goes on to the next item.
+     */
+    private void reportFailure(T item, Throwable failure) {
+        try {
+            failure_handler.accept(item, failure);
+        } catch (RuntimeException | Error err) {
+            err.addSuppressed(failure);
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, err);
+        }
+    }
+
+    /**
+     * Returns the statistics of every stage, from the start of the last run until it finished or now
+     * @return statistics, in stage order
+     */
+    public List<StageStats> getStats() {
+        long end = end_nanos >= start_nanos ? end_nanos : System.nanoTime();
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage<T> stage : stages) {
+            synchronized (stage) {
+                stats.add(new StageStats(stage, end - start_nanos));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Most items that can be waiting for or in the stages at once, besides those being submitted
+     * @return item count
+     */
+    public int getCapacity() {
+        int capacity = 0;
+        for (Stage<T> stage : stages)
+            capacity += stage.threads + stage.queue.remainingCapacity() + stage.queue.size();
+        return capacity;
+    }
+}
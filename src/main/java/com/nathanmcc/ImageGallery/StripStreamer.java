@@ -0,0 +1,333 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * Filters images that are too large to hold in memory, one horizontal strip at a time.
+ *
+ * The source is decoded a strip at a time with ImageReadParam.setSourceRegion and the rows are passed
+ * through a RowFilter, which keeps the halo rows it needs from the previous strip. The filtered rows are
+ * handed to the ImageWriter as they are produced, so the memory used depends on the strip height and not
+ * on the size of the image.
+ *
+ * Only formats whose writers pull rows from the top of the image down can be written this way (png and
+ * tiff). Readers that cannot seek to a row, such as png and jpeg, decode from the top of the image for
+ * every strip, so taller strips trade memory for less repeated decoding. Tiff sources read only the
+ * strips they need.
+ */
+public class StripStreamer {
+
+    /** Formats whose writers request rows in order from the top of the image */
+    public static final List<String> STREAMABLE_FORMATS = Arrays.asList("png", "tif", "tiff");
+
+    // Strips are sized to hold roughly this many pixels when no height is given
+    private static final int DEFAULT_STRIP_PIXELS = 8 * 1024 * 1024;
+
+    private final RowFilter filter;
+    private final int strip_height;
+
+    /**
+     * Creates a streamer with strips of about 8 million pixels
+     * @param filter filter to apply
+     */
+    public StripStreamer(RowFilter filter) {
+        this(filter, 0);
+    }
+
+    /**
+     * @param filter filter to apply
+     * @param strip_height number of rows decoded at once, or 0 to choose from the image width
+     */
+    public StripStreamer(RowFilter filter, int strip_height) {
+        if (strip_height < 0)
+            throw new IllegalArgumentException("Strip height must not be negative");
+        this.filter = filter;
+        this.strip_height = strip_height;
+    }
+
+    /**
+     * Checks whether images can be written to a format as they are filtered
+     * @param format image format name
+     * @return true if the format's writer takes rows in order
+     */
+    public static boolean canStream(String format) {
+        return STREAMABLE_FORMATS.contains(format.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Filters an image file into another file
+     * @param input image file to read
+     * @param output file to write
+     * @param format output image format, one of STREAMABLE_FORMATS
+     * @throws IOException if the input could not be read or the output could not be written
+     */
+    public void stream(File input, File output, String format) throws IOException {
+        Files.deleteIfExists(output.toPath());
+        try (ImageInputStream input_stream = ImageIO.createImageInputStream(input);
+             ImageOutputStream output_stream = ImageIO.createImageOutputStream(output)) {
+            if (input_stream == null)
+                throw new IOException("Could not open " + input);
+            stream(input_stream, output_stream, format);
+        }
+    }
+
+    /**
+     * Filters the first image of a stream into another stream
+     * @param input stream to read the image from
+     * @param output stream to write the filtered image to
+     * @param format output image format, one of STREAMABLE_FORMATS
+     * @throws IOException if the input could not be read or the output could not be written
+     */
+    public void stream(ImageInputStream input, ImageOutputStream output, String format) throws IOException {
+        if (!canStream(format))
+            throw new IllegalArgumentException("Images cannot be written to " + format + " one strip at a time");
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext())
+            throw new IOException("Not a readable image");
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext())
+            throw new IllegalArgumentException("Unknown image format " + format);
+
+        ImageReader reader = readers.next();
+        ImageWriter writer = writers.next();
+        try {
+            reader.setInput(input, false, true);
+            StripReader strips = new StripReader(reader);
+            int width = strips.width;
+            int height = strips.height;
+            RowSource rows = filter.open(strips, width, height, 0);
+
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(new FilteredImage(rows, width, height, strips.output_type, strips.strip_height),
+                    null, null), writer.getDefaultWriteParam());
+        } catch (StreamingException err) {
+            throw (IOException) err.getCause();
+        } finally {
+            reader.dispose();
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Decodes the source a strip at a time and supplies its rows in order
+     */
+    private class StripReader implements RowSource {
+        private final ImageReader reader;
+        private final ImageReadParam param;
+        private final int width;
+        private final int height;
+        private final int strip_height;
+        // Type of image the filtered rows are written into
+        private final int output_type;
+        private BufferedImage strip;
+        private int strip_start;
+
+        StripReader(ImageReader reader) throws IOException {
+            this.reader = reader;
+            this.param = reader.getDefaultReadParam();
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+            this.strip_height = Math.min(height, StripStreamer.this.strip_height > 0
+                    ? StripStreamer.this.strip_height : Math.max(1, DEFAULT_STRIP_PIXELS / width));
+            readStrip(0);
+            // Filters create images of the same type as their input, which needs a standard type
+            this.output_type = strip.getType() != BufferedImage.TYPE_CUSTOM ? strip.getType()
+                    : strip.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+
+        private void readStrip(int start) throws IOException {
+            // Drop the previous strip before decoding the next one so only one is held at a time
+            strip = null;
+            param.setSourceRegion(new Rectangle(0, start, width, Math.min(strip_height, height - start)));
+            strip = reader.read(0, param);
+            strip_start = start;
+        }
+
+        @Override
+        public void getRow(int y, int[] row) {
+            if (y >= strip_start + strip.getHeight()) {
+                try {
+                    readStrip(y);
+                } catch (IOException err) {
+                    throw new StreamingException(err);
+                }
+            }
+            PixelAccess.getRow(strip, y - strip_start, row);
+        }
+    }
+
+    /**
+     * Image whose rows are filtered as the writer asks for them. Rows can only be requested in order,
+     * each one once.
+     */
+    private static class FilteredImage implements RenderedImage {
+        private final RowSource rows;
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int tile_height;
+        private final BufferedImage prototype;
+        private final int[] row;
+        private int next_row;
+
+        FilteredImage(RowSource rows, int width, int height, int type, int tile_height) {
+            this.rows = rows;
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.tile_height = tile_height;
+            this.prototype = new BufferedImage(1, 1, type);
+            this.row = new int[width];
+        }
+
+        @Override
+        public Raster getData(Rectangle rectangle) {
+            if (rectangle.y != next_row)
+                throw new IllegalStateException("Rows must be written in order from the top of the image");
+            int rows_height = Math.min(rectangle.height, height - rectangle.y);
+            BufferedImage block = new BufferedImage(width, rows_height, type);
+            for (int y = 0; y < rows_height; y++) {
+                rows.getRow(next_row++, row);
+                PixelAccess.setRow(block, y, row);
+            }
+            WritableRaster raster = block.getRaster().createWritableTranslatedChild(0, rectangle.y);
+            if (rectangle.x == 0 && rectangle.width == width)
+                return raster;
+            return raster.createChild(rectangle.x, rectangle.y, rectangle.width, rows_height, rectangle.x, rectangle.y, null);
+        }
+
+        @Override
+        public Raster getTile(int tile_x, int tile_y) {
+            return getData(new Rectangle(0, tile_y * tile_height, width, tile_height));
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            Rectangle bounds = raster == null ? new Rectangle(0, 0, width, height) : raster.getBounds();
+            Raster data = getData(bounds);
+            WritableRaster copy = raster != null ? raster : data.createCompatibleWritableRaster(0, 0, width, height);
+            copy.setRect(data);
+            return copy;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return prototype.getColorModel();
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return prototype.getSampleModel().createCompatibleSampleModel(width, tile_height);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + tile_height - 1) / tile_height;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return tile_height;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return java.awt.Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+    }
+
+    /**
+     * Carries a read error out of a row source, which cannot throw checked exceptions
+     */
+    private static class StreamingException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StreamingException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Decodes images straight to thumbnail size, without holding the full size image.
+ *
+ * A thumbnail embedded in the file is used when there is one at least as large as the thumbnail with the
+ * same shape as the image: the EXIF thumbnail most cameras write into their JPEGs, or one the image reader
+ * knows about such as a JFIF thumbnail. Otherwise the image is read with source subsampling, so the reader
+ * only keeps every nth pixel of every nth row, and the subsampled image is box averaged down to size. The
+ * subsampling leaves at least twice the thumbnail size for the average, so fine detail does not alias.
+ */
+public class ThumbnailDecoder {
+
+    // Subsample to no less than this many times the thumbnail size
+    private static final int OVERSAMPLING = 2;
+    // Embedded thumbnails whose shape differs from the image's by more than this are letterboxed or
+    // cropped, so are not used
+    private static final double ASPECT_TOLERANCE = 0.02;
+    // JPEG markers
+    private static final int START_OF_IMAGE = 0xFFD8;
+    private static final int START_OF_SCAN = 0xFFDA;
+    private static final int END_OF_IMAGE = 0xFFD9;
+    private static final int APP1 = 0xFFE1;
+    private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+    // TIFF tags of IFD1, which describes the thumbnail
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int COMPRESSION_JPEG = 6;
+
+    private final ImageProcessor image_processor;
+
+    private long embedded_count;
+    private long subsampled_count;
+
+    /**
+     * @param image_processor processor used to scale the thumbnails
+     */
+    public ThumbnailDecoder(ImageProcessor image_processor) {
+        this.image_processor = image_processor;
+    }
+
+    /**
+     * Decodes an image file as a thumbnail
+     * @param file image file
+     * @param max_width largest width of the thumbnail
+     * @param max_height largest height of the thumbnail
+     * @return thumbnail with the image's aspect ratio, no larger than the image
+     * @throws IOException if the file is not a readable image
+     */
+    public BufferedImage decode(File file, int max_width, int max_height) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext())
+                throw new IOException("Not a readable image");
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double thumbnail_scale = fitScale(width, height, max_width, max_height);
+                int thumbnail_width = Math.max(1, (int) Math.round(width * thumbnail_scale));
+                int thumbnail_height = Math.max(1, (int) Math.round(height * thumbnail_scale));
+
+                FilterMetrics.Measurement measurement = FilterMetrics.start("decodeThumbnail", (long) width * height);
+                try {
+                    BufferedImage image = readEmbedded(file, reader, width, height, thumbnail_width, thumbnail_height);
+                    if (image != null) {
+                        synchronized (this) {
+                            embedded_count++;
+                        }
+                    } else {
+                        image = readSubsampled(reader, width, height, thumbnail_width, thumbnail_height);
+                        synchronized (this) {
+                            subsampled_count++;
+                        }
+                    }
+                    return scaleTo(image, thumbnail_width, thumbnail_height);
+                } finally {
+                    if (measurement != null)
+                        measurement.stop();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales an image down to fit within the given size, keeping its aspect ratio
+     * @param image image of any type
+     * @param max_width largest width of the thumbnail
+     * @param max_height largest height of the thumbnail
+     * @return thumbnail, or the image itself if it already fits and is of a standard type
+     */
+    public BufferedImage scale(BufferedImage image, int max_width, int max_height) {
+        double thumbnail_scale = fitScale(image.getWidth(), image.getHeight(), max_width, max_height);
+        return scaleTo(image, Math.max(1, (int) Math.round(image.getWidth() * thumbnail_scale)),
+                Math.max(1, (int) Math.round(image.getHeight() * thumbnail_scale)));
+    }
+
+    /**
+     * Scales an image down to the size of the thumbnail, which may differ from the image's own shape by
+     * a pixel when the image has been subsampled
+     */
+    private BufferedImage scaleTo(BufferedImage image, int width, int height) {
+        image = toStandardType(image);
+        width = Math.min(width, image.getWidth());
+        height = Math.min(height, image.getHeight());
+        if (width == image.getWidth() && height == image.getHeight())
+            return image;
+        return image_processor.downscale(image, width, height);
+    }
+
+    private static double fitScale(int width, int height, int max_width, int max_height) {
+        return Math.min(1.0, Math.min((double) max_width / width, (double) max_height / height));
+    }
+
+    /**
+     * Reads every nth pixel of every nth row, choosing the largest n that leaves the image at least
+     * OVERSAMPLING times the thumbnail size
+     */
+    private static BufferedImage readSubsampled(ImageReader reader, int width, int height,
+                                                int thumbnail_width, int thumbnail_height) throws IOException {
+        int subsampling = Math.max(1, Math.min(width / (thumbnail_width * OVERSAMPLING),
+                height / (thumbnail_height * OVERSAMPLING)));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    /**
+     * Returns an embedded thumbnail that is at least the thumbnail size and the same shape as the image,
+     * the EXIF thumbnail if it will do and otherwise the smallest that the reader finds, or null if there
+     * is none. Embedded thumbnails that cannot be read are passed over, since the image itself may still
+     * be readable.
+     */
+    private static BufferedImage readEmbedded(File file, ImageReader reader, int width, int height,
+                                              int thumbnail_width, int thumbnail_height) throws IOException {
+        try {
+            byte[] exif_thumbnail = readExifThumbnail(file);
+            BufferedImage embedded = exif_thumbnail == null ? null : ImageIO.read(new ByteArrayInputStream(exif_thumbnail));
+            if (embedded != null && isUsable(embedded, width, height, thumbnail_width, thumbnail_height))
+                return embedded;
+        } catch (IIOException err) {
+            // A damaged thumbnail
+        }
+        if (!reader.readerSupportsThumbnails())
+            return null;
+
+        BufferedImage best = null;
+        try {
+            for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+                if (best != null && reader.getThumbnailWidth(0, i) >= best.getWidth())
+                    continue;
+                BufferedImage embedded = reader.readThumbnail(0, i);
+                if (isUsable(embedded, width, height, thumbnail_width, thumbnail_height))
+                    best = embedded;
+            }
+        } catch (IIOException err) {
+            // Metadata the reader does not understand, such as a JPEG with EXIF but no JFIF segment
+        }
+        return best;
+    }
+
+    private static boolean isUsable(BufferedImage embedded, int width, int height,
+                                    int thumbnail_width, int thumbnail_height) {
+        double aspect = (double) width / height;
+        double embedded_aspect = (double) embedded.getWidth() / embedded.getHeight();
+        return embedded.getWidth() >= thumbnail_width && embedded.getHeight() >= thumbnail_height
+                && Math.abs(embedded_aspect / aspect - 1) <= ASPECT_TOLERANCE;
+    }
+
+    /**
+     * Finds the JPEG thumbnail in a JPEG file's EXIF segment, reading no further than the start of the
+     * image data
+     * @param file image file
+     * @return the thumbnail's JPEG bytes, or null if the file is not a JPEG or has no EXIF thumbnail
+     */
+    static byte[] readExifThumbnail(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readUnsignedShort() != START_OF_IMAGE)
+                return null;
+            while (true) {
+                int marker = input.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == START_OF_SCAN || marker == END_OF_IMAGE)
+                    return null;
+                int length = input.readUnsignedShort() - 2;
+                if (length < 0)
+                    return null;
+                if (marker != APP1) {
+                    input.readFully(new byte[length]);
+                    continue;
+                }
+                byte[] segment = new byte[length];
+                input.readFully(segment);
+                // APP1 also holds XMP, so keep looking if this is not the EXIF segment
+                byte[] thumbnail = findExifThumbnail(segment);
+                if (thumbnail != null)
+                    return thumbnail;
+            }
+        } catch (EOFException err) {
+            return null;
+        }
+    }
+
+    /**
+     * Follows the TIFF structure of an EXIF segment to IFD1 and returns the JPEG it points to
+     */
+    private static byte[] findExifThumbnail(byte[] segment) {
+        if (segment.length < EXIF_HEADER.length + 8
+                || !Arrays.equals(Arrays.copyOf(segment, EXIF_HEADER.length), EXIF_HEADER))
+            return null;
+        ByteBuffer tiff = ByteBuffer.wrap(segment, EXIF_HEADER.length, segment.length - EXIF_HEADER.length).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        try {
+            int ifd0 = tiff.getInt(4);
+            int ifd1 = tiff.getInt(ifd0 + 2 + 12 * (tiff.getShort(ifd0) & 0xFFFF));
+            if (ifd1 <= 0)
+                return null;
+            int compression = COMPRESSION_JPEG;
+            int offset = 0;
+            int length = 0;
+            for (int i = 0, entries = tiff.getShort(ifd1) & 0xFFFF; i < entries; i++) {
+                int entry = ifd1 + 2 + 12 * i;
+                int tag = tiff.getShort(entry) & 0xFFFF;
+                if (tag == TAG_COMPRESSION)
+                    compression = tiff.getShort(entry + 8) & 0xFFFF;
+                else if (tag == TAG_THUMBNAIL_OFFSET)
+                    offset = tiff.getInt(entry + 8);
+                else if (tag == TAG_THUMBNAIL_LENGTH)
+                    length = tiff.getInt(entry + 8);
+            }
+            if (compression != COMPRESSION_JPEG || offset <= 0 || length <= 0 || offset > tiff.limit() - length)
+                return null;
+            byte[] thumbnail = new byte[length];
+            tiff.position(offset);
+            tiff.get(thumbnail);
+            return thumbnail;
+        } catch (IndexOutOfBoundsException err) {
+            // Offsets that point outside the segment
+            return null;
+        }
+    }
+
+    /**
+     * Draws images of types the image processor does not make, such as 16 bit PNGs, into an RGB image
+     */
+    private static BufferedImage toStandardType(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_CUSTOM)
+            return image;
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    /**
+     * Number of thumbnails taken from a thumbnail embedded in the file
+     * @return embedded count
+     */
+    public synchronized long getEmbeddedCount() {
+        return embedded_count;
+    }
+
+    /**
+     * Number of thumbnails read with source subsampling
+     * @return subsampled count
+     */
+    public synchronized long getSubsampledCount() {
+        return subsampled_count;
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * Chooses the RowKernels implementation. This is the Java 17 version from the multi-release jar, which
+ * chooses VectorRowKernels when the jdk.incubator.vector module has been added to the JVM and its
+ * vectors hold at least four ints.
+ */
+public class RowKernelsSelector {
+
+    // Narrower vectors are no faster than the loops the JIT compiler vectorises by itself
+    private static final int MIN_LANES = 4;
+
+    static RowKernels select() {
+        if (!Boolean.parseBoolean(System.getProperty("imagegallery.vector", "true"))
+                || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return new RowKernels();
+        // VectorRowKernels is only loaded once the module is known to be there
+        VectorRowKernels kernels = new VectorRowKernels();
+        return kernels.getLanes() >= MIN_LANES ? kernels : new RowKernels();
+    }
+}
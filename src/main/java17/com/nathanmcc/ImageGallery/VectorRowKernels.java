@@ -0,0 +1,96 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * RowKernels with the incubating Vector API, working on as many pixels at once as the processor's
+ * preferred vectors hold: 8 with AVX2, 16 with AVX-512. Pixels left over at the end of a range go
+ * through the plain Java loops.
+ *
+ * Each vector of sums is loaded once, every weight is added to it in registers and it is stored once,
+ * so kernels with many taps read and write the accumulator once instead of once for each tap. Weights of
+ * zero are skipped, which leaves the sums the same.
+ */
+public class VectorRowKernels extends RowKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Number of pixels worked on at once
+     * @return lanes in each vector
+     */
+    public int getLanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void multiplyAdd(int[] source, int source_offset, int weight, int[] accumulator, int start, int end) {
+        int x = start;
+        for (int bound = start + SPECIES.loopBound(end - start); x < bound; x += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, source, x + source_offset).mul(weight)
+                    .add(IntVector.fromArray(SPECIES, accumulator, x))
+                    .intoArray(accumulator, x);
+        }
+        super.multiplyAdd(source, source_offset, weight, accumulator, x, end);
+    }
+
+    @Override
+    public void addCorrelation(int[] source, int source_offset, int[] kernel, int[] accumulator, int start, int end) {
+        int x = start;
+        for (int bound = start + SPECIES.loopBound(end - start); x < bound; x += SPECIES.length()) {
+            IntVector sum = IntVector.fromArray(SPECIES, accumulator, x);
+            for (int i = 0; i < kernel.length; i++) {
+                if (kernel[i] != 0)
+                    sum = sum.add(IntVector.fromArray(SPECIES, source, x + source_offset + i).mul(kernel[i]));
+            }
+            sum.intoArray(accumulator, x);
+        }
+        super.addCorrelation(source, source_offset, kernel, accumulator, x, end);
+    }
+
+    @Override
+    public void correlate3x3(int[] above, int[] current, int[] below, int[] kernel, int[] output, int start, int end) {
+        int x = start;
+        for (int bound = start + SPECIES.loopBound(end - start); x < bound; x += SPECIES.length()) {
+            IntVector sum = IntVector.zero(SPECIES);
+            sum = addRow(sum, above, x, kernel[0], kernel[1], kernel[2]);
+            sum = addRow(sum, current, x, kernel[3], kernel[4], kernel[5]);
+            sum = addRow(sum, below, x, kernel[6], kernel[7], kernel[8]);
+            sum.intoArray(output, x);
+        }
+        super.correlate3x3(above, current, below, kernel, output, x, end);
+    }
+
+    @Override
+    public void correlate5x5(int[][] rows, int[] kernel, int[] output, int start, int end) {
+        int x = start;
+        for (int bound = start + SPECIES.loopBound(end - start); x < bound; x += SPECIES.length()) {
+            IntVector sum = IntVector.zero(SPECIES);
+            for (int j = 0; j < 5; j++) {
+                for (int i = 0; i < 5; i++) {
+                    if (kernel[5 * j + i] != 0)
+                        sum = sum.add(IntVector.fromArray(SPECIES, rows[j], x - 2 + i).mul(kernel[5 * j + i]));
+                }
+            }
+            sum.intoArray(output, x);
+        }
+        super.correlate5x5(rows, kernel, output, x, end);
+    }
+
+    /**
+     * Adds the weighted left, centre and right neighbours of a vector of pixels to the sums
+     */
+    private static IntVector addRow(IntVector sum, int[] row, int x, int left, int centre, int right) {
+        if (left != 0)
+            sum = sum.add(IntVector.fromArray(SPECIES, row, x - 1).mul(left));
+        if (centre != 0)
+            sum = sum.add(IntVector.fromArray(SPECIES, row, x).mul(centre));
+        if (right != 0)
+            sum = sum.add(IntVector.fromArray(SPECIES, row, x + 1).mul(right));
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "vector, " + SPECIES.length() + " ints of " + SPECIES.vectorBitSize() + " bits";
+    }
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for BufferPool
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void hitReturnsTheReleasedBuffer() {
+        BufferPool pool = new BufferPool(1 << 20);
+        int[] buffer = pool.leaseInts(100);
+        pool.release(buffer);
+
+        assertSame(buffer, pool.leaseInts(100));
+        assertNotSame(buffer, pool.leaseInts(100));
+        assertEquals(3, pool.getLeaseCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getReleaseCount());
+        assertEquals(0, pool.getBufferCount());
+    }
+
+    @Test
+    public void clearedImagesAreZeroed() {
+        BufferPool pool = new BufferPool(1 << 20);
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY,
+                BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_BYTE_BINARY};
+        for (int type : types) {
+            BufferedImage image = pool.leaseImage(5, 4, type, true);
+            for (int y = 0; y < 4; y++)
+                for (int x = 0; x < 5; x++)
+                    image.setRGB(x, y, 0xFFFFFFFF);
+            pool.release(image);
+
+            BufferedImage cleared = pool.leaseImage(5, 4, type, true);
+            assertSame(image, cleared);
+            for (int y = 0; y < 4; y++)
+                for (int x = 0; x < 5; x++)
+                    assertEquals(0xFF000000, cleared.getRGB(x, y));
+        }
+        assertEquals(types.length, pool.getHitCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void secondReleaseThrows() {
+        BufferPool pool = new BufferPool(1 << 20);
+        byte[] buffer = pool.leaseBytes(64);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void budgetEvictsOldestFirst() {
+        // Room for two of the arrays
+        BufferPool pool = new BufferPool(2 * 400 + 399);
+        float[] oldest = pool.leaseFloats(100);
+        float[] middle = pool.leaseFloats(100);
+        float[] newest = pool.leaseFloats(100);
+        pool.release(oldest);
+        pool.release(middle);
+        pool.release(newest);
+
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(2, pool.getBufferCount());
+        assertEquals(800, pool.getSize());
+        assertSame(newest, pool.leaseFloats(100));
+        assertSame(middle, pool.leaseFloats(100));
+        assertNotSame(oldest, pool.leaseFloats(100));
+        assertEquals(2, pool.getHitCount());
+    }
+
+    @Test
+    public void subImagesAndCustomImagesAreIgnored() {
+        BufferPool pool = new BufferPool(1 << 20);
+        BufferedImage parent = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        pool.release(parent.getSubimage(2, 2, 4, 4));
+        pool.release(parent.getSubimage(0, 0, 4, 4));
+
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        BufferedImage custom = new BufferedImage(model, model.createCompatibleWritableRaster(8, 8), false, null);
+        assertEquals(BufferedImage.TYPE_CUSTOM, custom.getType());
+        pool.release(custom);
+
+        assertEquals(0, pool.getReleaseCount());
+        assertEquals(0, pool.getBufferCount());
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void imagesWithTheirOwnPaletteAreIgnored() {
+        BufferPool pool = new BufferPool(1 << 20);
+        // As decoded from a palette PNG: the file's own colours, and its own bit depth
+        byte[] reds = {(byte) 0xCC, 0x33, 0x00, (byte) 0xFF};
+        byte[] greens = {0x33, (byte) 0xCC, 0x00, (byte) 0xFF};
+        byte[] blues = {0x33, 0x33, (byte) 0xFF, 0x00};
+        IndexColorModel palette = new IndexColorModel(8, 4, reds, greens, blues);
+        BufferedImage indexed = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_INDEXED, palette);
+        IndexColorModel two_bits = new IndexColorModel(2, 4, reds, greens, blues);
+        BufferedImage binary = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_BINARY, two_bits);
+        pool.release(indexed);
+        pool.release(binary);
+
+        assertNotSame(indexed, pool.leaseImage(8, 8, BufferedImage.TYPE_BYTE_INDEXED, false));
+        assertNotSame(binary, pool.leaseImage(8, 8, BufferedImage.TYPE_BYTE_BINARY, false));
+        assertEquals(0, pool.getReleaseCount());
+        assertEquals(0, pool.getHitCount());
+    }
+}
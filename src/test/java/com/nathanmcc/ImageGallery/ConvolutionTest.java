@@ -0,0 +1,278 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Unit tests for Convolution, checked against a plain convolution of every pixel
+ */
+public class ConvolutionTest {
+
+    // Tiny images, where the kernel reaches past both edges, and a few wide enough for the vector loops
+    private static final int[][] SIZES = {{1, 1}, {1, 6}, {6, 1}, {2, 2}, {3, 3}, {4, 5}, {5, 4}, {7, 7},
+            {8, 3}, {13, 11}, {40, 23}, {67, 9}};
+    private static final int[] KERNEL_SIZES = {1, 3, 5, 7};
+
+    /** A convolution and the whole kernel it should apply */
+    private static class Case {
+        final String name;
+        final Convolution convolution;
+        // Indexed [x][y]
+        final int[][] kernel;
+        final int divisor;
+        final boolean round;
+        final Convolution.Border border;
+
+        Case(String name, Convolution convolution, int[][] kernel, int divisor, boolean round,
+             Convolution.Border border) {
+            this.name = name;
+            this.convolution = convolution;
+            this.kernel = kernel;
+            this.divisor = divisor;
+            this.round = round;
+            this.border = border;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + kernel.length + "x" + kernel.length + " " + border + " / " + divisor
+                    + (round ? " rounded" : "");
+        }
+    }
+
+    /**
+     * Full, divided and separable kernels of every size, with random weights
+     */
+    private static List<Case> cases(Convolution.Border border, Random random) {
+        List<Case> cases = new ArrayList<>();
+        for (int size : KERNEL_SIZES) {
+            for (int divided = 0; divided < 2; divided++) {
+                int[][] kernel = new int[size][size];
+                for (int i = 0; i < size; i++)
+                    for (int j = 0; j < size; j++)
+                        kernel[i][j] = random.nextInt(11) - 4;
+                int divisor = divided == 0 ? 1 : 1 + random.nextInt(40);
+                boolean round = random.nextBoolean();
+                cases.add(new Case("full", new Convolution(kernel, divisor, round, border), kernel, divisor, round,
+                        border));
+            }
+
+            int[] kernel_x = new int[size];
+            int[] kernel_y = new int[size];
+            for (int i = 0; i < size; i++) {
+                kernel_x[i] = random.nextInt(9) - 2;
+                kernel_y[i] = random.nextInt(9) - 2;
+            }
+            int[][] kernel = new int[size][size];
+            for (int i = 0; i < size; i++)
+                for (int j = 0; j < size; j++)
+                    kernel[i][j] = kernel_x[i] * kernel_y[j];
+            int divisor = 1 + random.nextInt(30);
+            boolean round = random.nextBoolean();
+            cases.add(new Case("separable", Convolution.separable(kernel_x, kernel_y, divisor, round, border), kernel,
+                    divisor, round, border));
+        }
+        return cases;
+    }
+
+    /**
+     * Maps a coordinate past the edge the slow way, -1 for a black pixel
+     */
+    private static int map(int i, int length, Convolution.Border border) {
+        if (i >= 0 && i < length)
+            return i;
+        switch (border) {
+            case ZERO:
+                return -1;
+            case CLAMP:
+                return i < 0 ? 0 : length - 1;
+            case WRAP:
+                return ((i % length) + length) % length;
+            default:
+                if (length == 1)
+                    return 0;
+                while (i < 0 || i >= length) {
+                    if (i < 0)
+                        i = -i;
+                    if (i >= length)
+                        i = 2 * (length - 1) - i;
+                }
+                return i;
+        }
+    }
+
+    /**
+     * Convolves one pixel of a plane indexed [y][x], in longs so the sums cannot overflow
+     */
+    private static int reference(int[][] plane, Case test_case, int x, int y) {
+        int height = plane.length;
+        int width = plane[0].length;
+        int radius = test_case.kernel.length / 2;
+        long sum = 0;
+        for (int j = 0; j < test_case.kernel.length; j++) {
+            for (int i = 0; i < test_case.kernel.length; i++) {
+                int source_x = map(x - radius + i, width, test_case.border);
+                int source_y = map(y - radius + j, height, test_case.border);
+                if (source_x >= 0 && source_y >= 0)
+                    sum += (long) test_case.kernel[i][j] * plane[source_y][source_x];
+            }
+        }
+        if (test_case.divisor != 1)
+            sum = Math.floorDiv(test_case.round ? sum + test_case.divisor / 2 : sum, (long) test_case.divisor);
+        return (int) Math.max(0, Math.min(255, sum));
+    }
+
+    private static BufferedImage randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                image.setRGB(x, y, random.nextInt());
+        return image;
+    }
+
+    private static int[][] channel(BufferedImage image, int shift) {
+        int[][] plane = new int[image.getHeight()][image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++)
+            for (int x = 0; x < image.getWidth(); x++)
+                plane[y][x] = (image.getRGB(x, y) >> shift) & 0xFF;
+        return plane;
+    }
+
+    @Test
+    public void imagesMatchReference() {
+        // Several bands, so bands start part way down the image
+        ImageProcessor processor = new ImageProcessor(4);
+        Random random = new Random(3);
+        for (int[] size : SIZES) {
+            BufferedImage image = randomImage(size[0], size[1], random.nextLong());
+            int[][][] channels = {channel(image, 16), channel(image, 8), channel(image, 0)};
+            for (Convolution.Border border : Convolution.Border.values()) {
+                for (Case test_case : cases(border, random)) {
+                    BufferedImage result = processor.applyConvolution(image, test_case.convolution);
+                    for (int c = 0; c < 3; c++) {
+                        int[][] expected = channels[c];
+                        int shift = 16 - 8 * c;
+                        for (int y = 0; y < size[1]; y++)
+                            for (int x = 0; x < size[0]; x++)
+                                assertEquals(test_case + " on " + size[0] + "x" + size[1] + " at " + x + "," + y,
+                                        reference(expected, test_case, x, y), (result.getRGB(x, y) >> shift) & 0xFF);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Convolves single planes through windows that run the given kernels, starting at the top and half way
+     * down, and compares every pixel with the reference
+     */
+    private static void checkKernels(RowKernels kernels) {
+        Random random = new Random(5);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int[][] plane = new int[height][width];
+            for (int[] row : plane)
+                for (int x = 0; x < width; x++)
+                    row[x] = random.nextInt(256);
+            Convolution.PlaneSource source = (y, planes) -> System.arraycopy(plane[y], 0, planes[0], 0, width);
+
+            for (Convolution.Border border : Convolution.Border.values()) {
+                for (Case test_case : cases(border, random)) {
+                    Convolution convolution = test_case.convolution;
+                    for (int start_row : new int[] {0, height / 2}) {
+                        Convolution.Window window = new Convolution.Window(source, source, 1, width, height,
+                                convolution.getRadius(), border, start_row, kernels);
+                        int[] sums = new int[width];
+                        for (int y = start_row; y < height; y++) {
+                            convolution.convolve(window, 0, y, sums);
+                            for (int x = 0; x < width; x++)
+                                assertEquals(kernels + ", " + test_case + " on " + width + "x" + height + " at " + x
+                                        + "," + y, reference(plane, test_case, x, y), convolution.normalise(sums[x]));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scalarKernelsMatchReference() {
+        checkKernels(new RowKernels());
+    }
+
+    @Test
+    public void vectorKernelsMatchReference() throws Exception {
+        Assume.assumeTrue("jdk.incubator.vector has not been added",
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        // The tests run from the classes directory, which is not a multi-release jar, so the Java 17
+        // classes have to be loaded from their versioned directory
+        URL versioned = RowKernels.class.getResource("/META-INF/versions/17/");
+        Assume.assumeTrue("The Java 17 classes have not been built", versioned != null);
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {versioned}, RowKernels.class.getClassLoader())) {
+            RowKernels kernels = (RowKernels) loader.loadClass("VectorRowKernels").getConstructor().newInstance();
+            assertTrue(kernels.toString(), kernels.toString().startsWith("vector"));
+            checkKernels(kernels);
+        }
+    }
+
+    private static long checksum(BufferedImage image) {
+        CRC32 crc = new CRC32();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                crc.update(rgb >>> 24);
+                crc.update(rgb >>> 16);
+                crc.update(rgb >>> 8);
+                crc.update(rgb);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private interface Operation {
+        BufferedImage apply(BufferedImage image);
+    }
+
+    /**
+     * Checks an operation against checksums of what it gave before it ran on the convolution engine, on
+     * random images of 1x1, 2x3, 7x5 and 64x40
+     */
+    private static void checkUnchanged(Operation operation, long... checksums) {
+        int[][] sizes = {{1, 1}, {2, 3}, {7, 5}, {64, 40}};
+        for (int i = 0; i < sizes.length; i++) {
+            BufferedImage image = randomImage(sizes[i][0], sizes[i][1], sizes[i][0] * 31 + sizes[i][1]);
+            assertEquals(sizes[i][0] + "x" + sizes[i][1], checksums[i], checksum(operation.apply(image)));
+        }
+    }
+
+    @Test
+    public void presetsAreUnchanged() {
+        ImageProcessor processor = new ImageProcessor(4);
+        checkUnchanged(processor::sharpen, 0xffffffffL, 0x2a2fb28fL, 0x55d789cbL, 0x139a16ecL);
+        checkUnchanged(image -> processor.applyPipeline(image, new FilterPipeline().sharpen()),
+                0xffffffffL, 0x2a2fb28fL, 0x55d789cbL, 0x139a16ecL);
+        checkUnchanged(processor::applyGaussianBlur, 0xabfb02d4L, 0xca950d02L, 0x48ab278cL, 0x55e73791L);
+        checkUnchanged(image -> processor.applyPipeline(image, new FilterPipeline().gaussianBlur()),
+                0xabfb02d4L, 0xca950d02L, 0x48ab278cL, 0x55e73791L);
+        checkUnchanged(image -> processor.applyGaussianBlur(image, 1.5, 4),
+                0x65904b82L, 0x8527a3c9L, 0x5fd7d12cL, 0x162b3c04L);
+        checkUnchanged(processor::applySobelOperator, 0xff41d9edL, 0xdcdd16c2L, 0x5f736f92L, 0xb826c6c7L);
+        checkUnchanged(processor::applyPrewittOperator, 0xff41d9edL, 0xdcdd16c2L, 0xc0da6c91L, 0x31f96365L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pipelinesRejectWrappedBorders() {
+        new FilterPipeline().then(new Convolution(new int[][] {{1}}, 1, false, Convolution.Border.WRAP));
+    }
+}
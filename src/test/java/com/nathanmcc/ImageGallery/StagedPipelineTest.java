@@ -0,0 +1,93 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for StagedPipeline
+ */
+public class StagedPipelineTest {
+
+    private static List<Integer> numbers(int count) {
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            numbers.add(i);
+        return numbers;
+    }
+
+    @Test(timeout = 10000)
+    public void runReturnsWhenTheFailureHandlerThrows() throws InterruptedException {
+        List<Throwable> reported = new ArrayList<>();
+        Thread.UncaughtExceptionHandler default_handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, err) -> {
+            synchronized (reported) {
+                reported.add(err);
+            }
+        });
+        try {
+            AtomicInteger finished = new AtomicInteger();
+            StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>("test", (item, failure) -> {
+                throw new IllegalStateException("handler failed on " + item);
+            })
+                    .addStage("fail", 1, 1, item -> {
+                        if (item == 3)
+                            throw new Exception("work failed");
+                        return true;
+                    })
+                    .addStage("count", 1, 1, item -> {
+                        finished.incrementAndGet();
+                        return true;
+                    });
+
+            // Far more items than the queues hold, so a dead stage thread would block the submitter
+            pipeline.run(numbers(50));
+
+            assertEquals(49, finished.get());
+            assertEquals(1, pipeline.getStats().get(0).getFailures());
+            assertEquals(1, reported.size());
+            assertEquals("handler failed on 3", reported.get(0).getMessage());
+            assertEquals("work failed", reported.get(0).getSuppressed()[0].getMessage());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(default_handler);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void slowLastStageHoldsBackTheSubmitter() throws InterruptedException {
+        AtomicInteger submitted = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger max_in_flight = new AtomicInteger();
+        StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>("test", (item, failure) -> { })
+                .addStage("fast", 1, 1, item -> true)
+                .addStage("slow", 1, 1, item -> {
+                    Thread.sleep(5);
+                    finished.incrementAndGet();
+                    return true;
+                });
+
+        Iterator<Integer> numbers = numbers(40).iterator();
+        pipeline.run(() -> new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return numbers.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                // Every item before this one has been submitted
+                int in_flight = submitted.getAndIncrement() - finished.get();
+                max_in_flight.accumulateAndGet(in_flight, Math::max);
+                return numbers.next();
+            }
+        });
+
+        assertEquals(40, finished.get());
+        assertTrue("in flight " + max_in_flight.get() + " of " + pipeline.getCapacity(),
+                max_in_flight.get() <= pipeline.getCapacity());
+    }
+}